@@ -11,14 +11,20 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import org.kinectanywhereandroid.algorithm.CalibrationAlgo;
+import org.kinectanywhereandroid.algorithm.PersonTracker;
 import org.kinectanywhereandroid.algorithm.SkelCalibrator;
+import org.kinectanywhereandroid.framework.FrameHistory;
 import org.kinectanywhereandroid.framework.IKinectDataConsumer;
+import org.kinectanywhereandroid.framework.JointSmoother;
 import org.kinectanywhereandroid.framework.KinectQueueWorkerThread;
 import org.kinectanywhereandroid.framework.KinectSampleWorkerThread;
+import org.kinectanywhereandroid.framework.OutputScheduler;
 import org.kinectanywhereandroid.framework.QueuedSamplesKinect;
 import org.kinectanywhereandroid.framework.RemoteKinect;
 import org.kinectanywhereandroid.framework.SingleSampleKinect;
-import org.kinectanywhereandroid.network.UdpBroadcastingThread;
+import org.kinectanywhereandroid.framework.StaleHostsEvictor;
+import org.kinectanywhereandroid.framework.TimingWheel;
+import org.kinectanywhereandroid.network.UdpBroadcaster;
 import org.kinectanywhereandroid.network.UdpServerThread;
 import org.kinectanywhereandroid.recorder.UDPServerThreadMock;
 import org.kinectanywhereandroid.util.DataHolder;
@@ -57,16 +63,40 @@ public class MainActivity extends AppCompatActivity {
     Menu _activateClientMenu;
     Menu _shutdownMenu;
     MenuItem _showAvgSkelMenuItem;
+    MenuItem _poseGraphMenuItem;
+    MenuItem _parallelCalibrationMenuItem;
+    MenuItem _jointSmoothingMenuItem;
+    MenuItem _predictionMenuItem;
 
     static final int UDP_SERVER_PORT = 11000;
     static final int UDP_BROADCATING_PORT = 5000;
 
+    /** How far ahead (milliseconds) persons are predicted when prediction is on, about the pipeline latency */
+    static final int PREDICTION_LOOK_AHEAD = 100;
+
+    /** Rate (Hz) fused skeletons are emitted at, and how far behind (milliseconds): about a sensor period,
+     *  so outputs are interpolated between real frames */
+    static final int OUTPUT_RATE = 60;
+    static final long OUTPUT_DELAY = 33;
+
+    /** Threads of the scheduler: frame ticks & output ticks may run concurrently, with a spare for the rest */
+    static final int SCHEDULER_THREADS = 3;
+
+    /** Time between flushes of the scheduler statistics to the log (milliseconds) */
+    static final long METRICS_PERIOD = 10000;
+
+    TimingWheel scheduler;
     UdpServerThread udpServerThread;
-    UdpBroadcastingThread udpBroadcastingThread;
+    UdpBroadcaster udpBroadcaster;
+    StaleHostsEvictor hostsEvictor;
     UDPServerThreadMock mockServer;
     IKinectDataConsumer kinectDataConsumer;
     SkelPainter painter;
     SkelCalibrator calibrator;
+    JointSmoother smoother;
+    FrameHistory frameHistory;
+    PersonTracker personTracker;
+    OutputScheduler outputScheduler;
     UDPServerThreadMock recorder;
 
     ArrayList<String> _menuClients;
@@ -83,7 +113,13 @@ public class MainActivity extends AppCompatActivity {
         CALIBRATION_MODE_PER_FRAME(5),
         CALIBRATION_MODE_TEMPORAL_APPROX(6),
         CALIBRATION_MODE_BEST_IN_CLASS(7),
-        CALIBRATION_MODE_KALMAN(8);
+        CALIBRATION_MODE_KALMAN(8),
+
+        POSE_GRAPH_REFINEMENT(9),
+        PARALLEL_CALIBRATION(10),
+        JOINT_SMOOTHING(11),
+        CALIBRATION_MODE_RESERVOIR(12),
+        PREDICTION(13);
 
         public final int id;
 
@@ -125,15 +161,24 @@ public class MainActivity extends AppCompatActivity {
         _masterCameraMenu.add(MenuOptions.MASTER_CAMERA_GROUP.id, 0, Menu.FIRST, "No master");
         _showAvgSkelMenuItem = menu.add(MenuOptions.SHOW_ESTIMATED_SKEL.id, 0, Menu.NONE, "Show Estimated Skeleton").
                                         setCheckable(true).setChecked(false);
+        _poseGraphMenuItem = menu.add(MenuOptions.POSE_GRAPH_REFINEMENT.id, 0, Menu.NONE, "Global Refinement").
+                                        setCheckable(true).setChecked(false);
+        _parallelCalibrationMenuItem = menu.add(MenuOptions.PARALLEL_CALIBRATION.id, 0, Menu.NONE, "Parallel Calibration").
+                                        setCheckable(true).setChecked(false);
+        _jointSmoothingMenuItem = menu.add(MenuOptions.JOINT_SMOOTHING.id, 0, Menu.NONE, "Smooth Joints").
+                                        setCheckable(true).setChecked(false);
+        _predictionMenuItem = menu.add(MenuOptions.PREDICTION.id, 0, Menu.NONE, "Predict Ahead").
+                                        setCheckable(true).setChecked(false);
         _calibrationModeMenu.add(MenuOptions.CALIBRATION_MODE_GROUP.id, MenuOptions.CALIBRATION_MODE_PER_FRAME.id,
                                  Menu.NONE, "Per Frame");
         _calibrationModeMenu.add(MenuOptions.CALIBRATION_MODE_GROUP.id, MenuOptions.CALIBRATION_MODE_TEMPORAL_APPROX.id,
                                  Menu.NONE, "Temporal Approximation");
         _calibrationModeMenu.add(MenuOptions.CALIBRATION_MODE_GROUP.id, MenuOptions.CALIBRATION_MODE_BEST_IN_CLASS.id,
                                  Menu.NONE, "Best In Class");
-        // Optional: In the future - Kalman filter can be added here
-//        _calibrationModeMenu.add(MenuOptions.CALIBRATION_MODE_GROUP.id, MenuOptions.CALIBRATION_MODE_KALMAN.id,
-//                                 Menu.NONE, "Kalman Approximation");
+        _calibrationModeMenu.add(MenuOptions.CALIBRATION_MODE_GROUP.id, MenuOptions.CALIBRATION_MODE_KALMAN.id,
+                                 Menu.NONE, "Kalman Approximation");
+        _calibrationModeMenu.add(MenuOptions.CALIBRATION_MODE_GROUP.id, MenuOptions.CALIBRATION_MODE_RESERVOIR.id,
+                                 Menu.NONE, "Spatial Reservoir");
 
         return true;
     }
@@ -236,6 +281,10 @@ public class MainActivity extends AppCompatActivity {
                     DataHolder.INSTANCE.save(DataHolderEntry.CALIBRATION_MODE,
                                              CalibrationAlgo.CalibrationMode.KALMAN);
                 }
+                else if (id == MenuOptions.CALIBRATION_MODE_RESERVOIR.id) {
+                    DataHolder.INSTANCE.save(DataHolderEntry.CALIBRATION_MODE,
+                                             CalibrationAlgo.CalibrationMode.RESERVOIR);
+                }
 
                 // If there are connected clients and there is no master set, choose the first camera
                 // so the calibration process shows some results on screen
@@ -258,14 +307,50 @@ public class MainActivity extends AppCompatActivity {
 
                 return true;
             }
+            case POSE_GRAPH_REFINEMENT: {
+
+                boolean isChecked = DataHolder.INSTANCE.retrieve(DataHolderEntry.POSE_GRAPH_REFINEMENT);
+                item.setChecked(!isChecked);
+                DataHolder.INSTANCE.save(DataHolderEntry.POSE_GRAPH_REFINEMENT, item.isChecked());
+
+                return true;
+            }
+            case PARALLEL_CALIBRATION: {
+
+                boolean isChecked = DataHolder.INSTANCE.retrieve(DataHolderEntry.PARALLEL_CALIBRATION);
+                item.setChecked(!isChecked);
+                DataHolder.INSTANCE.save(DataHolderEntry.PARALLEL_CALIBRATION, item.isChecked());
+
+                return true;
+            }
+            case JOINT_SMOOTHING: {
+
+                boolean isChecked = DataHolder.INSTANCE.retrieve(DataHolderEntry.JOINT_SMOOTHING);
+                item.setChecked(!isChecked);
+                DataHolder.INSTANCE.save(DataHolderEntry.JOINT_SMOOTHING, item.isChecked());
+
+                return true;
+            }
+            case PREDICTION: {
+
+                int lookAhead = DataHolder.INSTANCE.retrieve(DataHolderEntry.PREDICTION_LOOK_AHEAD);
+                item.setChecked(lookAhead == 0);
+                DataHolder.INSTANCE.save(DataHolderEntry.PREDICTION_LOOK_AHEAD, item.isChecked() ? PREDICTION_LOOK_AHEAD : 0);
+
+                return true;
+            }
             case ACTIVATE_CLIENT_GROUP: {
                 String client = _menuClients.get(id - 1);
                 Map<String, RemoteKinect> connectedHosts = DataHolder.INSTANCE.retrieve(DataHolderEntry.CONNECTED_HOSTS);
 
                 Queue<String> queue = DataHolder.INSTANCE.retrieve(DataHolderEntry.BROADCASTING_QUEUE);
 
+                RemoteKinect kinect = connectedHosts.get(client);
+                if (kinect == null)
+                    return true; // Evicted since the menu was listed
+
                 String msg = client;
-                if (connectedHosts.get(client).isON) {
+                if (kinect.isON) {
                     msg += "=OFF";
                 } else {
                     msg += "=ON";
@@ -322,6 +407,10 @@ public class MainActivity extends AppCompatActivity {
     @Override
     protected void onStart() {
 
+        // All periodic work runs on the ticks of a single scheduler
+        scheduler = new TimingWheel(SCHEDULER_THREADS);
+        DataHolder.INSTANCE.save(DataHolderEntry.SCHEDULER, scheduler);
+
         createClientDataHandlerPipeline();
 
         if (mode != AppMode.REPLAY) {
@@ -334,17 +423,55 @@ public class MainActivity extends AppCompatActivity {
             mockServer = new UDPServerThreadMock(this.getApplicationContext(), false);
         }
 
-        udpBroadcastingThread = new UdpBroadcastingThread(UDP_BROADCATING_PORT);
-        udpBroadcastingThread.start();
+        udpBroadcaster = new UdpBroadcaster(UDP_BROADCATING_PORT);
+        udpBroadcaster.activate();
+
+        hostsEvictor = new StaleHostsEvictor();
+        hostsEvictor.activate();
+
+        final TimingWheel metricsScheduler = scheduler;
+        scheduler.schedule("METRICS_FLUSH", new Runnable() {
+
+            @Override
+            public void run() {
+                metricsScheduler.flushStatistics();
+            }
+        }, METRICS_PERIOD, METRICS_PERIOD);
 
         DataHolder.INSTANCE.save(DataHolderEntry.CALIBRATION_MODE, CalibrationAlgo.CalibrationMode.PER_FRAME);
         DataHolder.INSTANCE.save(DataHolderEntry.SHOW_AVERAGE_SKELETONS, false);
-        calibrator = new SkelCalibrator();
+        DataHolder.INSTANCE.save(DataHolderEntry.POSE_GRAPH_REFINEMENT, false);
+        DataHolder.INSTANCE.save(DataHolderEntry.PARALLEL_CALIBRATION, false);
+        DataHolder.INSTANCE.save(DataHolderEntry.JOINT_SMOOTHING, false);
+        DataHolder.INSTANCE.save(DataHolderEntry.PREDICTION_LOOK_AHEAD, 0);
+
+        // Smoothing runs first, so all following listeners receive the smoothed joints
+        smoother = new JointSmoother();
+        kinectDataConsumer.register(smoother);
+
+        // Recorded before the other listeners, so they may look back at the current frame as well
+        frameHistory = new FrameHistory();
+        kinectDataConsumer.register(frameHistory);
+        DataHolder.INSTANCE.save(DataHolderEntry.FRAME_HISTORY, frameHistory);
+
+        calibrator = new SkelCalibrator(getFilesDir());
         kinectDataConsumer.register(calibrator);
 
+        // Tracks persons in master coordinates, after the calibrator updated the transformations
+        personTracker = new PersonTracker();
+        kinectDataConsumer.register(personTracker);
+
+        // Emits the tracked persons at a steady rate, for renderers & controllers
+        outputScheduler = new OutputScheduler(personTracker, OUTPUT_RATE, OUTPUT_DELAY);
+        kinectDataConsumer.register(outputScheduler);
+        DataHolder.INSTANCE.save(DataHolderEntry.OUTPUT_SCHEDULER, outputScheduler);
+
         painter = new SkelPainter(this);
         kinectDataConsumer.register(painter);
         kinectDataConsumer.activate();
+        outputScheduler.activate();
+        painter.activate();
+        scheduler.activate();
 
         if (mockServer != null)
             mockServer.startReplay();
@@ -359,9 +486,14 @@ public class MainActivity extends AppCompatActivity {
             udpServerThread = null;
         }
 
-        if(udpBroadcastingThread != null){
-            udpBroadcastingThread.setRunning(false);
-            udpBroadcastingThread = null;
+        if(udpBroadcaster != null){
+            udpBroadcaster.deactivate();
+            udpBroadcaster = null;
+        }
+
+        if (hostsEvictor != null) {
+            hostsEvictor.deactivate();
+            hostsEvictor = null;
         }
 
         if (kinectDataConsumer != null) {
@@ -369,6 +501,30 @@ public class MainActivity extends AppCompatActivity {
             kinectDataConsumer = null;
         }
 
+        if (outputScheduler != null) {
+            outputScheduler.deactivate();
+            outputScheduler = null;
+        }
+
+        if (painter != null) {
+            painter.deactivate();
+            painter = null;
+        }
+
+        // The calibrator is updated by the frame tasks, save it only once no frame is in progress
+        boolean isIdle = true;
+        if (scheduler != null) {
+            isIdle = scheduler.deactivate();
+            scheduler = null;
+        }
+
+        if (calibrator != null) {
+            if (isIdle)
+                calibrator.saveProfile(); // Otherwise the last periodic save is kept
+            calibrator.shutdown();
+            calibrator = null;
+        }
+
         super.onStop();
     }
 
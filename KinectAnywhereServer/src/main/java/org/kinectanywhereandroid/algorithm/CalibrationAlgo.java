@@ -5,6 +5,9 @@ import android.support.annotation.NonNull;
 import java.util.LinkedList;
 import java.util.List;
 
+import org.kinectanywhereandroid.math.Mat3;
+import org.kinectanywhereandroid.math.Mat4;
+import org.kinectanywhereandroid.math.Vec3;
 import org.kinectanywhereandroid.util.Pair;
 import org.kinectanywhereandroid.model.Joint;
 import org.kinectanywhereandroid.model.Joint.JointTrackingState;
@@ -29,15 +32,13 @@ import Jama.SingularValueDecomposition;
  */
 public class CalibrationAlgo {
 
-    /** For floating points rounding errors */
-    private static final double EPSILON = 0.000001;
-
     public enum CalibrationMode {
 
         PER_FRAME,
         FIRST_ORDER_TEMPORAL_APPROX,
         BEST_IN_CLASS,
-        KALMAN
+        KALMAN,
+        RESERVOIR
     }
 
     /**
@@ -61,6 +62,65 @@ public class CalibrationAlgo {
         return transform;
     }
 
+    /**
+     * Calibrate several matched skeletons at once (i.e: all persons both cameras see in the same frame).
+     * All joints tracked in both skeletons of each match are aligned together, as a single cloud of points.
+     * @param matched Skeletons in a second coordinates system
+     * @param masters The same skeletons (by index) in master coordinates system
+     * @return 4x4 Homogeneous transformation matrix from matched skeletons coordinates system
+     *         to master coordinates system.
+     */
+    @NonNull
+    public Matrix calibrate(List<Skeleton> matched, List<Skeleton> masters)
+    {
+        List<Pair<Joint, Joint>> selection = new LinkedList<>();
+
+        for (int i = 0; i < matched.size(); i++)
+            selection.addAll(AbsoluteOrientation.selectPoints(matched.get(i), masters.get(i)));
+
+        return AbsoluteOrientation.estimateTransformation(selection);
+    }
+
+    /**
+     * Calibrate a set of joint correspondences accumulated over time (see CorrespondenceReservoir)
+     * @param correspondences Flat array, 6 values per correspondence: the joint in the matched coordinates
+     *                        system (x, y, z), followed by the same joint in master coordinates system (x, y, z)
+     * @param count Number of correspondences in the array
+     * @return 4x4 Homogeneous transformation matrix from matched coordinates system to master coordinates system.
+     */
+    @NonNull
+    public Matrix calibrate(double[] correspondences, int count)
+    {
+        double[] centroidA = new double[3];
+        double[] centroidB = new double[3];
+
+        for (int i = 0; i < count; i++) {
+            for (int axis = 0; axis < 3; axis++) {
+                centroidA[axis] += correspondences[i * 6 + axis];
+                centroidB[axis] += correspondences[i * 6 + 3 + axis];
+            }
+        }
+
+        for (int axis = 0; axis < 3; axis++) {
+            centroidA[axis] /= count;
+            centroidB[axis] /= count;
+        }
+
+        double[][] cov = new double[3][3];
+
+        for (int k = 0; k < count; k++)
+            for (int i = 0; i < 3; i++)
+                for (int j = 0; j < 3; j++)
+                    cov[i][j] += (correspondences[k * 6 + i] - centroidA[i]) *
+                                 (correspondences[k * 6 + 3 + j] - centroidB[j]);
+
+        Pair<Joint, Joint> centroids = new Pair<>(
+                new Joint((float)centroidA[0], (float)centroidA[1], (float)centroidA[2]),
+                new Joint((float)centroidB[0], (float)centroidB[1], (float)centroidB[2]));
+
+        return AbsoluteOrientation.estimateTransformation(centroids, new Matrix(cov));
+    }
+
     /**
      * Applies transformation to skeleton's joints (rotate and translate).
      * @param skel Skeleton in first coordinates system.
@@ -70,19 +130,30 @@ public class CalibrationAlgo {
     @NonNull
     public static Skeleton transform(Skeleton skel, Matrix transformation) {
 
+        return transform(skel, new Mat4(transformation));
+    }
+
+    /**
+     * Applies transformation to skeleton's joints (rotate and translate).
+     * @param skel Skeleton in first coordinates system.
+     * @param transformation Homogeneous transformation to transform the skeleton
+     *                       to a second coordinates system.
+     */
+    @NonNull
+    public static Skeleton transform(Skeleton skel, Mat4 transformation) {
+
         Skeleton transformedSkel = new Skeleton(skel);
 
         for (int i = 0; i < Skeleton.JOINTS_COUNT; i++) {
 
             Joint joint = transformedSkel.joints[i];
-            Matrix jointPos = new Matrix(new double[][]{
-                    {joint.x}, {joint.y}, {joint.z}, {1}
-            } );
-
-            Matrix transformedJoint = transformation.times(jointPos);
-            transformedSkel.joints[i].x = (float)transformedJoint.get(0, 0);
-            transformedSkel.joints[i].y = (float)transformedJoint.get(1, 0);
-            transformedSkel.joints[i].z = (float)transformedJoint.get(2, 0);
+            double x = joint.x;
+            double y = joint.y;
+            double z = joint.z;
+
+            joint.x = (float)(transformation.m00 * x + transformation.m01 * y + transformation.m02 * z + transformation.m03);
+            joint.y = (float)(transformation.m10 * x + transformation.m11 * y + transformation.m12 * z + transformation.m13);
+            joint.z = (float)(transformation.m20 * x + transformation.m21 * y + transformation.m22 * z + transformation.m23);
         }
         return transformedSkel;
     }
@@ -184,6 +255,18 @@ public class CalibrationAlgo {
             Pair<Joint, Joint> centroids = computeCentroids(matches);
             Matrix cov = computeCovariance(matches, centroids);
 
+            return estimateTransformation(centroids, cov);
+        }
+
+        /**
+         * Finds optimal Rotation and Translation from the covariance of 2 clouds of points (Kabsch's algorithm)
+         * @param centroids Center position of each cloud of points
+         * @param cov 3x3 Covariance matrix between the 2 clouds (see computeCovariance)
+         * @return 4x4 homogeneous transformation matrix from the first cloud to the second
+         */
+        @NonNull
+        private static Matrix estimateTransformation(Pair<Joint, Joint> centroids, Matrix cov)
+        {
             // Svd step
             SingularValueDecomposition decomp = cov.svd();
             Matrix u = decomp.getU();
@@ -247,19 +330,7 @@ public class CalibrationAlgo {
 
         // Algorithms implemented according to:
         // https://www.cs.duke.edu/courses/fall13/compsci527/notes/rodrigues.pdf
-
-        private static double arctan2(double y, double x) {
-            if ((Math.abs(x) < EPSILON) && (y > 0))
-                return (Math.PI / 2);
-            else if ((Math.abs(x) < EPSILON) && (y < 0))
-                return (-Math.PI / 2);
-            else if (x > 0)
-                return Math.atan(y / x);
-            else if (x < 0)
-                return (Math.atan(y / x) + Math.PI);
-
-            return 0; // Undefined for (0,0)
-        }
+        // The 3x3 work is done by the fixed size Mat3 / Vec3 types, these helpers convert from / to Jama.
 
         public static Matrix extractRotation(Matrix homogeneousTransform) {
 
@@ -288,103 +359,43 @@ public class CalibrationAlgo {
             return new Matrix(homogeneousTransform);
         }
 
+        public static Matrix invertRigid(Matrix homogeneousTransform) {
+
+            return new Mat4(homogeneousTransform).invertRigid().toMatrix();
+        }
+
         public static Matrix rotationMatToAxisAngle(Matrix R)
         {
             // -- Calculate using the Inverse Rodrigues formula --
             // rotationMat is a rotation matrix in SO3 where det(rotationMat)=1 and (rotationMat')*(rotationMat) = I
+            Vec3 axisAngle = toMat3(R).toAxisAngle(new Vec3());
 
-            // Calculation factors
-
-            // A = (R - R') / 2
-            final Matrix A = (R.minus(R.transpose())).times(0.5f);
-
-            // p = [ a32 a13 a21 ]'
-            Matrix p = new Matrix(new double[][]{ { A.get(2, 1) }, { A.get(0, 2) }, { A.get(1, 0) } });
-
-            // s = ||p||
-            double s = p.norm2();
-
-            // c = (r00 + r11 + r22 - 1) / 2
-            double c = (R.trace() - 1) * 0.5f;
-
-            // If s = 0, c = 1 (avoid floating points rounding errors)
-            if ((s <= EPSILON) && (c <= 1 + EPSILON) && ( 1 - EPSILON <= c))
-            {
-                return new Matrix(3, 1); // Axis angle vector r = 0
-            }
-            else if ((s <= EPSILON) && (c <= -1 + EPSILON) && (-1 - EPSILON <= c)) // s = 0, c = -1
-            {
-                // v must be a non zero column of R + I
-                Matrix v = new Matrix(new double[][] { { R.get(0, 0) + 1}, { R.get(1, 0) }, { R.get(2, 0) } });
-
-                // u = PI * (v / ||v||)
-                Matrix u = v.times(1 / v.norm2()).times(Math.PI);
-
-                if ((u.norm2() == Math.PI) &&
-                        (((u.get(0, 0) == 0) && (u.get(1, 0) == 0) && (u.get(2, 0) < 0)) ||
-                        ((u.get(0, 0) == 0) && (u.get(1, 0) < 0)) ||
-                        (u.get(0, 0) < 0)))
-                {
-                    return u.times(-1);
-                }
-                else
-                {
-                    return u;
-                }
-            }
-
-            double theta = arctan2(s, c);
-
-            // Sin theta != 0
-            if (Math.abs(Math.sin(theta)) > EPSILON)
-            {
-                Matrix u = p.times(1 / s);
-                return u.times(theta);
-            }
-
-            return new Matrix(4, 1); // Undefined - shouldn't happen
+            return new Matrix(new double[][]{ { axisAngle.x }, { axisAngle.y }, { axisAngle.z } });
         }
 
         public static Matrix axisAngletoRotationMat(Matrix r)
         {
             // -- Calculate using the Rodrigues formula --
             // r is an axis angle vector in 3d space
+            Mat3 rotationMat = new Mat3().setAxisAngle(new Vec3(r.get(0, 0), r.get(1, 0), r.get(2, 0)));
 
-            // The angle of rotation is encoded in the norm of axisAngle
-            double theta = r.norm2();
-
-            // Make sure <= PI
-            if (theta > Math.PI)
-                theta -= 2 * Math.PI;
+            return new Matrix(new double[][] {
+                    { rotationMat.m00, rotationMat.m01, rotationMat.m02 },
+                    { rotationMat.m10, rotationMat.m11, rotationMat.m12 },
+                    { rotationMat.m20, rotationMat.m21, rotationMat.m22 }
+            });
+        }
 
-            // Rotation matrix is identity
-            if (Math.abs(theta) <= EPSILON)
-            {
-                Matrix rotationMat = Matrix.identity(3, 3);
-                return rotationMat;
-            }
+        /**
+         * @param m Jama matrix of at least 3x3, only the top left 3x3 sub-matrix is used
+         * @return Mat3 copy of the top left 3x3 sub-matrix
+         */
+        public static Mat3 toMat3(Matrix m) {
 
-            // Define: u = r / theta
-            Matrix u = r.times(1 / theta);
-            double ux = u.get(0, 0);
-            double uy = u.get(1, 0);
-            double uz = u.get(2, 0);
-
-            double[][] rotationMatArr = new double[3][3];
-
-            float oneMinusCosTheta = (float)(1 - Math.cos(theta));
-            float halfSinTheta = (float)(Math.sin(theta));
-            rotationMatArr[0][0] = (float)Math.cos(theta) + oneMinusCosTheta * ux * ux;
-            rotationMatArr[0][1] = oneMinusCosTheta * ux * uy + halfSinTheta * (-uz);
-            rotationMatArr[0][2] = oneMinusCosTheta * ux * uz + halfSinTheta * (uy);
-            rotationMatArr[1][0] = oneMinusCosTheta * uy * ux + halfSinTheta * (uz);
-            rotationMatArr[1][1] = (float)Math.cos(theta) + oneMinusCosTheta * uy * uy;
-            rotationMatArr[1][2] = oneMinusCosTheta * uy * uz + halfSinTheta * (-ux);
-            rotationMatArr[2][0] = oneMinusCosTheta * uz * ux + halfSinTheta * (-uy);
-            rotationMatArr[2][1] = oneMinusCosTheta * uz * uy + halfSinTheta * (ux);
-            rotationMatArr[2][2] = (float)Math.cos(theta) + oneMinusCosTheta * uz * uz;
-
-            return new Matrix(rotationMatArr);
+            double[][] arr = m.getArray();
+            return new Mat3().set(arr[0][0], arr[0][1], arr[0][2],
+                                  arr[1][0], arr[1][1], arr[1][2],
+                                  arr[2][0], arr[2][1], arr[2][2]);
         }
     }
 }
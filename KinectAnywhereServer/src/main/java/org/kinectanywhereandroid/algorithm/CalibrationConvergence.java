@@ -0,0 +1,232 @@
+package org.kinectanywhereandroid.algorithm;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import org.kinectanywhereandroid.math.Vec3;
+
+import Jama.Matrix;
+
+/**
+ * Tracks the convergence of the calibration between a single pair of cameras.
+ * While calibrating, every new transformation estimate updates a moving residual and the moving variance
+ * of the estimated rotation (axis angle) and translation. Once these settle the pair is considered
+ * converged and drops to a low rate verification mode: the current transformation is only checked against
+ * the incoming frames every few frames. If the residual grows consistently (i.e: a camera was bumped),
+ * drift is reported and the pair goes back to full rate calibration.
+ */
+@NotThreadSafe
+public class CalibrationConvergence {
+
+    public enum State {
+
+        CALIBRATING,
+        CONVERGED
+    }
+
+    /** Smoothing factor of the moving residual & moving variance (exponential moving average) */
+    private final static double ALPHA = 0.05;
+
+    /** Minimal number of estimates before the pair may be considered converged */
+    private final static int MIN_ESTIMATES = 60;
+
+    /** Maximal standard deviation of the estimated rotation (radians) for a converged pair */
+    private final static double MAX_ROTATION_STD = 0.02;
+
+    /** Maximal standard deviation of the estimated translation (meters) for a converged pair */
+    private final static double MAX_TRANSLATION_STD = 0.02;
+
+    /** Maximal moving residual (see SkelCalibrator.calculateMSE) for a converged pair */
+    private final static double MAX_RESIDUAL = 0.2;
+
+    /** A converged pair is verified once every VERIFICATION_INTERVAL frames */
+    private final static int VERIFICATION_INTERVAL = 15;
+
+    /** Verification fails when the residual exceeds the converged residual by this factor.. */
+    private final static double DRIFT_FACTOR = 2.0;
+
+    /** ..and by at least this margin (so tiny converged residuals don't trigger on sensor noise) */
+    private final static double DRIFT_MARGIN = 0.05;
+
+    /** Number of consecutive failed verifications before drift is reported */
+    private final static int DRIFT_CONFIRMATIONS = 3;
+
+    private State _state;
+    private int _estimatesCount;
+    private int _framesSinceVerification;
+    private int _failedVerifications;
+
+    private double _residual;
+    private double _convergedResidual;
+    private double[] _mean;        // Moving mean of { axis angle, translation }
+    private double[] _variance;    // Moving variance of { axis angle, translation }
+
+    // Scratch space, reused between estimates
+    private Vec3 _axisAngle;
+    private double[] _sample;
+
+    public CalibrationConvergence() {
+
+        _mean = new double[6];
+        _variance = new double[6];
+        _axisAngle = new Vec3();
+        _sample = new double[6];
+        reset();
+    }
+
+    /**
+     * Forget all estimates and go back to full rate calibration
+     */
+    public void reset() {
+
+        _state = State.CALIBRATING;
+        _estimatesCount = 0;
+        _framesSinceVerification = 0;
+        _failedVerifications = 0;
+        _residual = 0;
+        _convergedResidual = 0;
+
+        for (int i = 0; i < 6; i++) {
+            _mean[i] = 0;
+            _variance[i] = 0;
+        }
+    }
+
+    /**
+     * Continue tracking from a previously stored state of the pair (i.e: a persisted calibration profile)
+     * @param transformation Stored transformation of the pair
+     * @param residual Stored moving residual
+     * @param estimatesCount Number of estimates the stored state is based on
+     * @param isConverged True if the pair was converged, in which case it starts in verification mode
+     */
+    public void restore(Matrix transformation, double residual, int estimatesCount, boolean isConverged) {
+
+        reset();
+        addEstimate(transformation, residual);
+
+        // The stored variance isn't kept, so an unconverged pair has to earn its convergence again
+        if (isConverged) {
+            _estimatesCount = estimatesCount;
+            _state = State.CONVERGED;
+            _convergedResidual = residual;
+        }
+    }
+
+    /**
+     * Feed a new transformation estimate of the pair, calculated during full rate calibration
+     * @param transformation 4x4 homogeneous transformation estimated for the pair
+     * @param residual Error of the transformation on the frame it was estimated for
+     */
+    public void addEstimate(Matrix transformation, double residual) {
+
+        Vec3 axisAngle = CalibrationAlgo.Rotation.toMat3(transformation).toAxisAngle(_axisAngle);
+
+        double[] sample = _sample;
+        sample[0] = axisAngle.x;
+        sample[1] = axisAngle.y;
+        sample[2] = axisAngle.z;
+        sample[3] = transformation.get(0, 3);
+        sample[4] = transformation.get(1, 3);
+        sample[5] = transformation.get(2, 3);
+
+        if (_estimatesCount == 0) {
+            System.arraycopy(sample, 0, _mean, 0, 6);
+            _residual = residual;
+        }
+        else {
+            for (int i = 0; i < 6; i++) {
+                double diff = sample[i] - _mean[i];
+                _mean[i] += ALPHA * diff;
+                _variance[i] = (1 - ALPHA) * (_variance[i] + ALPHA * diff * diff);
+            }
+
+            _residual += ALPHA * (residual - _residual);
+        }
+
+        _estimatesCount++;
+
+        if ((_estimatesCount >= MIN_ESTIMATES) &&
+            (getRotationStd() <= MAX_ROTATION_STD) &&
+            (getTranslationStd() <= MAX_TRANSLATION_STD) &&
+            (_residual <= MAX_RESIDUAL)) {
+
+            _state = State.CONVERGED;
+            _convergedResidual = _residual;
+            _framesSinceVerification = 0;
+            _failedVerifications = 0;
+        }
+    }
+
+    /**
+     * Should be called once per frame for a converged pair
+     * @return True if the current transformation should be verified during this frame
+     */
+    public boolean isVerificationDue() {
+
+        return (++_framesSinceVerification >= VERIFICATION_INTERVAL);
+    }
+
+    /**
+     * Verify the current transformation of a converged pair against the current frame
+     * @param residual Error of the current transformation on the current frame
+     * @return True if drift was detected, in which case the pair goes back to full rate calibration
+     */
+    public boolean verify(double residual) {
+
+        _framesSinceVerification = 0;
+        double driftThreshold = Math.max(_convergedResidual * DRIFT_FACTOR, _convergedResidual + DRIFT_MARGIN);
+
+        if (residual <= driftThreshold) {
+            _failedVerifications = 0;
+            _residual += ALPHA * (residual - _residual);
+            return false;
+        }
+
+        if (++_failedVerifications < DRIFT_CONFIRMATIONS)
+            return false;
+
+        reset();
+        return true;
+    }
+
+    public State getState() {
+
+        return _state;
+    }
+
+    public boolean isConverged() {
+
+        return (_state == State.CONVERGED);
+    }
+
+    /**
+     * @return Moving residual of the pair transformation
+     */
+    public double getResidual() {
+
+        return _residual;
+    }
+
+    /**
+     * @return Number of estimates accumulated since calibration (re)started
+     */
+    public int getEstimatesCount() {
+
+        return _estimatesCount;
+    }
+
+    /**
+     * @return Standard deviation of the estimated rotation, in radians (norm over the axis angle components)
+     */
+    public double getRotationStd() {
+
+        return Math.sqrt(_variance[0] + _variance[1] + _variance[2]);
+    }
+
+    /**
+     * @return Standard deviation of the estimated translation (norm over the x, y, z components)
+     */
+    public double getTranslationStd() {
+
+        return Math.sqrt(_variance[3] + _variance[4] + _variance[5]);
+    }
+}
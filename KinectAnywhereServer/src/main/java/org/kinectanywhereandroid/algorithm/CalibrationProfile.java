@@ -0,0 +1,223 @@
+package org.kinectanywhereandroid.algorithm;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import Jama.Matrix;
+
+/**
+ * Persisted calibration state of a camera rig, so the calibrator can warm start from the stored
+ * transformations instead of identity matrices.
+ * Each profile is keyed by the set of camera hostnames of the rig, and stored in a compact binary file:
+ *
+ *   magic, version, hostnames count, hostnames..., entries count,
+ *   entries... = { from, to, 3x4 transformation (row major), residual, estimates count, converged }
+ */
+public class CalibrationProfile {
+
+    private final static String TAG = "CalibrationProfile";
+
+    private final static String PROFILE_FILENAME = "calibration_profile";
+    private final static String PROFILE_FILENAME_EXT = "kcp";
+
+    private final static int MAGIC = 0x4B435031; // "KCP1"
+    private final static int VERSION = 1;
+
+    /**
+     * Stored calibration of a single pair of cameras
+     */
+    public static class Entry {
+
+        public final String fromCamera;
+        public final String toCamera;
+        public final Matrix transformation;
+        public final double residual;
+        public final int estimatesCount;
+        public final boolean isConverged;
+
+        public Entry(String fromCamera, String toCamera, Matrix transformation,
+                     double residual, int estimatesCount, boolean isConverged) {
+
+            this.fromCamera = fromCamera;
+            this.toCamera = toCamera;
+            this.transformation = transformation;
+            this.residual = residual;
+            this.estimatesCount = estimatesCount;
+            this.isConverged = isConverged;
+        }
+    }
+
+    private final SortedSet<String> _hostnames;
+    private final List<Entry> _entries;
+
+    public CalibrationProfile(Collection<String> hostnames) {
+
+        _hostnames = new TreeSet<>(hostnames);
+        _entries = new LinkedList<>();
+    }
+
+    public void addEntry(Entry entry) {
+
+        _entries.add(entry);
+    }
+
+    public List<Entry> getEntries() {
+
+        return _entries;
+    }
+
+    public SortedSet<String> getHostnames() {
+
+        return _hostnames;
+    }
+
+    /**
+     * @param directory Directory where profiles are kept
+     * @param hostnames Camera hostnames of the rig
+     * @return File of the profile for this set of cameras (the order of hostnames doesn't matter)
+     */
+    @NonNull
+    private static File getProfileFile(File directory, Collection<String> hostnames) {
+
+        SortedSet<String> sortedHostnames = new TreeSet<>(hostnames);
+        String rigKey = Integer.toHexString(sortedHostnames.toString().hashCode());
+
+        return new File(directory, PROFILE_FILENAME + "_" + rigKey + "." + PROFILE_FILENAME_EXT);
+    }
+
+    /**
+     * Stores the profile, replacing a previous profile of the same set of cameras
+     * @param directory Directory where profiles are kept
+     * @return True if the profile was stored successfully
+     */
+    public boolean save(File directory) {
+
+        File profileFile = getProfileFile(directory, _hostnames);
+        DataOutputStream os = null;
+
+        try {
+            os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(profileFile)));
+
+            os.writeInt(MAGIC);
+            os.writeInt(VERSION);
+
+            os.writeInt(_hostnames.size());
+            for (String hostname: _hostnames)
+                os.writeUTF(hostname);
+
+            os.writeInt(_entries.size());
+            for (Entry entry: _entries) {
+
+                os.writeUTF(entry.fromCamera);
+                os.writeUTF(entry.toCamera);
+
+                // Last row of a homogeneous transformation is always (0, 0, 0, 1)
+                for (int row = 0; row < 3; row++)
+                    for (int col = 0; col < 4; col++)
+                        os.writeDouble(entry.transformation.get(row, col));
+
+                os.writeDouble(entry.residual);
+                os.writeInt(entry.estimatesCount);
+                os.writeBoolean(entry.isConverged);
+            }
+
+            return true;
+        }
+        catch (IOException e) {
+            Log.e(TAG, e.getLocalizedMessage(), e);
+            return false;
+        }
+        finally {
+            try {
+                if (os != null)
+                    os.close();
+            }
+            catch (IOException e) {
+                Log.e(TAG, e.getLocalizedMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Loads the stored profile of a set of cameras
+     * @param directory Directory where profiles are kept
+     * @param hostnames Camera hostnames of the rig
+     * @return The stored profile, or null if no valid profile exists for this set of cameras
+     */
+    @Nullable
+    public static CalibrationProfile load(File directory, Collection<String> hostnames) {
+
+        File profileFile = getProfileFile(directory, hostnames);
+        if (!profileFile.exists())
+            return null;
+
+        DataInputStream is = null;
+
+        try {
+            is = new DataInputStream(new BufferedInputStream(new FileInputStream(profileFile)));
+
+            if ((is.readInt() != MAGIC) || (is.readInt() != VERSION))
+                return null;
+
+            List<String> storedHostnames = new LinkedList<>();
+            int hostsCount = is.readInt();
+            for (int i = 0; i < hostsCount; i++)
+                storedHostnames.add(is.readUTF());
+
+            CalibrationProfile profile = new CalibrationProfile(storedHostnames);
+
+            // Different rig with a colliding file name
+            if (!profile._hostnames.equals(new TreeSet<>(hostnames)))
+                return null;
+
+            int entriesCount = is.readInt();
+            for (int i = 0; i < entriesCount; i++) {
+
+                String fromCamera = is.readUTF();
+                String toCamera = is.readUTF();
+
+                Matrix transformation = Matrix.identity(4, 4);
+                for (int row = 0; row < 3; row++)
+                    for (int col = 0; col < 4; col++)
+                        transformation.set(row, col, is.readDouble());
+
+                double residual = is.readDouble();
+                int estimatesCount = is.readInt();
+                boolean isConverged = is.readBoolean();
+
+                profile.addEntry(new Entry(fromCamera, toCamera, transformation,
+                                           residual, estimatesCount, isConverged));
+            }
+
+            return profile;
+        }
+        catch (IOException e) {
+            Log.e(TAG, e.getLocalizedMessage(), e);
+            return null;
+        }
+        finally {
+            try {
+                if (is != null)
+                    is.close();
+            }
+            catch (IOException e) {
+                Log.e(TAG, e.getLocalizedMessage(), e);
+            }
+        }
+    }
+}
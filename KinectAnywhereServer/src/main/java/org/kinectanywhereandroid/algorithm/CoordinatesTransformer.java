@@ -1,5 +1,6 @@
 package org.kinectanywhereandroid.algorithm;
 
+import org.kinectanywhereandroid.framework.SingleFrameData;
 import org.kinectanywhereandroid.model.Skeleton;
 
 /**
@@ -15,4 +16,25 @@ public interface CoordinatesTransformer {
      * @return Skeleton in coordinate system of toCamera
      */
     public Skeleton transform(String fromCamera, String toCamera, Skeleton skeleton);
+
+    /**
+     * Transforms all skeletons of the frame to the coordinates system of toCamera at once
+     * @param frame
+     * @param toCamera
+     * @param out Receives the skeletons in coordinate system of toCamera
+     */
+    public void transformFrame(SingleFrameData frame, String toCamera, SkeletonBatch out);
+
+    /**
+     * @return Version of the transformations, changes whenever any of the transformations changes
+     */
+    public long getVersion();
+
+    /**
+     * @param fromCamera
+     * @param toCamera
+     * @return Residual of the transformation from fromCamera to toCamera (see SkelCalibrator.calculateMSE),
+     *         0 if both are the same camera, NaN if the pair wasn't calibrated yet
+     */
+    public double getResidual(String fromCamera, String toCamera);
 }
@@ -0,0 +1,128 @@
+package org.kinectanywhereandroid.algorithm;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import org.kinectanywhereandroid.model.Joint;
+import org.kinectanywhereandroid.model.Skeleton;
+
+/**
+ * Bounded set of joint correspondences between a pair of cameras, spread over the space both cameras see.
+ * The space is divided into a voxel grid (in the coordinates system of the target camera), each voxel holds
+ * at most a single correspondence - the latest. A person standing still keeps refreshing the same few voxels
+ * instead of piling up redundant samples, while a person walking around fills the space, which is what
+ * constrains the transformation. When full, the correspondence refreshed least recently is dropped.
+ * Memory is allocated once.
+ */
+@NotThreadSafe
+public class CorrespondenceReservoir {
+
+    /** Edge of a voxel (meters) */
+    private final static double VOXEL_SIZE = 0.1;
+
+    /** Maximal number of correspondences kept */
+    public final static int CAPACITY = 512;
+
+    /** Correspondences are packed in 6 values: (x, y, z) in the source camera, then (x, y, z) in the target camera */
+    private final static int STRIDE = 6;
+
+    private double[] _correspondences;
+    private long[] _voxels;         // Voxel of each correspondence
+    private long[] _updates;        // Sequence number of the last update of each correspondence
+    private int _count;
+    private long _sequence;
+
+    public CorrespondenceReservoir() {
+
+        _correspondences = new double[CAPACITY * STRIDE];
+        _voxels = new long[CAPACITY];
+        _updates = new long[CAPACITY];
+    }
+
+    public void clear() {
+
+        _count = 0;
+    }
+
+    /**
+     * Add the joints tracked in both skeletons
+     * @param from Skeleton in the source camera coordinates system
+     * @param to The same skeleton in the target camera coordinates system
+     */
+    public void add(Skeleton from, Skeleton to) {
+
+        for (int i = 0; i < Skeleton.JOINTS_COUNT; i++) {
+
+            Joint fromJoint = from.joints[i];
+            Joint toJoint = to.joints[i];
+
+            if ((fromJoint.trackingState != Joint.JointTrackingState.Tracked) ||
+                (toJoint.trackingState != Joint.JointTrackingState.Tracked))
+                continue;
+
+            add(fromJoint.x, fromJoint.y, fromJoint.z, toJoint.x, toJoint.y, toJoint.z);
+        }
+    }
+
+    /**
+     * Add a single correspondence, replacing the correspondence in the same voxel if there is one
+     */
+    public void add(double fromX, double fromY, double fromZ, double toX, double toY, double toZ) {
+
+        long voxel = voxelOf(toX, toY, toZ);
+        int slot = -1;
+        int oldest = 0;
+
+        for (int i = 0; i < _count; i++) {
+
+            if (_voxels[i] == voxel) {
+                slot = i;
+                break;
+            }
+
+            if (_updates[i] < _updates[oldest])
+                oldest = i;
+        }
+
+        if (slot < 0)
+            slot = (_count < CAPACITY) ? _count++ : oldest;
+
+        int offset = slot * STRIDE;
+        _correspondences[offset] = fromX;
+        _correspondences[offset + 1] = fromY;
+        _correspondences[offset + 2] = fromZ;
+        _correspondences[offset + 3] = toX;
+        _correspondences[offset + 4] = toY;
+        _correspondences[offset + 5] = toZ;
+        _voxels[slot] = voxel;
+        _updates[slot] = _sequence++;
+    }
+
+    /**
+     * @return Number of correspondences (i.e: voxels covered)
+     */
+    public int size() {
+
+        return _count;
+    }
+
+    /**
+     * @return The correspondences, 6 values each (see CalibrationAlgo.calibrate(double[], int)).
+     *         Only the first size() correspondences are valid. The array is owned by the reservoir.
+     */
+    public double[] getCorrespondences() {
+
+        return _correspondences;
+    }
+
+    /**
+     * @return Key of the voxel a point falls in: 21 bits per axis, which covers +-100 km
+     */
+    private static long voxelOf(double x, double y, double z) {
+
+        long ix = (long)Math.floor(x / VOXEL_SIZE) & 0x1FFFFF;
+        long iy = (long)Math.floor(y / VOXEL_SIZE) & 0x1FFFFF;
+        long iz = (long)Math.floor(z / VOXEL_SIZE) & 0x1FFFFF;
+
+        return (ix << 42) | (iy << 21) | iz;
+    }
+}
@@ -1,237 +1,247 @@
 package org.kinectanywhereandroid.algorithm;
 
-import org.kinectanywhereandroid.framework.SingleFrameData;
-import org.kinectanywhereandroid.model.Joint;
-import org.kinectanywhereandroid.model.Skeleton;
-import org.kinectanywhereandroid.util.Pair;
+import net.jcip.annotations.NotThreadSafe;
 
-import java.util.Random;
+import org.kinectanywhereandroid.math.Mat3;
+import org.kinectanywhereandroid.math.Mat4;
+import org.kinectanywhereandroid.math.Vec3;
 
 import Jama.Matrix;
 
 
-/** Incomplete implementation - not in use
- *  This is a possible future implementation for a calibration filter
- *  to be applied on top of the other calibration algorithms.
+/**
+ * Calibration filter applied on top of the per frame absolute orientation estimate of a single pair of cameras.
+ * The state is the pose between the cameras (rotation & translation), which is assumed to be static up to
+ * a slow random walk. Each per frame estimate is a noisy measurement of that pose, whose noise grows with
+ * the residual of the estimate on its own frame.
+ *
+ * The filter is an error state filter: the rotation error is kept in axis angle form (left perturbation),
+ * so rotation and translation are each a 3 dimensional block. Rotation and translation errors are treated
+ * as uncorrelated, which keeps the covariance block diagonal - an update costs a couple of 3x3 inversions.
  */
+@NotThreadSafe
 public class KalmanFilter {
 
-    /** Avoid prediction when delta-time is too big, this helps avoid noisy predictions
-     *  (it happens if the last sample is too far apart from the current one,
-     *  increasing the risk of predicting something wrong)
+    /** Largest time step between samples taken into account (milliseconds). Longer gaps (i.e: the pair
+     *  was out of sight for a while) add no more uncertainty than this, and measurements re-establish the pose.
      */
-    private final static int DELTA_TIME_THRESHOLD = 150;
+    private final static int DELTA_TIME_THRESHOLD = 1000;
 
-    /**
-     * Sigma for measurement noise when sampling elements for Vk
-     */
-    private final static float MEASUREMENT_NOISE_SIGMA = 1.0f;
-
-    /**
-     * Sigma for prediction noise when sampling elements for Wk
-     */
-    private final static float PREDICTION_NOISE_SIGMA = 1.0f;
+    /** Time step assumed when the samples timestamps can't be trusted (milliseconds) */
+    private final static int DEFAULT_DELTA_TIME = 33;
 
-    private final static int M = Skeleton.JOINTS_COUNT;
-    private final static int D = 3 * M;
+    /** Process noise: variance added to the pose per second (radians^2 / meters^2) */
+    private final static double ROTATION_PROCESS_NOISE = 0.0001;
+    private final static double TRANSLATION_PROCESS_NOISE = 0.0001;
 
-    private final static Random rand = new Random();
+    /** Measurement noise of a perfectly fitting estimate (radians / meters) */
+    private final static double ROTATION_MEASUREMENT_SIGMA = 0.05;
+    private final static double TRANSLATION_MEASUREMENT_SIGMA = 0.05;
 
-    private Matrix F;                           // Prediction model matrix
-    private Matrix P;                           // DxD error covariance matrix
-    private SingleFrameData prevMeasurement;    // y(k-1)
-    private Matrix prevEstimatedState;          // x(k-1)
+    /** Residual (see SkelCalibrator.calculateMSE) at which the measurement noise is doubled */
+    private final static double REFERENCE_RESIDUAL = 0.1;
 
-    public KalmanFilter() {
-
-        F = Matrix.identity(D, D);
-        P = new Matrix(D, D);
-        prevMeasurement = null;
-        prevEstimatedState = null;
-    }
-
-    /**
-     * @param frame Single fram data
-     * @return 3 * number of joints * number of sensors vector of samples of all joints from all sensors
-     */
-    private Matrix skelToStateVector(SingleFrameData frame) {
+    /** Initial uncertainty of the pose, from the first measurement */
+    private final static double INITIAL_ROTATION_VARIANCE = 0.1;
+    private final static double INITIAL_TRANSLATION_VARIANCE = 0.1;
 
-        int N = frame.numOfCameras();
-        Matrix stateVec = new Matrix(D * N, 1);
+    /** Measurements further than this squared Mahalanobis distance are rejected as outliers
+     *  (99.9% of the chi-square distribution with 3 degrees of freedom) */
+    private final static double GATE = 16.27;
 
-        int index = 0;
+    /** Consecutive rejected measurements after which the pose is assumed to have changed (i.e: camera moved) */
+    private final static int MAX_REJECTIONS = 10;
 
-        for (Pair<String, Skeleton> skelEntry: frame) {
+    private boolean _isInitialized;
+    private long _lastTimestamp;
+    private int _rejections;
 
-            // There should always be M joints, even if they're untracked (contain dummy values)
-            for (Joint joint: skelEntry.second.joints) {
+    private Mat3 _rotation;          // Estimated rotation
+    private Vec3 _translation;       // Estimated translation
+    private Mat3 _rotationCov;       // Covariance of the rotation error (axis angle)
+    private Mat3 _translationCov;    // Covariance of the translation error
 
-                if (joint.trackingState == Joint.JointTrackingState.Tracked) {
+    // Scratch space, reused between updates
+    private Mat3 _measuredRotation;
+    private Mat3 _innovationCov;
+    private Mat3 _innovationCovInv;
+    private Mat3 _gain;
+    private Mat3 _correction;
+    private Vec3 _innovation;
+    private Vec3 _rotationInnovation;
 
-                    stateVec.set(index, 0, joint.x);
-                    stateVec.set(index + 1, 0, joint.y);
-                    stateVec.set(index + 2, 0, joint.z);
-                }
-                else {
-                    stateVec.set(index, 0, 0);
-                    stateVec.set(index + 1, 0, 0);
-                    stateVec.set(index + 2, 0, 0);
-                }
+    public KalmanFilter() {
 
-                index += 3;
-            }
-        }
+        _rotation = new Mat3();
+        _translation = new Vec3();
+        _rotationCov = new Mat3();
+        _translationCov = new Mat3();
+        _measuredRotation = new Mat3();
+        _innovationCov = new Mat3();
+        _innovationCovInv = new Mat3();
+        _gain = new Mat3();
+        _correction = new Mat3();
+        _innovation = new Vec3();
+        _rotationInnovation = new Vec3();
+        reset();
+    }
 
-        return stateVec;
+    /**
+     * Forget the estimated pose, the next measurement initializes the filter
+     */
+    public void reset() {
+
+        _isInitialized = false;
+        _lastTimestamp = 0;
+        _rejections = 0;
+        _rotation.setIdentity();
+        _translation.setZero();
+        _rotationCov.setZero();
+        _translationCov.setZero();
     }
 
     /**
-     * @param stateVec Single fram data
-     * @return 3 * number of joints * number of sensors vector of samples of all joints from all sensors
+     * Start filtering from a known pose (i.e: a persisted calibration profile)
+     * @param transformation 4x4 homogeneous transformation of the pair
+     * @param isConverged True if the pose is known to be accurate, in which case it starts with low uncertainty
      */
-    private Skeleton stateVectorToSkeleton(Matrix stateVec) {
+    public void restore(Matrix transformation, boolean isConverged) {
 
-        // TODO: Complete this
-        return null;
+        double scale = isConverged ? 0.1 : 1.0;
+        initialize(transformation, INITIAL_ROTATION_VARIANCE * scale, INITIAL_TRANSLATION_VARIANCE * scale);
     }
 
-    private Matrix calculateAverageVelocity(SingleFrameData prevMeasurement, SingleFrameData currMeasurement) {
+    public boolean isInitialized() {
 
-        int N = currMeasurement.numOfCameras();
-        Matrix velocity = new Matrix(D, 1);
-        double[][] velocityArr = velocity.getArray();
+        return _isInitialized;
+    }
 
-        // Assumption: 1 Skeleton per camera
-        for (Pair<String, Skeleton> skelEntry: currMeasurement) {
+    /**
+     * Feed a new measurement of the pose
+     * @param measurement 4x4 homogeneous transformation estimated from a single frame
+     * @param residual Error of the measurement on the frame it was estimated for
+     * @param timestamp Time the frame was sampled at (milliseconds)
+     * @return The filtered 4x4 homogeneous transformation
+     */
+    public Matrix update(Matrix measurement, double residual, long timestamp) {
 
-            String camera = skelEntry.first;
-            Skeleton currSkel = currMeasurement.getSingletonSkeleton(camera);
-            Skeleton prevSkel = prevMeasurement.getSingletonSkeleton(camera);
-            long deltaTime = currSkel.getTimestamp() - prevSkel.getTimestamp();
+        if (!_isInitialized) {
+            initialize(measurement, INITIAL_ROTATION_VARIANCE, INITIAL_TRANSLATION_VARIANCE);
+            _lastTimestamp = timestamp;
+            return getTransform();
+        }
 
-            // There should always be M joints, even if they're untracked (contain dummy values)
-            for (int index = 0; index < Skeleton.JOINTS_COUNT; index++) {
+        predict(timestamp);
 
-                Joint currJoint = currSkel.joints[index];
-                Joint prevJoint = prevSkel.joints[index];
+        // Noisier estimates count less
+        double noiseScale = 1 + (residual / REFERENCE_RESIDUAL) * (residual / REFERENCE_RESIDUAL);
+        double rotationNoise = ROTATION_MEASUREMENT_SIGMA * ROTATION_MEASUREMENT_SIGMA * noiseScale;
+        double translationNoise = TRANSLATION_MEASUREMENT_SIGMA * TRANSLATION_MEASUREMENT_SIGMA * noiseScale;
 
-                int velocityIndex = index * 3;
+        // Rotation innovation: the rotation from the estimate to the measurement, R_m * R', in axis angle form
+        double[][] m = measurement.getArray();
+        _measuredRotation.set(m[0][0], m[0][1], m[0][2],
+                              m[1][0], m[1][1], m[1][2],
+                              m[2][0], m[2][1], m[2][2]);
+        _correction.transpose(_rotation);
+        Vec3 rotationInnovation = _measuredRotation.mul(_correction).toAxisAngle(_rotationInnovation);
+        boolean isRotationInlier = isInlier(_rotationCov, rotationNoise, rotationInnovation);
 
-                // Predict only tracked joints
-                if ((currJoint.trackingState == Joint.JointTrackingState.Tracked) &&
-                    (prevJoint.trackingState == Joint.JointTrackingState.Tracked)) {
+        // Translation innovation
+        _innovation.set(m[0][3], m[1][3], m[2][3]).sub(_translation);
+        boolean isTranslationInlier = isInlier(_translationCov, translationNoise, _innovation);
 
-                    velocityArr[velocityIndex][0]     += (currJoint.x - prevJoint.x) / deltaTime;
-                    velocityArr[velocityIndex + 1][0] += (currJoint.y - prevJoint.y) / deltaTime;
-                    velocityArr[velocityIndex + 2][0] += (currJoint.z - prevJoint.z) / deltaTime;
-                }
-            }
+        if (!isRotationInlier || !isTranslationInlier) {
+
+            // The pose probably changed for real, start over from the current measurement
+            if (++_rejections >= MAX_REJECTIONS)
+                initialize(measurement, INITIAL_ROTATION_VARIANCE, INITIAL_TRANSLATION_VARIANCE);
+
+            return getTransform();
         }
 
-        return velocity.times(1 / currMeasurement.numOfCameras());
-    }
+        _rejections = 0;
 
-    /**
-     * @param currMeasurement
-     * @return State vector for time k
-     */
-    private Matrix predict(SingleFrameData currMeasurement) {
+        // Translation: t += K * innovation
+        correct(_translationCov, translationNoise, _innovation);
+        _translation.add(_innovation);
 
-        Matrix avgVelocity = calculateAverageVelocity(prevMeasurement, currMeasurement);
-        long avgDeltaTime = currMeasurement.getAverageSensorsFrameTime() - prevMeasurement.getAverageSensorsFrameTime();
-        Matrix Gu = avgVelocity.times(avgDeltaTime);
+        // Rotation: R = exp(K * innovation) * R
+        correct(_rotationCov, rotationNoise, rotationInnovation);
+        _correction.setAxisAngle(rotationInnovation);
+        _rotation.mul(_correction, _rotation);
 
-        return F.times(prevEstimatedState).plus(Gu);
+        return getTransform();
     }
 
     /**
-     * @param mean
-     * @param sigma
-     * @return A sample from a normal distribution with mean and sigma given
+     * @return The estimated 4x4 homogeneous transformation
      */
-    private double gaussian(double mean, double sigma) {
+    public Matrix getTransform() {
 
-        return rand.nextGaussian() * sigma + mean;
+        return new Mat4().set(_rotation, _translation).toMatrix();
+    }
+
+    private void initialize(Matrix transformation, double rotationVariance, double translationVariance) {
+
+        double[][] m = transformation.getArray();
+        _rotation.set(m[0][0], m[0][1], m[0][2],
+                      m[1][0], m[1][1], m[1][2],
+                      m[2][0], m[2][1], m[2][2]);
+        _translation.set(m[0][3], m[1][3], m[2][3]);
+        _rotationCov.setZero().addDiagonal(rotationVariance);
+        _translationCov.setZero().addDiagonal(translationVariance);
+        _rejections = 0;
+        _isInitialized = true;
     }
 
     /**
-     * @param mean Vector of means for each sample
-     * @param sigma Unified sigma for all samples
-     * @return Creates a vector of Nx1 samples from a normal gaussian distribution.
-     *         Each gaussian sample uses (mean_i, sigma)
+     * Prediction step: the pose is static, only its uncertainty grows with time
      */
-    private Matrix gaussianVector(Matrix mean, double sigma) {
+    private void predict(long timestamp) {
 
-        int size = mean.getRowDimension();
-        Matrix gaussianVec = new Matrix(size, 1);
+        long deltaTime = timestamp - _lastTimestamp;
 
-        for (int i = 0; i < size; i++) {
+        if (deltaTime <= 0)
+            deltaTime = DEFAULT_DELTA_TIME;
+        else if (deltaTime > DELTA_TIME_THRESHOLD)
+            deltaTime = DELTA_TIME_THRESHOLD;
 
-            double sampleMean = mean.get(i, 0);
-            double nextVal = gaussian(sampleMean, sigma);
-            gaussianVec.set(i, 0, nextVal);
-        }
+        _lastTimestamp = Math.max(_lastTimestamp, timestamp);
 
-        return gaussianVec;
+        double seconds = deltaTime / 1000.0;
+        _rotationCov.addDiagonal(ROTATION_PROCESS_NOISE * seconds);
+        _translationCov.addDiagonal(TRANSLATION_PROCESS_NOISE * seconds);
     }
 
     /**
-     * Computes covariance matrix for given uncorrelated vector.
-     * @param vec Vec is n dimensional column vector of Nx1
-     * @param expectation Expectation vector (column vector, Nx1)
-     * @return NxN covariance matrix
+     * @return True if the innovation is within the gate of the innovation covariance S = P + noise * I
      */
-    private Matrix covariance(Matrix vec, Matrix expectation) {
+    private boolean isInlier(Mat3 cov, double noise, Vec3 innovation) {
 
-        int N = vec.getRowDimension();
-        Matrix normalizedVec = vec.minus(expectation);
-        Matrix cov = new Matrix(N, N);
-        double[][] covArray = cov.getArray();
-
-        // Assume vec's dimensions are uncorrelated
-        for (int i = 0; i < N; i++) {
-            covArray[i][i] = normalizedVec.get(i, 0) * normalizedVec.get(i, 0);
-        }
+        _innovationCov.set(cov).addDiagonal(noise);
+        _innovationCovInv.invert(_innovationCov);
 
-        return cov;
+        return (_innovationCovInv.quadraticForm(innovation) <= GATE);
     }
 
     /**
-     * @param vec Column vector to invert element-wise
-     * @return Column vector element-wise inverted
+     * Correction step of a single block
+     * @param cov Covariance of the block, updated to P = (I - K) * P
+     * @param noise Measurement noise variance
+     * @param innovation Innovation of the block, replaced by the correction K * innovation
      */
-    private Matrix inverseVector(Matrix vec) {
+    private void correct(Mat3 cov, double noise, Vec3 innovation) {
 
-        int N = vec.getRowDimension();
-        Matrix inverse = new Matrix(N, 1);
+        // K = P * S^-1, where S = P + noise * I
+        _innovationCov.set(cov).addDiagonal(noise);
+        _innovationCovInv.invert(_innovationCov);
+        _gain.mul(cov, _innovationCovInv);
 
-        for (int i = 0; i < N; i++) {
+        _gain.transform(innovation, innovation);
 
-            double nextVal = 1 / vec.get(i, 1);
-            inverse.set(i, i, nextVal);
-        }
-
-        return inverse;
-    }
-
-    public void addSample(SingleFrameData frameK) {
-
-        // This is a prediction of Xk given Xk-1,
-        // frameK is used to calculate the velocity
-        Matrix xkPredicted = predict(frameK);
-
-        Matrix vkInverse = gaussianVector(xkPredicted, MEASUREMENT_NOISE_SIGMA);
-        Matrix vK = inverseVector(vkInverse);
-
-        // TODO: Maybe zeros should be replaced with 1/ XkPredicted vector?
-        Matrix zeroMean = new Matrix(D, 1);
-        Matrix Rk = covariance(vK, zeroMean);
-
-        prevMeasurement = frameK;
+        // P = P - K * P
+        _correction.mul(_gain, cov);
+        cov.sub(_correction).symmetrize();
     }
 }
-
-// Future tasks:
-// TODO: Verify timeK is bigger than time k+1
-// TODO: Handle first frame with null checks
-// TODO: If joint is untracked - keep predicting for 3-5 frames
\ No newline at end of file
@@ -0,0 +1,526 @@
+package org.kinectanywhereandroid.algorithm;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.kinectanywhereandroid.framework.IKinectFrameEventListener;
+import org.kinectanywhereandroid.framework.RemoteKinect;
+import org.kinectanywhereandroid.framework.SingleFrameData;
+import org.kinectanywhereandroid.model.Joint;
+import org.kinectanywhereandroid.model.Skeleton;
+import org.kinectanywhereandroid.util.DataHolder;
+import org.kinectanywhereandroid.util.DataHolderEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Gives each physical person a global id, stable across cameras and over time.
+ * Each Kinect camera assigns its own tracking ids, the tracker links every (camera, tracking id) to a person.
+ * Linked skeletons keep their person as long as they stay close to it, only new skeletons are matched - to the
+ * nearest person (predicted with its velocity) within a gate, in master camera coordinates.
+ * The pose of each person is fused from all views of it, weighted by their confidence (see SkeletonFusion).
+ * Cameras not calibrated against the master camera yet are ignored.
+ * Each joint of a person also has a velocity, so the pose may be extrapolated forward (see Person.predict) to
+ * the time it's presented at, hiding the latency of the sensors pipeline from interactive consumers.
+ * Velocities are differentiated over the time the samples were taken at (in server time), not the time of the
+ * frames: a frame may repeat the samples of the previous frame, such a sample is no new information on the motion.
+ * Matching runs on the frame thread, the results may be read from any thread.
+ */
+public class PersonTracker implements IKinectFrameEventListener {
+
+    /** A skeleton is linked to a person only if their centers are closer than this (meters) */
+    private final static double MATCH_GATE = 0.5;
+
+    /** A linked skeleton which moved further than this (meters) from its person is matched again */
+    private final static double UNLINK_DISTANCE = 1.0;
+
+    /** A person not seen by any camera for this long (milliseconds) is forgotten */
+    private final static long PERSON_TIMEOUT = 1500;
+
+    /** Smoothing factor of the person & joints velocity (exponential moving average) */
+    private final static double VELOCITY_ALPHA = 0.5;
+
+    /** Poses are extrapolated at most this far (milliseconds), further extrapolation is mostly noise */
+    public final static long MAX_PREDICTION = 250;
+
+    private final static long NO_SAMPLE = Long.MIN_VALUE;
+
+    private final static Joint.JointType[] JOINT_TYPES = Joint.JointType.values();
+
+    /**
+     * A person as seen at a single frame
+     */
+    public static class Person {
+
+        public final int id;
+
+        /** Fused joint positions, in master camera coordinates: (x, y, z) for each joint */
+        public final float[] joints;
+
+        /** Center of the person and its velocity (meters / second), in master camera coordinates */
+        public final float x, y, z;
+        public final float vx, vy, vz;
+
+        /** Velocity of each joint (meters / second): (x, y, z) for each joint */
+        public final float[] velocities;
+
+        /** True for each joint any camera saw since the person was first seen */
+        public final boolean[] isJointKnown;
+
+        /** Number of cameras which saw the person in the last frame */
+        public final int views;
+
+        /** Time the person was last sampled at (milliseconds, server time) */
+        public final long timestamp;
+
+        Person(Track track) {
+
+            id = track.id;
+            joints = track.joints.clone();
+            velocities = track.velocities.clone();
+            isJointKnown = track.isJointKnown.clone();
+            timestamp = track.lastSeen;
+            x = (float)track.x;
+            y = (float)track.y;
+            z = (float)track.z;
+            vx = (float)track.vx;
+            vy = (float)track.vy;
+            vz = (float)track.vz;
+            views = track.views;
+        }
+
+        /**
+         * Extrapolate the pose of the person with the joints velocity
+         * @param time Time to extrapolate the pose to (milliseconds, server time), i.e: presentation time
+         * @return Skeleton in master camera coordinates, with the known joints tracked.
+         *         The tracking id of the skeleton is the person id.
+         */
+        public Skeleton predict(long time) {
+
+            double deltaTime = Math.max(0, Math.min(time - timestamp, MAX_PREDICTION)) / 1000.0;
+
+            Skeleton skeleton = new Skeleton();
+            skeleton.trackingId = id;
+            skeleton.setTimestamp(time);
+
+            for (int i = 0; i < Skeleton.JOINTS_COUNT; i++) {
+
+                Joint joint = new Joint((float)(joints[i * 3] + velocities[i * 3] * deltaTime),
+                                        (float)(joints[i * 3 + 1] + velocities[i * 3 + 1] * deltaTime),
+                                        (float)(joints[i * 3 + 2] + velocities[i * 3 + 2] * deltaTime));
+                joint.type = JOINT_TYPES[i];
+
+                if (isJointKnown[i])
+                    joint.trackingState = Joint.JointTrackingState.Tracked;
+
+                skeleton.joints[i] = joint;
+            }
+
+            return skeleton;
+        }
+
+        /**
+         * Interpolate the pose of the person between this and a later snapshot of it
+         * @param next The same person, seen later
+         * @param time Time to interpolate the pose at (milliseconds, server time), clamped to the snapshots times
+         * @return Skeleton in master camera coordinates, with the known joints tracked.
+         *         The tracking id of the skeleton is the person id.
+         */
+        public Skeleton interpolate(Person next, long time) {
+
+            if (next.timestamp <= timestamp)
+                return next.predict(time);
+
+            double ratio = Math.max(0, Math.min((double)(time - timestamp) / (next.timestamp - timestamp), 1));
+
+            Skeleton skeleton = new Skeleton();
+            skeleton.trackingId = id;
+            skeleton.setTimestamp(time);
+
+            for (int i = 0; i < Skeleton.JOINTS_COUNT; i++) {
+
+                // A joint first seen in the later snapshot has no earlier position to start from
+                float[] from = isJointKnown[i] ? joints : next.joints;
+
+                Joint joint = new Joint((float)(from[i * 3] + (next.joints[i * 3] - from[i * 3]) * ratio),
+                                        (float)(from[i * 3 + 1] + (next.joints[i * 3 + 1] - from[i * 3 + 1]) * ratio),
+                                        (float)(from[i * 3 + 2] + (next.joints[i * 3 + 2] - from[i * 3 + 2]) * ratio));
+                joint.type = JOINT_TYPES[i];
+
+                if (next.isJointKnown[i])
+                    joint.trackingState = Joint.JointTrackingState.Tracked;
+
+                skeleton.joints[i] = joint;
+            }
+
+            return skeleton;
+        }
+    }
+
+    /**
+     * Mutable state of a tracked person, owned by the frame thread
+     */
+    private static class Track {
+
+        final int id;
+        final float[] joints = new float[SkeletonBatch.SKELETON_STRIDE];
+        final float[] velocities = new float[SkeletonBatch.SKELETON_STRIDE];
+        final boolean[] isJointKnown = new boolean[Skeleton.JOINTS_COUNT];
+        final boolean[] wasJointSeen = new boolean[Skeleton.JOINTS_COUNT];   // Seen in the previous update
+        double x, y, z;
+        double vx, vy, vz;
+        long lastSeen;  // Sample time of the latest fused pose
+        long sampleTime; // Sample time of the newest new sample of the person in the current frame, or NO_SAMPLE
+        int views;
+        int target;     // Index of the person in the fusion of the current frame
+
+        Track(int id) {
+            this.id = id;
+        }
+    }
+
+    private int _nextId;
+    private List<Track> _tracks;
+    private SkeletonFusion _fusion;
+
+    /** Index of each camera seen so far, cameras keep their index for the lifetime of the tracker */
+    private Map<String, Integer> _cameraIds;
+
+    /** Key: <Camera index, Tracking id> (see linkKey) Value: The person linked to the skeleton */
+    private Map<Long, Track> _links;
+
+    /** Person ids by <Camera index, Tracking id> (see linkKey), for readers on other threads */
+    private Map<Long, Integer> _personIds;
+
+    // Scratch state of update, reused across frames
+    private double[] _center;
+    private List<Track> _claimed;
+
+    private volatile List<Person> _persons;
+
+    public PersonTracker() {
+
+        _nextId = 1;
+        _tracks = new ArrayList<>();
+        _fusion = new SkeletonFusion();
+        _cameraIds = new ConcurrentHashMap<>();
+        _links = new ConcurrentHashMap<>();
+        _personIds = new ConcurrentHashMap<>();
+        _center = new double[3];
+        _claimed = new ArrayList<>();
+        _persons = Collections.emptyList();
+        DataHolder.INSTANCE.save(DataHolderEntry.PERSON_TRACKER, this);
+    }
+
+    /**
+     * @return Global id of the person a camera skeleton belongs to, or -1 if the skeleton isn't linked (yet)
+     */
+    public int getPersonId(String camera, int trackingId) {
+
+        Integer cameraId = _cameraIds.get(camera);
+        if (cameraId == null)
+            return -1;
+
+        Integer id = _personIds.get(linkKey(cameraId, trackingId));
+        return (id != null) ? id : -1;
+    }
+
+    /**
+     * @return Key of the link of a camera skeleton, packs the camera index & tracking id in a single long
+     */
+    private static long linkKey(int cameraId, int trackingId) {
+
+        return ((long)cameraId << 32) | (trackingId & 0xffffffffL);
+    }
+
+    /**
+     * @return All persons seen recently, as of the last frame
+     */
+    @NonNull
+    public List<Person> getPersons() {
+
+        return _persons;
+    }
+
+    @Override
+    public void handle(SingleFrameData frame) {
+
+        String masterCamera = DataHolder.INSTANCE.retrieve(DataHolderEntry.MASTER_CAMERA);
+        CoordinatesTransformer transformer = DataHolder.INSTANCE.retrieve(DataHolderEntry.CAMERA_TRANSFORMER);
+
+        // Persons are only comparable across cameras in a common coordinates system
+        if ((masterCamera == null) || (transformer == null))
+            return;
+
+        update(frame.getTransformed(masterCamera, transformer), frame, masterCamera, transformer, frame.getTimestamp());
+    }
+
+    /**
+     * Link the skeletons of a frame to persons and update the persons state
+     * @param batch All skeletons of the frame, in master camera coordinates
+     * @param frame The frame the batch was transformed from, tells which cameras have new samples.
+     *              Null if all samples of the batch are new
+     * @param masterCamera Name of the master camera
+     * @param transformer Provides the calibration residual of each camera
+     * @param timestamp Time of the frame (milliseconds, server time)
+     */
+    void update(SkeletonBatch batch, @Nullable SingleFrameData frame, String masterCamera,
+                CoordinatesTransformer transformer, long timestamp) {
+
+        Map<String, RemoteKinect> kinectDict = DataHolder.INSTANCE.retrieve(DataHolderEntry.CONNECTED_HOSTS);
+
+        _fusion.begin(_tracks.size());
+
+        for (int i = 0; i < _tracks.size(); i++) {
+            _tracks.get(i).target = i;
+            _tracks.get(i).views = 0;
+            _tracks.get(i).sampleTime = NO_SAMPLE;
+        }
+
+        // Skeletons of each camera are consecutive in the batch, a camera sees each person at most once
+        int first = 0;
+        while (first < batch.size()) {
+
+            String camera = batch.getCamera(first);
+            int end = first + 1;
+            while ((end < batch.size()) && camera.equals(batch.getCamera(end)))
+                end++;
+
+            double cameraWeight = SkeletonFusion.cameraWeight(transformer.getResidual(camera, masterCamera));
+            if (cameraWeight <= 0) {
+                first = end;
+                continue; // Skeletons of the camera aren't in master coordinates
+            }
+
+            // A repeated sample still holds its person and takes part in its pose, but only a new sample
+            // moves the person forward in time
+            boolean isChanged = (frame == null) || frame.isChanged(frame.indexOf(camera));
+            RemoteKinect kinect = (kinectDict != null) ? kinectDict.get(camera) : null;
+
+            Integer cameraId = _cameraIds.get(camera);
+            if (cameraId == null) {
+                cameraId = _cameraIds.size(); // Only the frame thread adds cameras
+                _cameraIds.put(camera, cameraId);
+            }
+
+            double[] center = _center;
+            List<Track> claimed = _claimed;
+            claimed.clear();
+
+            for (int index = first; index < end; index++) {
+
+                if (!center(batch, index, center))
+                    continue; // No tracked joints to locate the skeleton by
+
+                // Sample times of different cameras are only comparable in server time
+                long sampleTime = (kinect != null) ?
+                                  kinect.toLocalTime(batch.getTimestamp(index)) :
+                                  batch.getTimestamp(index);
+
+                Long key = linkKey(cameraId, batch.getTrackingId(index)); // Boxed once for all lookups
+                Track track = _links.get(key);
+
+                // Keep an existing link, unless the camera reused the tracking id for someone else
+                if ((track != null) &&
+                    ((claimed.contains(track)) || (distance(track, center, sampleTime) > UNLINK_DISTANCE)))
+                    track = null;
+
+                if (track == null)
+                    track = nearest(center, sampleTime, claimed);
+
+                if (track == null) {
+                    track = new Track(_nextId++);
+                    track.x = center[0];
+                    track.y = center[1];
+                    track.z = center[2];
+                    track.lastSeen = sampleTime;
+                    track.sampleTime = sampleTime; // A new person takes its first pose from any sample
+                    track.target = _fusion.addTarget();
+                    _tracks.add(track);
+                }
+
+                claimed.add(track);
+                _links.put(key, track);
+                _personIds.put(key, track.id);
+                track.views++;
+                _fusion.add(track.target, batch, index, cameraWeight);
+
+                if (isChanged)
+                    track.sampleTime = Math.max(track.sampleTime, sampleTime);
+            }
+
+            first = end;
+        }
+
+        List<Person> persons = new ArrayList<>(_tracks.size());
+        Iterator<Track> tracks = _tracks.iterator();
+
+        while (tracks.hasNext()) {
+
+            Track track = tracks.next();
+
+            if (track.sampleTime != NO_SAMPLE)
+                fuse(track, _fusion, track.sampleTime);
+
+            if (timestamp - track.lastSeen > PERSON_TIMEOUT) {
+                tracks.remove();
+                forget(track);
+                continue;
+            }
+
+            persons.add(new Person(track));
+        }
+
+        _persons = Collections.unmodifiableList(persons);
+    }
+
+    /**
+     * @return Nearest person to the given center within the gate which isn't claimed yet, or null
+     */
+    private Track nearest(double[] center, long timestamp, List<Track> claimed) {
+
+        Track nearest = null;
+        double minDistance = MATCH_GATE;
+
+        for (Track track: _tracks) {
+
+            if (claimed.contains(track))
+                continue;
+
+            double distance = distance(track, center, timestamp);
+            if (distance <= minDistance) {
+                minDistance = distance;
+                nearest = track;
+            }
+        }
+
+        return nearest;
+    }
+
+    /**
+     * @return Distance of the center from the position of the person predicted for the given time
+     */
+    private static double distance(Track track, double[] center, long timestamp) {
+
+        double deltaTime = Math.max(0, Math.min(timestamp - track.lastSeen, PERSON_TIMEOUT)) / 1000.0;
+        double dx = center[0] - (track.x + track.vx * deltaTime);
+        double dy = center[1] - (track.y + track.vy * deltaTime);
+        double dz = center[2] - (track.z + track.vz * deltaTime);
+
+        return Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+    /**
+     * Center of the skeleton: average of its tracked joints
+     * @return False if the skeleton has no tracked joints
+     */
+    private static boolean center(SkeletonBatch batch, int index, double[] out) {
+
+        double x = 0, y = 0, z = 0;
+        int count = 0;
+
+        for (int i = 0; i < Skeleton.JOINTS_COUNT; i++) {
+
+            if (!batch.isTracked(index, i))
+                continue;
+
+            x += batch.getX(index, i);
+            y += batch.getY(index, i);
+            z += batch.getZ(index, i);
+            count++;
+        }
+
+        if (count == 0)
+            return false;
+
+        out[0] = x / count;
+        out[1] = y / count;
+        out[2] = z / count;
+        return true;
+    }
+
+    /**
+     * Update the pose of the person from the views of the current frame, then its center and velocity
+     * @param timestamp Sample time of the newest view of the person (milliseconds, server time)
+     */
+    private static void fuse(Track track, SkeletonFusion fusion, long timestamp) {
+
+        double x = 0, y = 0, z = 0;
+        int jointsCount = 0;
+        double deltaTime = (timestamp - track.lastSeen) / 1000.0;
+
+        for (int i = 0; i < Skeleton.JOINTS_COUNT; i++) {
+
+            int offset = i * 3;
+            float previousX = track.joints[offset];
+            float previousY = track.joints[offset + 1];
+            float previousZ = track.joints[offset + 2];
+
+            // Joints no camera sees keep their last known position, and are assumed still
+            if (!fusion.getJoint(track.target, i, track.joints, offset)) {
+                track.velocities[offset] = 0;
+                track.velocities[offset + 1] = 0;
+                track.velocities[offset + 2] = 0;
+                track.wasJointSeen[i] = false;
+                continue;
+            }
+
+            // A joint seen again after a gap is differentiated from the next update on, its last known position
+            // is too old to tell its velocity
+            if (track.wasJointSeen[i] && (deltaTime > 0)) {
+                track.velocities[offset] += VELOCITY_ALPHA * ((track.joints[offset] - previousX) / deltaTime - track.velocities[offset]);
+                track.velocities[offset + 1] += VELOCITY_ALPHA * ((track.joints[offset + 1] - previousY) / deltaTime - track.velocities[offset + 1]);
+                track.velocities[offset + 2] += VELOCITY_ALPHA * ((track.joints[offset + 2] - previousZ) / deltaTime - track.velocities[offset + 2]);
+            }
+
+            track.isJointKnown[i] = true;
+            track.wasJointSeen[i] = true;
+
+            x += track.joints[offset];
+            y += track.joints[offset + 1];
+            z += track.joints[offset + 2];
+            jointsCount++;
+        }
+
+        if (jointsCount == 0)
+            return;
+
+        x /= jointsCount;
+        y /= jointsCount;
+        z /= jointsCount;
+
+        if (deltaTime > 0) {
+            track.vx += VELOCITY_ALPHA * ((x - track.x) / deltaTime - track.vx);
+            track.vy += VELOCITY_ALPHA * ((y - track.y) / deltaTime - track.vy);
+            track.vz += VELOCITY_ALPHA * ((z - track.z) / deltaTime - track.vz);
+        }
+
+        track.x = x;
+        track.y = y;
+        track.z = z;
+        track.lastSeen = timestamp;
+    }
+
+    /**
+     * Drop all links to a forgotten person
+     */
+    private void forget(Track track) {
+
+        Iterator<Map.Entry<Long, Track>> links = _links.entrySet().iterator();
+
+        while (links.hasNext()) {
+
+            Map.Entry<Long, Track> link = links.next();
+
+            if (link.getValue() == track) {
+                _personIds.remove(link.getKey());
+                links.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,490 @@
+package org.kinectanywhereandroid.algorithm;
+
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import org.kinectanywhereandroid.math.Mat4;
+import org.kinectanywhereandroid.model.Joint;
+import org.kinectanywhereandroid.model.Skeleton;
+import org.kinectanywhereandroid.util.Pair;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import Jama.Matrix;
+
+/**
+ * Global refinement of the camera rig calibration.
+ * Pairwise transformations are estimated independently of each other, so chaining them around a loop
+ * of cameras (A -> B -> C -> A) doesn't return to identity, and the error grows with the number of cameras.
+ * This optimizer keeps the joint correspondences gathered for each pair of cameras and solves for a single
+ * consistent set of camera poses relative to a gauge camera (usually the master), using Gauss-Newton
+ * on SE(3):
+ *
+ *   min  sum over edges (a, b), sum over correspondences (p, q):  || Xa * p - Xb * q ||^2
+ *
+ * Where Xa, Xb are the 4x4 poses of cameras a and b in gauge coordinates.
+ * The optimization runs on a background thread, and only when enough new correspondences
+ * have arrived since the last run, so the per-frame calibration path stays cheap.
+ */
+@ThreadSafe
+public class PoseGraphOptimizer {
+
+    private final static String TAG = "PoseGraphOptimizer";
+
+    /** Number of new correspondences (over all edges) required before the graph is optimized again */
+    private final static int MIN_NEW_SAMPLES = 200;
+
+    /** Maximal number of correspondences kept per pair of cameras, older samples are discarded first */
+    private final static int MAX_EDGE_SAMPLES = 600;
+
+    /** Gauss-Newton iterations limit per optimization run */
+    private final static int MAX_ITERATIONS = 10;
+
+    /** Stop iterating when the pose update norm falls below this value */
+    private final static double UPDATE_EPSILON = 1e-7;
+
+    /** Levenberg damping added to the normal equations diagonal, keeps weakly constrained poses stable */
+    private final static double DAMPING = 1e-6;
+
+    /** Size of a single pose perturbation: 3 rotation (axis angle) + 3 translation parameters */
+    private final static int POSE_DOF = 6;
+
+    /**
+     * Joint correspondences gathered per pair of cameras.
+     * Key: <Camera A, Camera B> ordered lexicographically, so both directions share the same edge.
+     * Value: queue of {xa, ya, za, xb, yb, zb} samples
+     */
+    @GuardedBy("this")
+    private Map<Pair<String, String>, Queue<double[]>> _edges;
+
+    @GuardedBy("this")
+    private int _newSamples;
+
+    /** Poses of the last successful optimization run, used as a warm start for the next run */
+    private volatile Map<String, Matrix> _lastPoses;
+
+    /** Pairwise transformations computed by the last run and not yet collected by the calibrator */
+    private AtomicReference<Map<Pair<String, String>, Mat4>> _pendingSolution;
+
+    private AtomicBoolean _isRunning;
+    private ExecutorService _executor;
+
+    public PoseGraphOptimizer() {
+
+        _edges = new HashMap<>();
+        _newSamples = 0;
+        _lastPoses = Collections.emptyMap();
+        _pendingSolution = new AtomicReference<>();
+        _isRunning = new AtomicBoolean(false);
+
+        _executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, TAG);
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Adds the joints tracked by both skeletons as correspondences between the two cameras
+     * @param fromCamera Camera which tracked fromSkel
+     * @param toCamera Camera which tracked toSkel
+     * @param fromSkel Skeleton in fromCamera coordinates
+     * @param toSkel The same skeleton, as tracked in toCamera coordinates
+     */
+    public synchronized void addCorrespondences(String fromCamera, String toCamera,
+                                                Skeleton fromSkel, Skeleton toSkel) {
+
+        if (fromCamera.equals(toCamera))
+            return;
+
+        // Both directions of the same pair share a single edge
+        boolean isSwapped = fromCamera.compareTo(toCamera) > 0;
+        Pair<String, String> key = isSwapped ? new Pair<>(toCamera, fromCamera) :
+                                               new Pair<>(fromCamera, toCamera);
+        Skeleton a = isSwapped ? toSkel : fromSkel;
+        Skeleton b = isSwapped ? fromSkel : toSkel;
+
+        Queue<double[]> samples = _edges.get(key);
+        if (samples == null) {
+            samples = new LinkedList<>();
+            _edges.put(key, samples);
+        }
+
+        for (int i = 0; i < Skeleton.JOINTS_COUNT; i++) {
+
+            Joint ja = a.joints[i];
+            Joint jb = b.joints[i];
+
+            if ((ja.trackingState != Joint.JointTrackingState.Tracked) ||
+                (jb.trackingState != Joint.JointTrackingState.Tracked))
+                continue;
+
+            samples.add(new double[] { ja.x, ja.y, ja.z, jb.x, jb.y, jb.z });
+            _newSamples++;
+
+            if (samples.size() > MAX_EDGE_SAMPLES)
+                samples.poll();
+        }
+    }
+
+    /**
+     * Schedules a background optimization run, if enough new data has arrived and no other run is active.
+     * @param gaugeCamera Camera whose coordinates system the poses are solved in (usually the master camera).
+     *                    May be null, in which case the lexicographically first camera is used.
+     * @param pairwise Current pairwise transformations, used as the initial guess for cameras which weren't
+     *                 solved by a previous run. Key: <From, To>, Value: 4x4 homogeneous transformation.
+     */
+    public void requestOptimization(@Nullable String gaugeCamera, Map<Pair<String, String>, Mat4> pairwise) {
+
+        final Map<Pair<String, String>, List<double[]>> edges;
+
+        synchronized (this) {
+            if ((_newSamples < MIN_NEW_SAMPLES) || (_isRunning.get()))
+                return;
+
+            // Freeze the current correspondences so the frame-tick thread can keep adding samples
+            edges = new HashMap<>();
+            for (Map.Entry<Pair<String, String>, Queue<double[]>> edge: _edges.entrySet()) {
+                edges.put(edge.getKey(), new ArrayList<>(edge.getValue()));
+            }
+
+            _newSamples = 0;
+            _isRunning.set(true);
+        }
+
+        // Transformations in the table are replaced, never modified, so a shallow copy is enough
+        final Map<Pair<String, String>, Mat4> initialGuess = new HashMap<>(pairwise);
+        final String gauge = gaugeCamera;
+
+        _executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Map<String, Matrix> poses = optimize(gauge, edges, initialGuess);
+
+                    if (poses != null) {
+                        _lastPoses = poses;
+                        _pendingSolution.set(toPairwise(poses));
+                    }
+                }
+                catch (Exception e) {
+                    Log.e(TAG, "Pose graph optimization failed", e);
+                }
+                finally {
+                    _isRunning.set(false);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return Pairwise transformations from the latest optimization run, or null if no new solution is
+     *         available since the last call. Key: <From, To>, Value: 4x4 homogeneous transformation.
+     */
+    @Nullable
+    public Map<Pair<String, String>, Mat4> pollSolution() {
+
+        return _pendingSolution.getAndSet(null);
+    }
+
+    /**
+     * @return True if the last optimization run solved the poses of both cameras
+     */
+    public boolean isSolved(String fromCamera, String toCamera) {
+
+        Map<String, Matrix> poses = _lastPoses;
+        return poses.containsKey(fromCamera) && poses.containsKey(toCamera);
+    }
+
+    /**
+     * Drops all gathered correspondences and solutions (i.e: when the rig changes)
+     */
+    public synchronized void reset() {
+
+        _edges.clear();
+        _newSamples = 0;
+        _lastPoses = Collections.emptyMap();
+        _pendingSolution.set(null);
+    }
+
+    /** Stops the background optimization thread */
+    public void shutdown() {
+
+        _executor.shutdownNow();
+    }
+
+    /**
+     * Chooses initial poses for all cameras connected to the gauge camera.
+     * Cameras solved by the previous run start from their previous pose, other cameras are chained
+     * from their neighbours using the pairwise transformations (breadth first from the gauge camera).
+     */
+    private Map<String, Matrix> initializePoses(String gauge,
+                                                Map<Pair<String, String>, List<double[]>> edges,
+                                                Map<Pair<String, String>, Mat4> pairwise) {
+
+        Map<String, Matrix> poses = new HashMap<>();
+        Map<String, Matrix> lastPoses = _lastPoses;
+
+        // Previous solution is only valid as a warm start if it was solved in the same gauge
+        Matrix lastGaugePose = lastPoses.get(gauge);
+        boolean isWarmStart = (lastGaugePose != null);
+
+        poses.put(gauge, Matrix.identity(4, 4));
+        Queue<String> open = new LinkedList<>();
+        open.add(gauge);
+
+        while (!open.isEmpty()) {
+
+            String camera = open.poll();
+
+            for (Pair<String, String> edge: edges.keySet()) {
+
+                String neighbour;
+                if (edge.first.equals(camera))
+                    neighbour = edge.second;
+                else if (edge.second.equals(camera))
+                    neighbour = edge.first;
+                else
+                    continue;
+
+                if (poses.containsKey(neighbour))
+                    continue;
+
+                Matrix pose = null;
+
+                if (isWarmStart && lastPoses.containsKey(neighbour)) {
+                    // Re-express the previous pose in the current gauge
+                    pose = CalibrationAlgo.Rotation.invertRigid(lastGaugePose).times(lastPoses.get(neighbour));
+                }
+                else {
+                    Mat4 neighbourToCamera = pairwise.get(new Pair<>(neighbour, camera));
+                    if (neighbourToCamera != null)
+                        pose = poses.get(camera).times(neighbourToCamera.toMatrix());
+                }
+
+                if (pose == null)
+                    pose = poses.get(camera).copy(); // No estimation yet, start from the neighbour's pose
+
+                poses.put(neighbour, pose);
+                open.add(neighbour);
+            }
+        }
+
+        return poses;
+    }
+
+    /**
+     * Solves the camera poses with Gauss-Newton iterations.
+     * Each iteration linearizes every correspondence residual r = Xa * p - Xb * q around the current poses,
+     * using a left perturbation X <- exp(xi) * X, where xi = (w, v):
+     *   dr / dxi_a = [ -[Xa * p]x  I ],  dr / dxi_b = [ [Xb * q]x  -I ]
+     * The gauge camera pose is fixed at identity.
+     * @return Camera poses in gauge coordinates, or null if there is nothing to solve
+     */
+    @Nullable
+    private Map<String, Matrix> optimize(@Nullable String gauge,
+                                         Map<Pair<String, String>, List<double[]>> edges,
+                                         Map<Pair<String, String>, Mat4> pairwise) {
+
+        if (edges.isEmpty())
+            return null;
+
+        if (gauge == null || !isCameraInGraph(gauge, edges)) {
+            for (Pair<String, String> edge: edges.keySet()) {
+                if (gauge == null || edge.first.compareTo(gauge) < 0)
+                    gauge = edge.first;
+            }
+        }
+
+        Map<String, Matrix> poses = initializePoses(gauge, edges, pairwise);
+
+        // Assign a block of 6 parameters to each free (non gauge) camera
+        Map<String, Integer> blockIndex = new HashMap<>();
+        for (String camera: poses.keySet()) {
+            if (!camera.equals(gauge))
+                blockIndex.put(camera, blockIndex.size());
+        }
+
+        if (blockIndex.isEmpty())
+            return null;
+
+        int dims = POSE_DOF * blockIndex.size();
+        double[] u = new double[3];
+        double[] w = new double[3];
+        double[][] ja = new double[3][POSE_DOF];
+        double[][] jb = new double[3][POSE_DOF];
+
+        for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+
+            double[][] h = new double[dims][dims];
+            double[] g = new double[dims];
+            double squaredError = 0;
+
+            for (Map.Entry<Pair<String, String>, List<double[]>> edge: edges.entrySet()) {
+
+                Matrix xa = poses.get(edge.getKey().first);
+                Matrix xb = poses.get(edge.getKey().second);
+
+                if (xa == null || xb == null)
+                    continue; // Not connected to the gauge camera
+
+                Integer aIndex = blockIndex.get(edge.getKey().first);
+                Integer bIndex = blockIndex.get(edge.getKey().second);
+                double[][] xaArr = xa.getArray();
+                double[][] xbArr = xb.getArray();
+
+                for (double[] sample: edge.getValue()) {
+
+                    applyRigid(xaArr, sample[0], sample[1], sample[2], u);
+                    applyRigid(xbArr, sample[3], sample[4], sample[5], w);
+
+                    double[] r = { u[0] - w[0], u[1] - w[1], u[2] - w[2] };
+                    squaredError += r[0] * r[0] + r[1] * r[1] + r[2] * r[2];
+
+                    fillJacobian(u, 1, ja);
+                    fillJacobian(w, -1, jb);
+
+                    accumulate(h, g, ja, aIndex, ja, aIndex, r);
+                    accumulate(h, g, jb, bIndex, jb, bIndex, r);
+                    accumulateCross(h, ja, aIndex, jb, bIndex);
+                }
+            }
+
+            for (int i = 0; i < dims; i++)
+                h[i][i] += DAMPING;
+
+            Matrix delta = new Matrix(h).solve(new Matrix(g, dims)).times(-1);
+            Log.i(TAG, "Iteration " + iteration + " squared error: " + squaredError);
+
+            for (Map.Entry<String, Integer> block: blockIndex.entrySet()) {
+
+                int offset = block.getValue() * POSE_DOF;
+                Matrix omega = delta.getMatrix(offset, offset + 2, 0, 0);
+                Matrix v = delta.getMatrix(offset + 3, offset + 5, 0, 0);
+
+                Matrix update = CalibrationAlgo.Rotation.composeHomogeneous(
+                        CalibrationAlgo.Rotation.axisAngletoRotationMat(omega), v);
+                poses.put(block.getKey(), update.times(poses.get(block.getKey())));
+            }
+
+            if (delta.normF() < UPDATE_EPSILON)
+                break;
+        }
+
+        return poses;
+    }
+
+    private static boolean isCameraInGraph(String camera, Map<Pair<String, String>, List<double[]>> edges) {
+
+        for (Pair<String, String> edge: edges.keySet()) {
+            if (edge.first.equals(camera) || edge.second.equals(camera))
+                return true;
+        }
+
+        return false;
+    }
+
+    /** out = X * (x, y, z, 1) */
+    private static void applyRigid(double[][] x, double px, double py, double pz, double[] out) {
+
+        out[0] = x[0][0] * px + x[0][1] * py + x[0][2] * pz + x[0][3];
+        out[1] = x[1][0] * px + x[1][1] * py + x[1][2] * pz + x[1][3];
+        out[2] = x[2][0] * px + x[2][1] * py + x[2][2] * pz + x[2][3];
+    }
+
+    /**
+     * Fills the 3x6 Jacobian sign * [ -[p]x  I ] of a transformed point p w.r.t. a left pose perturbation
+     */
+    private static void fillJacobian(double[] p, double sign, double[][] j) {
+
+        // -[p]x
+        j[0][0] = 0;              j[0][1] = sign * p[2];     j[0][2] = -sign * p[1];
+        j[1][0] = -sign * p[2];   j[1][1] = 0;               j[1][2] = sign * p[0];
+        j[2][0] = sign * p[1];    j[2][1] = -sign * p[0];    j[2][2] = 0;
+
+        // I
+        j[0][3] = sign;  j[0][4] = 0;     j[0][5] = 0;
+        j[1][3] = 0;     j[1][4] = sign;  j[1][5] = 0;
+        j[2][3] = 0;     j[2][4] = 0;     j[2][5] = sign;
+    }
+
+    /** H[a][b] += Ja' * Jb, g[a] += Ja' * r (gauge blocks are skipped) */
+    private static void accumulate(double[][] h, double[] g,
+                                   double[][] ja, Integer aIndex, double[][] jb, Integer bIndex, double[] r) {
+
+        if (aIndex == null)
+            return;
+
+        int aOffset = aIndex * POSE_DOF;
+        int bOffset = bIndex * POSE_DOF;
+
+        for (int i = 0; i < POSE_DOF; i++) {
+
+            g[aOffset + i] += ja[0][i] * r[0] + ja[1][i] * r[1] + ja[2][i] * r[2];
+
+            for (int k = 0; k < POSE_DOF; k++)
+                h[aOffset + i][bOffset + k] += ja[0][i] * jb[0][k] + ja[1][i] * jb[1][k] + ja[2][i] * jb[2][k];
+        }
+    }
+
+    /** Off diagonal blocks H[a][b] and H[b][a] between the two cameras of an edge */
+    private static void accumulateCross(double[][] h, double[][] ja, Integer aIndex, double[][] jb, Integer bIndex) {
+
+        if (aIndex == null || bIndex == null)
+            return;
+
+        int aOffset = aIndex * POSE_DOF;
+        int bOffset = bIndex * POSE_DOF;
+
+        for (int i = 0; i < POSE_DOF; i++) {
+            for (int k = 0; k < POSE_DOF; k++) {
+
+                double value = ja[0][i] * jb[0][k] + ja[1][i] * jb[1][k] + ja[2][i] * jb[2][k];
+                h[aOffset + i][bOffset + k] += value;
+                h[bOffset + k][aOffset + i] += value;
+            }
+        }
+    }
+
+    /**
+     * @param poses Camera poses in gauge coordinates
+     * @return Transformations between each ordered pair of cameras: T(from -> to) = inv(X_to) * X_from
+     */
+    private static Map<Pair<String, String>, Mat4> toPairwise(Map<String, Matrix> poses) {
+
+        Map<Pair<String, String>, Mat4> pairwise = new HashMap<>();
+        Mat4 toInverse = new Mat4();
+
+        for (Map.Entry<String, Matrix> from: poses.entrySet()) {
+            for (Map.Entry<String, Matrix> to: poses.entrySet()) {
+
+                if (from.getKey().equals(to.getKey()))
+                    continue;
+
+                toInverse.set(to.getValue()).invertRigid();
+                Mat4 transformation = new Mat4().mul(toInverse, new Mat4(from.getValue()));
+                pairwise.put(new Pair<>(from.getKey(), to.getKey()), transformation);
+            }
+        }
+
+        return pairwise;
+    }
+}
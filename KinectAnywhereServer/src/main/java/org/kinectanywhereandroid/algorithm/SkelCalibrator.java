@@ -6,17 +6,32 @@ import android.util.Log;
 
 import org.kinectanywhereandroid.framework.IKinectFrameEventListener;
 import org.kinectanywhereandroid.framework.SingleFrameData;
+import org.kinectanywhereandroid.math.Mat3;
+import org.kinectanywhereandroid.math.Mat4;
+import org.kinectanywhereandroid.math.Vec3;
 import org.kinectanywhereandroid.model.Joint;
 import org.kinectanywhereandroid.model.Skeleton;
 import org.kinectanywhereandroid.util.DataHolder;
 import org.kinectanywhereandroid.util.DataHolderEntry;
 import org.kinectanywhereandroid.util.Pair;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
 
 import Jama.Matrix;
 
@@ -25,41 +40,111 @@ import Jama.Matrix;
  */
 public class SkelCalibrator implements IKinectFrameEventListener, CoordinatesTransformer {
 
+    /** Upper bound on the weight of a restored temporal approximation, in frames */
+    private final static int MAX_RESTORED_FRAMES_AVERAGED = 30;
+
+    /** Residual assumed for transformations that weren't estimated directly (i.e: set manually) */
+    private final static double UNKNOWN_RESIDUAL = 0.1;
+
+    /** Minimal number of distinct correspondences to calibrate over a reservoir */
+    private final static int MIN_RESERVOIR_SIZE = 10;
+
+    /** Minimal time between stores of the profile while calibrating (milliseconds) */
+    private final static long PROFILE_SAVE_INTERVAL = 5000;
+
     private CalibrationAlgo _algo;
     private Map<Pair<String, String>, TemporalApproximation> _temporalApproximations;
     private Map<Pair<String, String>, BestInClass> _bestInClassApproximations;
+    private Map<Pair<String, String>, KalmanFilter> _kalmanFilters;
+    private Map<Pair<String, String>, CorrespondenceReservoir> _reservoirs;
+
+    // Working memory of predictAverageSkeletons, reused between frames
+    private SkeletonMatcher _matcher;
+    private Skeleton[] _averageMasters;
+    private SkeletonFusion _fusion;
+    private Map<Pair<String, String>, CalibrationConvergence> _convergence;
+    private CalibrationAlgo.CalibrationMode _lastMode;
+
+    /** Where calibration profiles are persisted, null if profiles are not in use */
+    @Nullable
+    private File _profilesDir;
+
+    /** Cameras of the rig the current calibration state belongs to */
+    private Set<String> _profileHosts;
+    private boolean _isProfileDirty;
+    private long _lastProfileSave;
+    private ExecutorService _profileWriter;    // Profiles are written off the frame thread, one at a time
+    private PoseGraphOptimizer _poseGraph;
+    private ForkJoinPool _calibrationPool;
 
     /**
      * Transformations between camera 1 coordinates to camera 2 coordinates.
-     * Key: <From, To>
-     * Value: 4x4 homogeneous transformation matrix
+     * Published as immutable versioned snapshots: only the frame thread builds new versions,
+     * readers on other threads fetch the current snapshot without locking.
      */
-    private Map<Pair<String, String>, Matrix> _transformations;
+    private AtomicReference<TransformationSnapshot> _snapshot;
 
     public SkelCalibrator() {
 
+        this(null);
+    }
+
+    /**
+     * @param profilesDir Directory for persisting calibration profiles of camera rigs, so calibration
+     *                    warm starts from the stored state. May be null to always start from scratch.
+     */
+    public SkelCalibrator(@Nullable File profilesDir) {
+
         _algo = new CalibrationAlgo();
-        _transformations = new HashMap<>();
-        _temporalApproximations = new HashMap<>();
-        _bestInClassApproximations = new HashMap<>();
+        _snapshot = new AtomicReference<>(TransformationSnapshot.EMPTY);
+        _temporalApproximations = new ConcurrentHashMap<>();
+        _bestInClassApproximations = new ConcurrentHashMap<>();
+        _kalmanFilters = new ConcurrentHashMap<>();
+        _reservoirs = new ConcurrentHashMap<>();
+        _matcher = new SkeletonMatcher();
+        _averageMasters = new Skeleton[0];
+        _fusion = new SkeletonFusion();
+        _convergence = new HashMap<>();
+        _profilesDir = profilesDir;
+        _profileHosts = Collections.emptySet();
+        _isProfileDirty = false;
+        _profileWriter = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "CalibrationProfileWriter");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        _poseGraph = new PoseGraphOptimizer();
         DataHolder.INSTANCE.save(DataHolderEntry.CAMERA_TRANSFORMER, this);
     }
 
+    /**
+     * @return Current set of transformations between all cameras, consistent with each other
+     */
+    @NonNull
+    public TransformationSnapshot getSnapshot() {
+
+        return _snapshot.get();
+    }
+
     /**
      * Get transformation from coordinates of camera 1 to camera 2
      * @param fromCamera
      * @param toCamera
-     * @return The 4x4 homogeneous transformation matrix
+     * @return The 4x4 homogeneous transformation matrix, identity if the pair wasn't calibrated yet
      */
     @NonNull
     public Matrix getTransformation(String fromCamera, String toCamera) {
 
-        Pair<String, String> key = new Pair<>(fromCamera, toCamera);
+        Mat4 transformation = _snapshot.get().getTransformation(fromCamera, toCamera);
 
-        if (!_transformations.containsKey(key))
-            _transformations.put(key, Matrix.identity(4, 4));
+        if (transformation == null)
+            return Matrix.identity(4, 4);
 
-        return _transformations.get(key);
+        return transformation.toMatrix();
     }
 
     /**
@@ -70,8 +155,82 @@ public class SkelCalibrator implements IKinectFrameEventListener, CoordinatesTra
      */
     public void setTransformation(String fromCamera, String toCamera, Matrix transformation) {
 
-        Pair<String, String> key = new Pair<>(fromCamera, toCamera);
-        _transformations.put(key, transformation);
+        Map<Pair<String, String>, Mat4> update = new HashMap<>();
+        update.put(new Pair<>(fromCamera, toCamera), new Mat4(transformation));
+        publish(update);
+    }
+
+    /**
+     * Publish the next version of the transformations. Called by the frame thread only.
+     * @param updates New transformations of all pairs updated together
+     */
+    private void publish(Map<Pair<String, String>, Mat4> updates) {
+
+        _snapshot.set(_snapshot.get().with(updates));
+    }
+
+    @Override
+    public long getVersion() {
+
+        return _snapshot.get().getVersion();
+    }
+
+    /**
+     * Called by the frame thread only (the convergence states are owned by it)
+     */
+    @Override
+    public double getResidual(String fromCamera, String toCamera) {
+
+        if (fromCamera.equals(toCamera))
+            return 0;
+
+        if (_snapshot.get().getTransformation(fromCamera, toCamera) == null)
+            return Double.NaN;
+
+        CalibrationConvergence convergence = _convergence.get(new Pair<>(fromCamera, toCamera));
+
+        return (convergence != null) ? convergence.getResidual() : UNKNOWN_RESIDUAL;
+    }
+
+    /**
+     * Transforms all skeletons of the frame to the coordinates system of a single camera, at once.
+     * Skeletons of cameras that weren't calibrated against toCamera yet are left untransformed.
+     * @param frame Frame to transform
+     * @param toCamera Name of the target camera (usually the master camera)
+     * @param out Receives the transformed skeletons, cleared first
+     */
+    @Override
+    public void transformFrame(SingleFrameData frame, String toCamera, SkeletonBatch out) {
+
+        // All cameras are transformed with the same snapshot, even if a new one is published meanwhile
+        TransformationSnapshot snapshot = _snapshot.get();
+        out.clear();
+
+        for (int cameraIndex = 0; cameraIndex < frame.cameraCount(); cameraIndex++) {
+
+            String fromCamera = frame.getCamera(cameraIndex);
+            int end = frame.getFirstSkeleton(cameraIndex + 1);
+            int first = out.size();
+
+            for (int i = frame.getFirstSkeleton(cameraIndex); i < end; i++)
+                out.add(frame.getColumns(), i);
+
+            int count = out.size() - first;
+            if (count == 0)
+                continue;
+
+            if (fromCamera.equals(toCamera))
+                continue;
+
+            // A single lookup per camera, then all joints of all its skeletons in one loop
+            float[] transformation = snapshot.getFloatTransformation(fromCamera, toCamera);
+            if (transformation == null)
+                continue; // Not calibrated yet, left untransformed
+
+            int offset = first * SkeletonBatch.SKELETON_STRIDE;
+            Mat4.transformPoints(transformation, out.getPositions(), offset, out.getPositions(), offset,
+                                 count * Skeleton.JOINTS_COUNT);
+        }
     }
 
     /**
@@ -88,12 +247,18 @@ public class SkelCalibrator implements IKinectFrameEventListener, CoordinatesTra
         if (fromCamera.equals(toCamera))
             return skeleton;
 
-        Matrix transformation = getTransformation(fromCamera, toCamera);
+        Mat4 transformation = _snapshot.get().getTransformation(fromCamera, toCamera);
+
+        // Not calibrated yet
+        if (transformation == null)
+            return new Skeleton(skeleton);
+
         return CalibrationAlgo.transform(skeleton, transformation);
     }
 
     /**
-     * Predicts skeleton with hidden joints according to data from all other calibrated cameras
+     * Predicts skeleton with hidden joints according to data from all other calibrated cameras.
+     * Views of all cameras are fused, weighted by their confidence (see SkeletonFusion).
      * @param frame Current frame
      * @return List of skeletons viewed by the master camera, with hidden joints predicted
      */
@@ -106,92 +271,90 @@ public class SkelCalibrator implements IKinectFrameEventListener, CoordinatesTra
             return Collections.emptyList();
 
         List<Skeleton> trackedSkeletons = frame.getSkeletons(masterCamera);
-        if (trackedSkeletons.isEmpty())
+        if ((trackedSkeletons == null) || trackedSkeletons.isEmpty())
             return Collections.emptyList();
 
-        // Master tracked skeleton & a joint type to a list that contains:
-        // for each joint - a summation of all other camera views, and the number of cameras
-        // participating. To get the average joint - divide Join coordinates by the number of
-        // cameras
-        Map<Pair<Skeleton, Joint.JointType>, Pair<Joint, Integer>> trackedSkelToAvgViewsCount = new HashMap<>();
+        // Master skeletons in an array, matched by index
+        int mastersCount = trackedSkeletons.size();
+        ensureAverageCapacity(mastersCount);
+        Skeleton[] masters = _averageMasters;
+        trackedSkeletons.toArray(masters);
 
-        for (Pair<String, Skeleton> camTracking: frame) {
+        // A fused skeleton for each master skeleton
+        _fusion.begin(mastersCount);
 
-            String cameraName = camTracking.first;
-            Skeleton currentSkel = camTracking.second;
-            if (cameraName.equals(masterCamera))
-                continue;
+        // All skeletons of the frame in master coordinates, shared with other listeners of the frame
+        SkeletonBatch batch = frame.getTransformed(masterCamera, this);
 
-            Skeleton transfomedSkel = transform(cameraName, masterCamera, currentSkel);
-            double minMSE = Double.MAX_VALUE;
-            Skeleton matchedMasterSkeleton = null;
+        // Skeletons of each camera are consecutive in the batch, match each camera as a whole
+        int first = 0;
+        while (first < batch.size()) {
 
-            // Search for which master tracked skeleton the current skeleton matches
-            for (Skeleton masterTrackedSkel: trackedSkeletons) {
+            String cameraName = batch.getCamera(first);
+            int end = first + 1;
+            while ((end < batch.size()) && cameraName.equals(batch.getCamera(end)))
+                end++;
 
-                double mse = calculateMSE(transfomedSkel, masterTrackedSkel);
-                if (mse < minMSE) {
-                    minMSE = mse;
-                    matchedMasterSkeleton = masterTrackedSkel;
-                }
+            double cameraWeight = SkeletonFusion.cameraWeight(getResidual(cameraName, masterCamera));
+
+            if (cameraName.equals(masterCamera)) {
+
+                // Master skeletons are in the batch in the same order as in the frame
+                for (int skelIndex = first; skelIndex < end; skelIndex++)
+                    _fusion.add(skelIndex - first, batch, skelIndex, cameraWeight);
             }
+            else if (cameraWeight > 0) {
 
-            // For each tracked joint - add to average skeleton
-            for (Joint transformedJoint: transfomedSkel.joints) {
+                int[] assignment = _matcher.match(batch, first, end - first, masters, mastersCount);
 
-                if (transformedJoint.trackingState != Joint.JointTrackingState.Tracked)
-                    continue;
+                for (int skelIndex = first; skelIndex < end; skelIndex++) {
 
-                Pair<Skeleton, Joint.JointType> key = new Pair<>(matchedMasterSkeleton, transformedJoint.type);
+                    int masterIndex = assignment[skelIndex - first];
+                    if (masterIndex < 0)
+                        continue; // A person the master camera doesn't see
 
-                if (!trackedSkelToAvgViewsCount.containsKey(key)) {
-                    Pair<Joint, Integer> initialValue = new Pair<>(new Joint(), 0);
-                    trackedSkelToAvgViewsCount.put(key, initialValue);
+                    _fusion.add(masterIndex, batch, skelIndex, cameraWeight);
                 }
-
-                Pair<Joint, Integer> averageJoint = trackedSkelToAvgViewsCount.get(key);
-                averageJoint.first.add(transformedJoint);
-                int newCount = averageJoint.second + 1;
-                trackedSkelToAvgViewsCount.put(key, new Pair<>(averageJoint.first, newCount));
             }
+
+            first = end;
         }
 
-        // Now fill all missing joints with predictions from other cameras
-        List<Skeleton> prediction = new LinkedList<>();
+        // Replace the joints with the fused joints, joints the master camera doesn't track are marked as predicted
+        List<Skeleton> prediction = new ArrayList<>(mastersCount);
 
-        for (Skeleton masterSkel: trackedSkeletons) {
+        for (int masterIndex = 0; masterIndex < mastersCount; masterIndex++) {
 
-            Skeleton predictedSkel = new Skeleton(masterSkel);
+            Skeleton predictedSkel = new Skeleton(masters[masterIndex]);
             prediction.add(predictedSkel);
 
             for (int jointId = 0; jointId < Skeleton.JOINTS_COUNT; jointId++) {
 
                 Joint masterJoint = predictedSkel.joints[jointId];
 
-                // Joint is missing, try to make up with data from other cameras
-                if (masterJoint.trackingState != Joint.JointTrackingState.Tracked) {
-
-                    Pair<Skeleton, Joint.JointType> key = new Pair<>(masterSkel, masterJoint.type);
-
-                    if (!trackedSkelToAvgViewsCount.containsKey(key))
-                        continue; // No data to predict with
-
-                    Pair<Joint, Integer> avgJointData = trackedSkelToAvgViewsCount.get(key);
-                    Joint avgJoint = avgJointData.first;
-                    int numOfViews = avgJointData.second;
-                    avgJoint.normalize(numOfViews); // Get the real average joint from average of all cameras
-
+                if (_fusion.getJoint(masterIndex, jointId, masterJoint) &&
+                    (masterJoint.trackingState != Joint.JointTrackingState.Tracked))
                     masterJoint.trackingState = Joint.JointTrackingState.Predicted;
-                    masterJoint.x = avgJoint.x;
-                    masterJoint.y = avgJoint.y;
-                    masterJoint.z = avgJoint.z;
-                }
             }
         }
 
+        // Don't keep the master skeletons of this frame alive
+        Arrays.fill(masters, 0, mastersCount, null);
+
         return prediction;
     }
 
+    /**
+     * Grow the working memory of predictAverageSkeletons to fit the given number of master skeletons
+     */
+    private void ensureAverageCapacity(int mastersCount) {
+
+        if (mastersCount <= _averageMasters.length)
+            return;
+
+        _averageMasters = new Skeleton[mastersCount];
+    }
+
     /**
      * Execute calibrate cameras step using the skeletons data that arrived from each Kinect camera
      * @param frame The frame data that arrived from each Kinect camera
@@ -199,50 +362,140 @@ public class SkelCalibrator implements IKinectFrameEventListener, CoordinatesTra
     @Override
     public void handle(SingleFrameData frame) {
 
-        // Calibrate each pair of cameras only when each camera tracks exactly a single skeleton
-        for (Pair<String, Skeleton> fromEntries: frame) {
-            for (Pair<String, Skeleton> toEntries: frame) {
+        boolean isRefinementOn = Boolean.TRUE.equals(DataHolder.INSTANCE.retrieve(DataHolderEntry.POSE_GRAPH_REFINEMENT));
+
+        // All transformations updated during this frame, published together as a single new version
+        Map<Pair<String, String>, Mat4> updates = new HashMap<>();
+
+        // Collect the globally consistent transformations found by the background optimizer since the last frame
+        if (isRefinementOn) {
+
+            Map<Pair<String, String>, Mat4> refined = _poseGraph.pollSolution();
+            if (refined != null)
+                updates.putAll(refined);
+        }
+
+        // Convergence of one algorithm says nothing about another, start over when the mode changes
+        CalibrationAlgo.CalibrationMode mode = DataHolder.INSTANCE.retrieve(DataHolderEntry.CALIBRATION_MODE);
+        if (mode != _lastMode) {
+            _convergence.clear();
+            _lastMode = mode;
+        }
+
+        // Warm start from the stored calibration whenever the set of connected cameras changes,
+        // after the calibration of the outgoing rig is stored
+        if (!_profileHosts.equals(frame.getCameras())) {
+            saveProfile();
+            loadProfile(frame.getCameras());
+        }
+
+        // Calibrate each pair of cameras over all persons both cameras see, matched across the cameras
+        List<PairCalibration> pairs = new ArrayList<>();
+        TransformationSnapshot snapshot = _snapshot.get();
+
+        for (int fromIndex = 0; fromIndex < frame.cameraCount(); fromIndex++) {
+
+            // Cameras without skeletons have nothing to calibrate with
+            if (frame.getFirstSkeleton(fromIndex) == frame.getFirstSkeleton(fromIndex + 1))
+                continue;
+
+            for (int toIndex = 0; toIndex < frame.cameraCount(); toIndex++) {
 
-                String fromCamera = fromEntries.first;
-                String toCamera = toEntries.first;
+                if ((toIndex == fromIndex) || (frame.getFirstSkeleton(toIndex) == frame.getFirstSkeleton(toIndex + 1)))
+                    continue;
 
-                // Different cameras each tracking a single skeleton
-                if ((!fromCamera.equals(toCamera)) &&
-                        (frame.isTrackingSingleSkeleton(fromCamera)) &&
-                        (frame.isTrackingSingleSkeleton(toCamera))) {
+                // Samples both cameras already had in the previous frame were calibrated with already
+                if (!frame.isChanged(fromIndex) && !frame.isChanged(toIndex))
+                    continue;
 
-                    CalibrationAlgo.CalibrationMode mode = DataHolder.INSTANCE.retrieve(DataHolderEntry.CALIBRATION_MODE);
-                    Matrix transformation;
+                String fromCamera = frame.getCamera(fromIndex);
+                String toCamera = frame.getCamera(toIndex);
 
-                    // Choose algorithm by mode
-                    switch (mode) {
+                List<Skeleton> fromSkels = new ArrayList<>();
+                List<Skeleton> toSkels = new ArrayList<>();
+                if (!gatherMatches(frame, fromCamera, toCamera, snapshot, fromSkels, toSkels))
+                    continue;
 
-                        case PER_FRAME: {
-                            transformation = calibrateSingleFrame(fromEntries, toEntries);
-                            break;
-                        }
+                Pair<String, String> pairKey = new Pair<>(fromCamera, toCamera);
+                CalibrationConvergence convergence = _convergence.get(pairKey);
 
-                        case FIRST_ORDER_TEMPORAL_APPROX: {
-                            transformation = calibrateFirstOrderApproximation(fromEntries, toEntries);
-                            break;
-                        }
+                if (convergence == null) {
+                    convergence = new CalibrationConvergence();
+                    _convergence.put(pairKey, convergence);
+                }
 
-                        case BEST_IN_CLASS: {
-                            transformation = calibrateBestInClassApproximation(fromEntries, toEntries);
-                            break;
-                        }
+                // Converged pairs are only verified at a low rate, until drift is detected
+                if (convergence.isConverged()) {
 
-                        default: { // Shouldn't happen - this is a fallback
-                            transformation = calibrateSingleFrame(fromEntries, toEntries);
-                            break;
-                        }
-                    }
+                    if (!convergence.isVerificationDue())
+                        continue;
 
-                    setTransformation(fromCamera, toCamera, transformation);
+                    Matrix transformation = getTransformation(fromCamera, toCamera);
+                    if (!convergence.verify(calculateMSE(fromSkels, toSkels, transformation)))
+                        continue;
+
+                    // Drift detected, estimations from before the drift are no longer valid
+                    Log.i("Calibrator", "Drift detected between " + fromCamera + " and " + toCamera);
+                    _temporalApproximations.remove(pairKey);
+                    _bestInClassApproximations.remove(pairKey);
+                    _kalmanFilters.remove(pairKey);
+                    _reservoirs.remove(pairKey);
                 }
+
+                pairs.add(new PairCalibration(fromCamera, toCamera, fromSkels, toSkels, convergence));
             }
         }
 
+        boolean isParallelOn = Boolean.TRUE.equals(DataHolder.INSTANCE.retrieve(DataHolderEntry.PARALLEL_CALIBRATION));
+
+        // Pair solves are independent of each other, so they may run concurrently on the pool workers
+        if (isParallelOn && pairs.size() > 1) {
+            getCalibrationPool().invoke(new PairCalibrationTask(pairs, mode, 0, pairs.size()));
+        }
+        else {
+            for (PairCalibration pair: pairs)
+                solvePair(mode, pair);
+        }
+
+        // Publish the results of all pairs together, once all solves are done
+        for (PairCalibration pair: pairs) {
+
+            String fromCamera = pair.fromCamera;
+            String toCamera = pair.toCamera;
+
+            if (isRefinementOn) {
+
+                // Each pair is visited in both directions, feed the optimizer only once
+                if (fromCamera.compareTo(toCamera) < 0) {
+                    for (int i = 0; i < pair.fromSkeletons.size(); i++)
+                        _poseGraph.addCorrespondences(fromCamera, toCamera,
+                                                      pair.fromSkeletons.get(i), pair.toSkeletons.get(i));
+                }
+
+                // Once the optimizer solved this pair, its global solution takes precedence
+                if (_poseGraph.isSolved(fromCamera, toCamera))
+                    continue;
+            }
+
+            updates.put(new Pair<>(fromCamera, toCamera), new Mat4(pair.transformation));
+
+            // Pairs in the list were all calibrating, a converged pair is worth persisting
+            if (pair.convergence.isConverged())
+                _isProfileDirty = true;
+        }
+
+        publish(updates);
+
+        if (_isProfileDirty && (frame.getTimestamp() - _lastProfileSave >= PROFILE_SAVE_INTERVAL)) {
+            _lastProfileSave = frame.getTimestamp();
+            saveProfile();
+        }
+
+        if (isRefinementOn) {
+            String masterCamera = DataHolder.INSTANCE.retrieve(DataHolderEntry.MASTER_CAMERA);
+            _poseGraph.requestOptimization(masterCamera, _snapshot.get().getTransformations());
+        }
+
         // Predict hidden joints for master skeletons view and save to DataHolder singleton
         // Do so only if this view is turned on (otherwise don't waste CPU time on that)
         boolean isShowAverageSkels = DataHolder.INSTANCE.retrieve(DataHolderEntry.SHOW_AVERAGE_SKELETONS);
@@ -253,44 +506,263 @@ public class SkelCalibrator implements IKinectFrameEventListener, CoordinatesTra
         }
     }
 
+    /**
+     * Match the skeletons two cameras track, so that each match is the same person seen by both cameras.
+     * Pairs which are calibrated already are matched through their current transformation, other pairs
+     * (or pairs whose transformation no longer matches anyone, i.e: a camera moved) by bone lengths.
+     * @param fromSkels Receives the matched skeletons of fromCamera
+     * @param toSkels Receives the matched skeletons of toCamera, by the same order
+     * @return False if no skeletons were matched
+     */
+    private boolean gatherMatches(SingleFrameData frame, String fromCamera, String toCamera,
+                                  TransformationSnapshot snapshot, List<Skeleton> fromSkels, List<Skeleton> toSkels) {
+
+        List<Skeleton> fromTracked = frame.getSkeletons(fromCamera);
+        List<Skeleton> toTracked = frame.getSkeletons(toCamera);
+
+        if ((fromTracked == null) || (toTracked == null) || fromTracked.isEmpty() || toTracked.isEmpty())
+            return false;
+
+        Mat4 transformation = snapshot.getTransformation(fromCamera, toCamera);
+
+        // Once the pair is calibrated, a single person in view of both cameras must still pass the distance gate -
+        // it may be two different people, each seen by one camera only
+        if ((fromTracked.size() == 1) && (toTracked.size() == 1)) {
+
+            if (transformation != null) {
+                addMatches(_matcher.match(fromTracked, transformation, toTracked), fromTracked, toTracked, fromSkels, toSkels);
+                return !fromSkels.isEmpty();
+            }
+
+            fromSkels.add(fromTracked.get(0));
+            toSkels.add(toTracked.get(0));
+            return true;
+        }
+
+        if (transformation != null)
+            addMatches(_matcher.match(fromTracked, transformation, toTracked), fromTracked, toTracked, fromSkels, toSkels);
+
+        if (fromSkels.isEmpty())
+            addMatches(_matcher.matchByBoneLengths(fromTracked, toTracked), fromTracked, toTracked, fromSkels, toSkels);
+
+        return !fromSkels.isEmpty();
+    }
+
+    private static void addMatches(int[] assignment, List<Skeleton> fromTracked, List<Skeleton> toTracked,
+                                   List<Skeleton> fromSkels, List<Skeleton> toSkels) {
+
+        for (int i = 0; i < fromTracked.size(); i++) {
+
+            if (assignment[i] < 0)
+                continue;
+
+            fromSkels.add(fromTracked.get(i));
+            toSkels.add(toTracked.get(assignment[i]));
+        }
+    }
+
+    /**
+     * @return Convergence state of the calibration from camera 1 to camera 2,
+     *         or null if the pair was never calibrated
+     */
+    @Nullable
+    public CalibrationConvergence getConvergence(String fromCamera, String toCamera) {
+
+        return _convergence.get(new Pair<>(fromCamera, toCamera));
+    }
+
+    /**
+     * Restore the stored calibration of a camera rig: transformations, approximations and convergence state.
+     * Pairs already calibrated in memory keep their live state, which is at least as recent as the stored one
+     * @param hostnames Cameras of the rig
+     */
+    private void loadProfile(Set<String> hostnames) {
+
+        _profileHosts = new HashSet<>(hostnames);
+
+        if (_profilesDir == null)
+            return;
+
+        CalibrationProfile profile = CalibrationProfile.load(_profilesDir, hostnames);
+        if (profile == null)
+            return;
+
+        Map<Pair<String, String>, Mat4> updates = new HashMap<>();
+
+        for (CalibrationProfile.Entry entry: profile.getEntries()) {
+
+            Pair<String, String> pairKey = new Pair<>(entry.fromCamera, entry.toCamera);
+
+            CalibrationConvergence current = _convergence.get(pairKey);
+            if ((current != null) && (current.getEstimatesCount() > 0))
+                continue;
+
+            Matrix rotation = CalibrationAlgo.Rotation.extractRotation(entry.transformation);
+            Matrix translation = CalibrationAlgo.Rotation.extractTranslation(entry.transformation);
+
+            // Keep refining from the stored state, but let new samples still move the average
+            int framesAveraged = Math.max(1, Math.min(entry.estimatesCount, MAX_RESTORED_FRAMES_AVERAGED));
+
+            updates.put(pairKey, new Mat4(entry.transformation));
+            _temporalApproximations.put(pairKey, new TemporalApproximation(rotation, translation, framesAveraged));
+            _bestInClassApproximations.put(pairKey, new BestInClass(entry.transformation, entry.residual));
+
+            KalmanFilter filter = new KalmanFilter();
+            filter.restore(entry.transformation, entry.isConverged);
+            _kalmanFilters.put(pairKey, filter);
+
+            CalibrationConvergence convergence = new CalibrationConvergence();
+            convergence.restore(entry.transformation, entry.residual, entry.estimatesCount, entry.isConverged);
+            _convergence.put(pairKey, convergence);
+        }
+
+        publish(updates);
+        Log.i("Calibrator", "Restored calibration profile of " + hostnames);
+    }
+
+    /**
+     * Persist the calibration state of the current camera rig.
+     * The state is captured right away, the file is written in the background
+     */
+    public void saveProfile() {
+
+        _isProfileDirty = false;
+
+        if ((_profilesDir == null) || (_profileHosts.size() < 2))
+            return;
+
+        final File profilesDir = _profilesDir;
+        final CalibrationProfile profile = new CalibrationProfile(_profileHosts);
+
+        for (Map.Entry<Pair<String, String>, CalibrationConvergence> entry: _convergence.entrySet()) {
+
+            String fromCamera = entry.getKey().first;
+            String toCamera = entry.getKey().second;
+            CalibrationConvergence convergence = entry.getValue();
+
+            if (!_profileHosts.contains(fromCamera) || !_profileHosts.contains(toCamera) ||
+                (convergence.getEstimatesCount() == 0))
+                continue;
+
+            profile.addEntry(new CalibrationProfile.Entry(fromCamera, toCamera,
+                                                          getTransformation(fromCamera, toCamera),
+                                                          convergence.getResidual(),
+                                                          convergence.getEstimatesCount(),
+                                                          convergence.isConverged()));
+        }
+
+        try {
+            _profileWriter.execute(new Runnable() {
+                @Override
+                public void run() {
+                    profile.save(profilesDir);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            Log.e("Calibrator", "Calibrator was shut down, profile of " + _profileHosts + " not saved");
+        }
+    }
+
+    /**
+     * Stops background calibration work
+     */
+    public void shutdown() {
+
+        _poseGraph.shutdown();
+        _profileWriter.shutdown(); // Profiles pending are still written
+
+        if (_calibrationPool != null)
+            _calibrationPool.shutdownNow();
+    }
+
+    /**
+     * @return Work stealing pool for concurrent pair calibrations, sized to the number of available cores
+     */
+    @NonNull
+    private ForkJoinPool getCalibrationPool() {
+
+        if (_calibrationPool == null)
+            _calibrationPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+        return _calibrationPool;
+    }
+
+    /**
+     * Calibrate a pair of cameras and track the convergence of the result
+     * @param mode Calibration algorithm
+     * @param pair Pair of cameras to calibrate, the result is stored in pair.transformation
+     */
+    private void solvePair(CalibrationAlgo.CalibrationMode mode, PairCalibration pair) {
+
+        pair.transformation = calibratePair(mode, pair);
+
+        double residual = calculateMSE(pair.fromSkeletons, pair.toSkeletons, pair.transformation);
+        pair.convergence.addEstimate(pair.transformation, residual);
+    }
+
+    /**
+     * Calibrate a pair of cameras using the algorithm chosen by mode
+     * @param mode Calibration algorithm
+     * @param pair Pair of cameras and the skeletons matched between them
+     * @return The transformation matrix between fromCamera to toCamera
+     */
+    @NonNull
+    private Matrix calibratePair(CalibrationAlgo.CalibrationMode mode, PairCalibration pair) {
+
+        // Choose algorithm by mode
+        switch (mode) {
+
+            case PER_FRAME: {
+                return calibrateSingleFrame(pair);
+            }
+
+            case FIRST_ORDER_TEMPORAL_APPROX: {
+                return calibrateFirstOrderApproximation(pair);
+            }
+
+            case BEST_IN_CLASS: {
+                return calibrateBestInClassApproximation(pair);
+            }
+
+            case KALMAN: {
+                return calibrateKalman(pair);
+            }
+
+            case RESERVOIR: {
+                return calibrateReservoir(pair);
+            }
+
+            default: { // Shouldn't happen - this is a fallback
+                return calibrateSingleFrame(pair);
+            }
+        }
+    }
+
     /**
      * Calibrate current frame without considering the previous calibration attempts
-     * @param fromEntries
-     * @param toEntries
+     * @param pair
      * @return The transformation matrix between fromCamera to toMatrix considering the current frame
      *         data only.
      */
     @NonNull
-    private Matrix calibrateSingleFrame(Pair<String, Skeleton> fromEntries,
-                                        Pair<String, Skeleton> toEntries) {
+    private Matrix calibrateSingleFrame(PairCalibration pair) {
 
-        Skeleton fromSkel = fromEntries.second;
-        Skeleton toSkel = toEntries.second;
-
-        return _algo.calibrate(fromSkel, toSkel);
+        return _algo.calibrate(pair.fromSkeletons, pair.toSkeletons);
     }
 
     /**
      * Calibrate current frame using a rotation axis temporal aproximation
-     * @param fromEntries
-     * @param toEntries
+     * @param pair
      * @return The transformation matrix between fromCamera to toMatrix considering temporal average
      *         approximation.
      */
     @NonNull
-    private Matrix calibrateFirstOrderApproximation(Pair<String, Skeleton> fromEntries,
-                                                    Pair<String, Skeleton> toEntries) {
-
-        String fromCam = fromEntries.first;
-        String toCam = toEntries.first;
-        Skeleton fromSkel = fromEntries.second;
-        Skeleton toSkel = toEntries.second;
+    private Matrix calibrateFirstOrderApproximation(PairCalibration pair) {
 
-        Matrix currFrameTransform = _algo.calibrate(fromSkel, toSkel);
-        Pair<String, String> pairKey = new Pair<>(fromCam, toCam);
+        Matrix currFrameTransform = _algo.calibrate(pair.fromSkeletons, pair.toSkeletons);
+        Pair<String, String> pairKey = new Pair<>(pair.fromCamera, pair.toCamera);
 
-        Skeleton transformedSkel = _algo.transform(fromSkel, currFrameTransform);
-        double mse = calculateMSE(toSkel, transformedSkel);
+        double mse = calculateMSE(pair.fromSkeletons, pair.toSkeletons, currFrameTransform);
         Log.i("Calibrator", "TemporalFirstOrder MSE: " + mse);
         if (mse > 0.2) { // Avoid noisy samples that may ruin the averaging process
 
@@ -322,22 +794,15 @@ public class SkelCalibrator implements IKinectFrameEventListener, CoordinatesTra
     /**
      * Calibrate current frame using the best transformation in terms of mean square error
      * found so far.
-     * @param fromEntries
-     * @param toEntries
+     * @param pair
      * @return The transformation matrix between fromCamera to toMatrix considering best transformation
      * found so far (for minimal mse for some frame)
      */
     @NonNull
-    private Matrix calibrateBestInClassApproximation(Pair<String, Skeleton> fromEntries,
-                                                     Pair<String, Skeleton> toEntries) {
+    private Matrix calibrateBestInClassApproximation(PairCalibration pair) {
 
-        String fromCam = fromEntries.first;
-        String toCam = toEntries.first;
-        Skeleton fromSkel = fromEntries.second;
-        Skeleton toSkel = toEntries.second;
-
-        Matrix currFrameTransform = _algo.calibrate(fromSkel, toSkel);
-        Pair<String, String> pairKey = new Pair<>(fromCam, toCam);
+        Matrix currFrameTransform = _algo.calibrate(pair.fromSkeletons, pair.toSkeletons);
+        Pair<String, String> pairKey = new Pair<>(pair.fromCamera, pair.toCamera);
 
 
         if (!_bestInClassApproximations.containsKey(pairKey)) {
@@ -345,15 +810,77 @@ public class SkelCalibrator implements IKinectFrameEventListener, CoordinatesTra
         }
 
         BestInClass approximator = _bestInClassApproximations.get(pairKey);
-        approximator.applyCandidate(fromSkel, toSkel, currFrameTransform);
+        approximator.applyCandidate(pair.fromSkeletons, pair.toSkeletons, currFrameTransform);
 
         Matrix transform = approximator.getTransform();
-        double currentMSE = calculateMSE(toSkel, CalibrationAlgo.transform(fromSkel, transform));
+        double currentMSE = calculateMSE(pair.fromSkeletons, pair.toSkeletons, transform);
         Log.i("Calibrator", "BestInClass MSE: " + currentMSE);
 
         return transform;
     }
 
+    /**
+     * Calibrate current frame and filter the result with a Kalman filter over the pose of the pair
+     * @param pair
+     * @return The transformation matrix between fromCamera to toMatrix, filtered over all frames so far
+     */
+    @NonNull
+    private Matrix calibrateKalman(PairCalibration pair) {
+
+        Matrix currFrameTransform = _algo.calibrate(pair.fromSkeletons, pair.toSkeletons);
+        Pair<String, String> pairKey = new Pair<>(pair.fromCamera, pair.toCamera);
+
+        KalmanFilter filter = _kalmanFilters.get(pairKey);
+        if (filter == null) {
+            filter = new KalmanFilter();
+            _kalmanFilters.put(pairKey, filter);
+        }
+
+        // The residual of the frame estimate sets how much the filter trusts it
+        double mse = calculateMSE(pair.fromSkeletons, pair.toSkeletons, currFrameTransform);
+
+        return filter.update(currFrameTransform, mse, pair.fromSkeletons.get(0).getTimestamp());
+    }
+
+    /**
+     * Calibrate over all correspondences gathered so far, spread over the space both cameras see
+     * @param pair
+     * @return The transformation matrix between fromCamera to toMatrix, solved over the pair's reservoir
+     */
+    @NonNull
+    private Matrix calibrateReservoir(PairCalibration pair) {
+
+        Pair<String, String> pairKey = new Pair<>(pair.fromCamera, pair.toCamera);
+
+        CorrespondenceReservoir reservoir = _reservoirs.get(pairKey);
+        if (reservoir == null) {
+            reservoir = new CorrespondenceReservoir();
+            _reservoirs.put(pairKey, reservoir);
+        }
+
+        for (int i = 0; i < pair.fromSkeletons.size(); i++)
+            reservoir.add(pair.fromSkeletons.get(i), pair.toSkeletons.get(i));
+
+        // Too few distinct points to constrain a rotation, fall back to the current frame
+        if (reservoir.size() < MIN_RESERVOIR_SIZE)
+            return _algo.calibrate(pair.fromSkeletons, pair.toSkeletons);
+
+        return _algo.calibrate(reservoir.getCorrespondences(), reservoir.size());
+    }
+
+    /**
+     * @return Average residual of the matched skeletons, after transforming the skeletons of the first camera
+     */
+    private double calculateMSE(List<Skeleton> fromSkels, List<Skeleton> toSkels, Matrix transformation) {
+
+        double sum = 0;
+
+        for (int i = 0; i < fromSkels.size(); i++)
+            sum += calculateMSE(toSkels.get(i), CalibrationAlgo.transform(fromSkels.get(i), transformation));
+
+        return sum / fromSkels.size();
+    }
+
     private double calculateMSE(Skeleton skel1, Skeleton skel2) {
 
         double squaredSum = 0;
@@ -376,34 +903,48 @@ public class SkelCalibrator implements IKinectFrameEventListener, CoordinatesTra
 
     private class TemporalApproximation {
 
-        private Matrix axisAngle;
-        private Matrix translation;
+        private Vec3 axisAngle;
+        private Vec3 translation;
 
         private int framesAveraged;
 
         public TemporalApproximation(Matrix rotationMatSample, Matrix translationVecSample) {
 
-            framesAveraged = 1;
-            axisAngle = CalibrationAlgo.Rotation.rotationMatToAxisAngle(rotationMatSample);;
-            translation = new Matrix(translationVecSample.getArray());
+            this(rotationMatSample, translationVecSample, 1);
+        }
+
+        /**
+         * @param framesAveraged Number of frames the initial sample stands for (i.e: when restored from a profile)
+         */
+        public TemporalApproximation(Matrix rotationMatSample, Matrix translationVecSample, int framesAveraged) {
+
+            this.framesAveraged = framesAveraged;
+            axisAngle = CalibrationAlgo.Rotation.toMat3(rotationMatSample).toAxisAngle(new Vec3());
+            translation = new Vec3(translationVecSample.get(0, 0),
+                                   translationVecSample.get(1, 0),
+                                   translationVecSample.get(2, 0));
         }
 
         public void add(Matrix rotationMatSample, Matrix translationVecSample) {
 
-            translation = translation.times(framesAveraged).plus(translationVecSample).times(1.0 / (framesAveraged + 1.0));
+            double weight = 1.0 / (framesAveraged + 1.0);
 
-            Matrix axisAngleSample = CalibrationAlgo.Rotation.rotationMatToAxisAngle(rotationMatSample);
-            axisAngle = axisAngle.times(framesAveraged).plus(axisAngleSample).times(1.0 / (framesAveraged + 1.0));
+            // Running average: avg += (sample - avg) / (n + 1)
+            translation.set(translation.x + (translationVecSample.get(0, 0) - translation.x) * weight,
+                            translation.y + (translationVecSample.get(1, 0) - translation.y) * weight,
+                            translation.z + (translationVecSample.get(2, 0) - translation.z) * weight);
+
+            Vec3 axisAngleSample = CalibrationAlgo.Rotation.toMat3(rotationMatSample).toAxisAngle(new Vec3());
+            axisAngle.scale(1 - weight).addScaled(axisAngleSample, weight);
 
             framesAveraged++;
         }
 
         public Matrix getTransform() {
 
-            Matrix rotationMat = CalibrationAlgo.Rotation.axisAngletoRotationMat(axisAngle);
-            Matrix homogeneousMat = CalibrationAlgo.Rotation.composeHomogeneous(rotationMat, translation);
+            Mat4 homogeneousMat = new Mat4().set(new Mat3().setAxisAngle(axisAngle), translation);
 
-            return homogeneousMat;
+            return homogeneousMat.toMatrix();
         }
     }
 
@@ -413,16 +954,20 @@ public class SkelCalibrator implements IKinectFrameEventListener, CoordinatesTra
         private Matrix bestTransform;
 
         public BestInClass() {
-            minMSE = Double.MAX_VALUE;
-            bestTransform = Matrix.identity(4, 4);
+            this(Matrix.identity(4, 4), Double.MAX_VALUE);
+        }
+
+        public BestInClass(Matrix transform, double mse) {
+            minMSE = mse;
+            bestTransform = transform;
         }
 
-        public void applyCandidate(Skeleton from, Skeleton to, Matrix transform) {
+        public void applyCandidate(List<Skeleton> from, List<Skeleton> to, Matrix transform) {
 
-            Skeleton transformedSkel = CalibrationAlgo.transform(from, transform);
-            double mse = calculateMSE(transformedSkel, to);
+            double mse = calculateMSE(from, to, transform);
 
             if (mse < minMSE) {
+                minMSE = mse;
                 bestTransform = transform;
             }
         }
@@ -432,4 +977,62 @@ public class SkelCalibrator implements IKinectFrameEventListener, CoordinatesTra
             return bestTransform;
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Calibration of a single ordered pair of cameras during the current frame
+     */
+    private static class PairCalibration {
+
+        final String fromCamera;
+        final String toCamera;
+        final List<Skeleton> fromSkeletons;     // Skeletons of fromCamera..
+        final List<Skeleton> toSkeletons;       // ..matched by index to the same persons in toCamera
+        final CalibrationConvergence convergence;
+        Matrix transformation;
+
+        PairCalibration(String fromCamera, String toCamera, List<Skeleton> fromSkeletons, List<Skeleton> toSkeletons,
+                        CalibrationConvergence convergence) {
+
+            this.fromCamera = fromCamera;
+            this.toCamera = toCamera;
+            this.fromSkeletons = fromSkeletons;
+            this.toSkeletons = toSkeletons;
+            this.convergence = convergence;
+        }
+    }
+
+    /**
+     * Solves a range of pair calibrations, splitting it in halves until each task holds a single pair.
+     * Each pair owns its own approximation state, so tasks never touch the same state concurrently.
+     */
+    private class PairCalibrationTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<PairCalibration> _pairs;
+        private final CalibrationAlgo.CalibrationMode _mode;
+        private final int _start;
+        private final int _end;
+
+        PairCalibrationTask(List<PairCalibration> pairs, CalibrationAlgo.CalibrationMode mode, int start, int end) {
+
+            _pairs = pairs;
+            _mode = mode;
+            _start = start;
+            _end = end;
+        }
+
+        @Override
+        protected void compute() {
+
+            if (_end - _start == 1) {
+                solvePair(_mode, _pairs.get(_start));
+                return;
+            }
+
+            int middle = (_start + _end) / 2;
+            invokeAll(new PairCalibrationTask(_pairs, _mode, _start, middle),
+                      new PairCalibrationTask(_pairs, _mode, middle, _end));
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package org.kinectanywhereandroid.algorithm;
+
+import org.kinectanywhereandroid.model.Joint;
+import org.kinectanywhereandroid.model.Skeleton;
+
+import java.io.Serializable;
+
+/**
+ * Columnar layout of skeletons: the store of the skeletons of a frame (see SingleFrameData.getColumns), also the
+ * preallocated output of a batch skeletons transformation (see SkelCalibrator.transformFrame).
+ * Joint positions of all skeletons are kept in a single flat array of (x, y, z) triplets, so the
+ * whole frame is transformed in one loop. Tracking states, depths in the source camera, tracking ids and sample
+ * times are kept in primitive columns as well, so per joint loops never touch Joint objects.
+ * Joint types aren't stored: joints are kept in the order of their types.
+ * Skeleton objects are only views of the columns, created on request (see getSkeleton).
+ * Buffers only grow, a batch reused between frames stops allocating once it fits the largest frame.
+ *
+ * Filling a batch is not thread safe. Once filled and safely published, a batch may be read
+ * from multiple threads (i.e: when shared through SingleFrameData.getTransformed).
+ */
+public final class SkeletonBatch implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of floats a single skeleton takes in the positions array */
+    public static final int SKELETON_STRIDE = Skeleton.JOINTS_COUNT * 3;
+
+    private String[] _cameras;
+    private Skeleton[] _skeletons;  // Views of the skeletons, materialised lazily and reused once the batch is cleared
+    private boolean[] _isMaterialized;
+    private float[] _positions;
+    private float[] _depths;        // z of each joint in the coordinates system of its own camera
+    private byte[] _states;         // Tracking state of each joint
+    private int[] _trackingIds;
+    private long[] _timestamps;     // Time each skeleton was sampled at by its camera
+    private int _count;
+    private volatile int _generation; // Bumped each time the batch is cleared
+
+    private final static Joint.JointTrackingState[] TRACKING_STATES = Joint.JointTrackingState.values();
+    private final static Joint.JointType[] JOINT_TYPES = Joint.JointType.values();
+    private final static byte TRACKED = (byte)Joint.JointTrackingState.Tracked.ordinal();
+    private final static byte NOT_TRACKED = (byte)Joint.JointTrackingState.NotTracked.ordinal();
+
+    public SkeletonBatch() {
+
+        this(4);
+    }
+
+    /**
+     * @param capacity Number of skeletons to preallocate room for
+     */
+    public SkeletonBatch(int capacity) {
+
+        _cameras = new String[capacity];
+        _skeletons = new Skeleton[capacity];
+        _isMaterialized = new boolean[capacity];
+        _positions = new float[capacity * SKELETON_STRIDE];
+        _depths = new float[capacity * Skeleton.JOINTS_COUNT];
+        _states = new byte[capacity * Skeleton.JOINTS_COUNT];
+        _trackingIds = new int[capacity];
+        _timestamps = new long[capacity];
+        _count = 0;
+    }
+
+    /**
+     * Empty the batch, keeping the allocated buffers & skeletons
+     */
+    public synchronized void clear() {
+
+        for (int i = 0; i < _count; i++) {
+            _cameras[i] = null;
+            _isMaterialized[i] = false;
+        }
+
+        _count = 0;
+        _generation++;
+    }
+
+    /**
+     * @return Number of times the batch was cleared. Holders of the batch or its views may compare generations
+     *         to tell whether they still see the same skeletons (i.e: assert a view wasn't kept past its frame)
+     */
+    public int getGeneration() {
+
+        return _generation;
+    }
+
+    /**
+     * Appends a skeleton, copying its joint positions and tracking states. The batch keeps no reference to it
+     * @param camera Camera the skeleton was tracked by
+     * @param skeleton Source skeleton, missing joints are added as not tracked
+     * @return Index of the skeleton in the batch
+     */
+    public int add(String camera, Skeleton skeleton) {
+
+        ensureCapacity(_count + 1);
+
+        int index = _count++;
+        _cameras[index] = camera;
+        _trackingIds[index] = skeleton.trackingId;
+        _timestamps[index] = skeleton.getTimestamp();
+
+        int offset = index * SKELETON_STRIDE;
+        int jointOffset = index * Skeleton.JOINTS_COUNT;
+        for (Joint joint: skeleton.joints) {
+
+            if (joint == null) {
+                _positions[offset++] = 0;
+                _positions[offset++] = 0;
+                _positions[offset++] = 0;
+                _depths[jointOffset] = 0;
+                _states[jointOffset++] = NOT_TRACKED;
+                continue;
+            }
+
+            _positions[offset++] = joint.x;
+            _positions[offset++] = joint.y;
+            _positions[offset++] = joint.z;
+            _depths[jointOffset] = joint.z;
+            _states[jointOffset++] = (byte)joint.trackingState.ordinal();
+        }
+
+        return index;
+    }
+
+    /**
+     * Appends a skeleton of another batch, copying all its columns
+     * @return Index of the skeleton in this batch
+     */
+    public int add(SkeletonBatch source, int sourceIndex) {
+
+        ensureCapacity(_count + 1);
+
+        int index = _count++;
+        _cameras[index] = source._cameras[sourceIndex];
+        _trackingIds[index] = source._trackingIds[sourceIndex];
+        _timestamps[index] = source._timestamps[sourceIndex];
+
+        System.arraycopy(source._positions, sourceIndex * SKELETON_STRIDE, _positions, index * SKELETON_STRIDE,
+                         SKELETON_STRIDE);
+        System.arraycopy(source._depths, sourceIndex * Skeleton.JOINTS_COUNT, _depths, index * Skeleton.JOINTS_COUNT,
+                         Skeleton.JOINTS_COUNT);
+        System.arraycopy(source._states, sourceIndex * Skeleton.JOINTS_COUNT, _states, index * Skeleton.JOINTS_COUNT,
+                         Skeleton.JOINTS_COUNT);
+
+        return index;
+    }
+
+    /**
+     * Move a joint, i.e: to smooth it. Only the owner of the batch may modify it, before it's shared
+     * (for a frame: the first listener of the frame, see JointSmoother).
+     * The depth of the joint follows its z, so this is only meant for skeletons in their own camera coordinates
+     */
+    public synchronized void setPosition(int index, int jointId, float x, float y, float z) {
+
+        int offset = index * SKELETON_STRIDE + jointId * 3;
+        _positions[offset] = x;
+        _positions[offset + 1] = y;
+        _positions[offset + 2] = z;
+        _depths[index * Skeleton.JOINTS_COUNT + jointId] = z;
+        _isMaterialized[index] = false;
+    }
+
+    private void ensureCapacity(int capacity) {
+
+        if (capacity <= _cameras.length)
+            return;
+
+        int newCapacity = Math.max(capacity, _cameras.length * 2);
+
+        String[] cameras = new String[newCapacity];
+        Skeleton[] skeletons = new Skeleton[newCapacity];
+        boolean[] isMaterialized = new boolean[newCapacity];
+        float[] positions = new float[newCapacity * SKELETON_STRIDE];
+        float[] depths = new float[newCapacity * Skeleton.JOINTS_COUNT];
+        byte[] states = new byte[newCapacity * Skeleton.JOINTS_COUNT];
+        int[] trackingIds = new int[newCapacity];
+        long[] timestamps = new long[newCapacity];
+
+        System.arraycopy(_cameras, 0, cameras, 0, _count);
+        System.arraycopy(_skeletons, 0, skeletons, 0, _skeletons.length);
+        System.arraycopy(_isMaterialized, 0, isMaterialized, 0, _count);
+        System.arraycopy(_positions, 0, positions, 0, _count * SKELETON_STRIDE);
+        System.arraycopy(_depths, 0, depths, 0, _count * Skeleton.JOINTS_COUNT);
+        System.arraycopy(_states, 0, states, 0, _count * Skeleton.JOINTS_COUNT);
+        System.arraycopy(_trackingIds, 0, trackingIds, 0, _count);
+        System.arraycopy(_timestamps, 0, timestamps, 0, _count);
+
+        _cameras = cameras;
+        _skeletons = skeletons;
+        _isMaterialized = isMaterialized;
+        _positions = positions;
+        _depths = depths;
+        _states = states;
+        _trackingIds = trackingIds;
+        _timestamps = timestamps;
+    }
+
+    /**
+     * @return Number of skeletons in the batch
+     */
+    public int size() {
+
+        return _count;
+    }
+
+    public String getCamera(int index) {
+
+        return _cameras[index];
+    }
+
+    public int getTrackingId(int index) {
+
+        return _trackingIds[index];
+    }
+
+    /**
+     * @return Time the skeleton was sampled at by its camera (milliseconds)
+     */
+    public long getTimestamp(int index) {
+
+        return _timestamps[index];
+    }
+
+    /**
+     * The skeleton as a Skeleton object, for consumers that work with whole skeletons.
+     * Created on first request and kept, so all consumers of the batch share a single copy.
+     * Skeleton objects are reused once the batch is cleared (i.e: when its frame is recycled).
+     * @return View of the skeleton, must not be modified by the caller nor kept past the batch contents
+     */
+    public synchronized Skeleton getSkeleton(int index) {
+
+        Skeleton skeleton = _skeletons[index];
+
+        if (!_isMaterialized[index]) {
+
+            if (skeleton == null) {
+                skeleton = new Skeleton();
+                for (int i = 0; i < Skeleton.JOINTS_COUNT; i++) {
+                    skeleton.joints[i] = new Joint(0, 0, 0);
+                    skeleton.joints[i].type = JOINT_TYPES[i];
+                }
+                _skeletons[index] = skeleton;
+            }
+
+            skeleton.trackingId = _trackingIds[index];
+            skeleton.setTimestamp(_timestamps[index]);
+
+            int offset = index * SKELETON_STRIDE;
+            int jointOffset = index * Skeleton.JOINTS_COUNT;
+
+            for (Joint joint: skeleton.joints) {
+                joint.x = _positions[offset++];
+                joint.y = _positions[offset++];
+                joint.z = _positions[offset++];
+                joint.trackingState = TRACKING_STATES[_states[jointOffset++]];
+            }
+
+            _isMaterialized[index] = true;
+        }
+
+        return skeleton;
+    }
+
+    /**
+     * @return Flat (x, y, z) joint positions of all skeletons, skeleton i starts at i * SKELETON_STRIDE
+     */
+    public float[] getPositions() {
+
+        return _positions;
+    }
+
+    public float getX(int index, int jointId) {
+
+        return _positions[index * SKELETON_STRIDE + jointId * 3];
+    }
+
+    public float getY(int index, int jointId) {
+
+        return _positions[index * SKELETON_STRIDE + jointId * 3 + 1];
+    }
+
+    public float getZ(int index, int jointId) {
+
+        return _positions[index * SKELETON_STRIDE + jointId * 3 + 2];
+    }
+
+    public Joint.JointTrackingState getTrackingState(int index, int jointId) {
+
+        return TRACKING_STATES[_states[index * Skeleton.JOINTS_COUNT + jointId]];
+    }
+
+    public boolean isTracked(int index, int jointId) {
+
+        return _states[index * Skeleton.JOINTS_COUNT + jointId] == TRACKED;
+    }
+
+    /**
+     * @return z of the joint in the coordinates system of its own camera, i.e: its distance from the sensor
+     */
+    public float getDepth(int index, int jointId) {
+
+        return _depths[index * Skeleton.JOINTS_COUNT + jointId];
+    }
+
+    /**
+     * @return Tracking state (as JointTrackingState ordinal) of all joints, skeleton i starts at i * JOINTS_COUNT
+     */
+    public byte[] getTrackingStates() {
+
+        return _states;
+    }
+}
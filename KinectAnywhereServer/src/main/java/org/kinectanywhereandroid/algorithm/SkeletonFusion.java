@@ -0,0 +1,203 @@
+package org.kinectanywhereandroid.algorithm;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import org.kinectanywhereandroid.model.Joint;
+import org.kinectanywhereandroid.model.Skeleton;
+
+import java.util.Arrays;
+
+/**
+ * Fuses the views several cameras have of the same person into a single skeleton, joint by joint.
+ * Each view of a joint is weighted by how much it can be trusted:
+ * - Tracking state: inferred joints count much less than tracked joints
+ * - Distance from the sensor: depth noise grows quadratically with the distance
+ * - Calibration residual of the camera: views through a poorly calibrated transformation count less
+ * Views are accumulated in a single pass into flat arrays, one slot (target) per fused skeleton.
+ * Working memory is allocated once and grows with the largest number of targets seen so far.
+ */
+@NotThreadSafe
+public class SkeletonFusion {
+
+    /** Weight of a joint by its tracking state */
+    private final static double TRACKED_WEIGHT = 1.0;
+    private final static double INFERRED_WEIGHT = 0.1;
+
+    /** Joints closer to the sensor than this (meters) are at full accuracy, further joints lose weight */
+    private final static double OPTIMAL_DISTANCE = 2.5;
+
+    /** Calibration residual (see SkelCalibrator.calculateMSE) at which the weight of a camera is halved */
+    private final static double REFERENCE_RESIDUAL = 0.1;
+
+    private final static int TARGET_STRIDE = SkeletonBatch.SKELETON_STRIDE;
+
+    private int _targetsCount;
+    private float[] _sums;      // Weighted sum of the views, TARGET_STRIDE per target
+    private float[] _weights;   // Sum of the weights, one per target joint
+
+    public SkeletonFusion() {
+
+        _sums = new float[8 * TARGET_STRIDE];
+        _weights = new float[8 * Skeleton.JOINTS_COUNT];
+    }
+
+    /**
+     * @param residual Calibration residual of the camera to the fused coordinates system,
+     *                 0 for the camera whose coordinates are used, NaN if the camera isn't calibrated
+     * @return Weight of all views of a camera
+     */
+    public static double cameraWeight(double residual) {
+
+        if (Double.isNaN(residual))
+            return 0; // Skeletons of an uncalibrated camera aren't in the fused coordinates system
+
+        double ratio = residual / REFERENCE_RESIDUAL;
+        return 1.0 / (1.0 + ratio * ratio);
+    }
+
+    /**
+     * @return Weight of a single view of a joint, given in the coordinates system of its own camera
+     */
+    public static double jointWeight(Joint joint) {
+
+        return jointWeight(joint.trackingState, joint.z);
+    }
+
+    /**
+     * @param depth z of the joint in the coordinates system of its own camera
+     * @return Weight of a single view of a joint
+     */
+    public static double jointWeight(Joint.JointTrackingState trackingState, float depth) {
+
+        double weight;
+
+        switch (trackingState) {
+            case Tracked:
+                weight = TRACKED_WEIGHT;
+                break;
+            case Inferred:
+                weight = INFERRED_WEIGHT;
+                break;
+            default:
+                return 0;
+        }
+
+        if (depth > OPTIMAL_DISTANCE) {
+            double ratio = OPTIMAL_DISTANCE / depth;
+            weight *= ratio * ratio;
+        }
+
+        return weight;
+    }
+
+    /**
+     * Start fusing a new set of skeletons
+     * @param targetsCount Number of fused skeletons
+     */
+    public void begin(int targetsCount) {
+
+        ensureCapacity(targetsCount);
+        _targetsCount = targetsCount;
+        Arrays.fill(_sums, 0, targetsCount * TARGET_STRIDE, 0);
+        Arrays.fill(_weights, 0, targetsCount * Skeleton.JOINTS_COUNT, 0);
+    }
+
+    /**
+     * Add a target to fuse into, after begin
+     * @return Index of the new target
+     */
+    public int addTarget() {
+
+        ensureCapacity(_targetsCount + 1);
+        int target = _targetsCount++;
+        Arrays.fill(_sums, target * TARGET_STRIDE, (target + 1) * TARGET_STRIDE, 0);
+        Arrays.fill(_weights, target * Skeleton.JOINTS_COUNT, (target + 1) * Skeleton.JOINTS_COUNT, 0);
+
+        return target;
+    }
+
+    /**
+     * Add a view of a skeleton to a fused skeleton
+     * @param target Index of the fused skeleton
+     * @param batch Skeletons in the fused coordinates system
+     * @param index Index of the view in the batch
+     * @param cameraWeight Weight of the camera of the view (see cameraWeight)
+     */
+    public void add(int target, SkeletonBatch batch, int index, double cameraWeight) {
+
+        if (cameraWeight <= 0)
+            return;
+
+        for (int jointId = 0; jointId < Skeleton.JOINTS_COUNT; jointId++) {
+
+            // The weight comes from the view in its own camera, the position from the transformed view
+            float weight = (float)(cameraWeight * jointWeight(batch.getTrackingState(index, jointId),
+                                                              batch.getDepth(index, jointId)));
+            if (weight <= 0)
+                continue;
+
+            int offset = target * TARGET_STRIDE + jointId * 3;
+            _sums[offset] += weight * batch.getX(index, jointId);
+            _sums[offset + 1] += weight * batch.getY(index, jointId);
+            _sums[offset + 2] += weight * batch.getZ(index, jointId);
+            _weights[target * Skeleton.JOINTS_COUNT + jointId] += weight;
+        }
+    }
+
+    /**
+     * @return Total weight of all views of a joint of a fused skeleton, 0 if no view has it
+     */
+    public float getWeight(int target, int jointId) {
+
+        return _weights[target * Skeleton.JOINTS_COUNT + jointId];
+    }
+
+    /**
+     * Write the fused position of a joint
+     * @param out Receives (x, y, z) of the joint
+     * @param offset Position in out to write at
+     * @return False if no view has the joint, in which case out is left unchanged
+     */
+    public boolean getJoint(int target, int jointId, float[] out, int offset) {
+
+        float weight = getWeight(target, jointId);
+        if (weight <= 0)
+            return false;
+
+        int sumOffset = target * TARGET_STRIDE + jointId * 3;
+        out[offset] = _sums[sumOffset] / weight;
+        out[offset + 1] = _sums[sumOffset + 1] / weight;
+        out[offset + 2] = _sums[sumOffset + 2] / weight;
+
+        return true;
+    }
+
+    /**
+     * Write the fused position of a joint
+     * @return False if no view has the joint, in which case the joint is left unchanged
+     */
+    public boolean getJoint(int target, int jointId, Joint out) {
+
+        float weight = getWeight(target, jointId);
+        if (weight <= 0)
+            return false;
+
+        int sumOffset = target * TARGET_STRIDE + jointId * 3;
+        out.x = _sums[sumOffset] / weight;
+        out.y = _sums[sumOffset + 1] / weight;
+        out.z = _sums[sumOffset + 2] / weight;
+
+        return true;
+    }
+
+    private void ensureCapacity(int targetsCount) {
+
+        int capacity = _weights.length / Skeleton.JOINTS_COUNT;
+        if (targetsCount <= capacity)
+            return;
+
+        capacity = Math.max(targetsCount, capacity * 2);
+        _sums = Arrays.copyOf(_sums, capacity * TARGET_STRIDE);
+        _weights = Arrays.copyOf(_weights, capacity * Skeleton.JOINTS_COUNT);
+    }
+}
@@ -0,0 +1,403 @@
+package org.kinectanywhereandroid.algorithm;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import org.kinectanywhereandroid.math.Mat4;
+import org.kinectanywhereandroid.model.Joint;
+import org.kinectanywhereandroid.model.Skeleton;
+
+import java.util.List;
+
+/**
+ * Matches the skeletons a camera tracks to target skeletons (i.e: the skeletons of the master camera),
+ * both in the same coordinates system.
+ * Each camera sees each person at most once, so the match is a one to one assignment which minimizes the
+ * total distance (Hungarian algorithm), rather than the nearest target of each skeleton separately.
+ * Pairs further apart than a gate are never matched: a person only one of the cameras sees stays unmatched.
+ * Cameras that aren't calibrated yet have no common coordinates system, their skeletons are matched by
+ * bone lengths instead - a pose invariant signature of each person.
+ * Working memory is allocated once and grows with the largest scene seen so far.
+ *
+ * @see <a href="https://en.wikipedia.org/wiki/Hungarian_algorithm">Hungarian algorithm</a>
+ */
+@NotThreadSafe
+public class SkeletonMatcher {
+
+    /** Skeletons further apart than this root mean square joint distance (meters) are never matched */
+    private final static double MAX_MATCH_DISTANCE = 0.5;
+
+    /** Minimal number of joints tracked in both skeletons for their distance to be meaningful */
+    private final static int MIN_COMMON_JOINTS = 3;
+
+    /** Skeletons whose bone lengths differ by more than this root mean square (meters) are never matched */
+    private final static double MAX_BONE_LENGTH_DIFFERENCE = 0.04;
+
+    /** Minimal number of bones tracked in both skeletons for their bone lengths to be comparable */
+    private final static int MIN_COMMON_BONES = 6;
+
+    /** A bone lengths match is accepted only if any other candidate of either skeleton costs at least
+     *  this many times more (persons of similar build can't be told apart by their bones) */
+    private final static double AMBIGUITY_RATIO = 2.0;
+
+    /** Pairs of joints connected by a bone */
+    private final static int[][] BONES = {
+        { Joint.JointType.Head.getValue(), Joint.JointType.ShoulderCenter.getValue() },
+        { Joint.JointType.ShoulderCenter.getValue(), Joint.JointType.ShoulderLeft.getValue() },
+        { Joint.JointType.ShoulderCenter.getValue(), Joint.JointType.ShoulderRight.getValue() },
+        { Joint.JointType.ShoulderCenter.getValue(), Joint.JointType.Spine.getValue() },
+        { Joint.JointType.Spine.getValue(), Joint.JointType.HipCenter.getValue() },
+        { Joint.JointType.HipCenter.getValue(), Joint.JointType.HipLeft.getValue() },
+        { Joint.JointType.HipCenter.getValue(), Joint.JointType.HipRight.getValue() },
+        { Joint.JointType.ShoulderLeft.getValue(), Joint.JointType.ElbowLeft.getValue() },
+        { Joint.JointType.ElbowLeft.getValue(), Joint.JointType.WristLeft.getValue() },
+        { Joint.JointType.ShoulderRight.getValue(), Joint.JointType.ElbowRight.getValue() },
+        { Joint.JointType.ElbowRight.getValue(), Joint.JointType.WristRight.getValue() },
+        { Joint.JointType.HipLeft.getValue(), Joint.JointType.KneeLeft.getValue() },
+        { Joint.JointType.KneeLeft.getValue(), Joint.JointType.AnkleLeft.getValue() },
+        { Joint.JointType.HipRight.getValue(), Joint.JointType.KneeRight.getValue() },
+        { Joint.JointType.KneeRight.getValue(), Joint.JointType.AnkleRight.getValue() }
+    };
+
+    /** Cost of an infeasible pair, higher than any feasible total cost so pairs beyond the gate are avoided */
+    private final static double INFEASIBLE = 1e6;
+
+    private int _capacity;
+    private double[][] _cost;   // 1-based square cost matrix
+    private double[] _u;        // Row potentials
+    private double[] _v;        // Column potentials
+    private int[] _p;           // _p[column] = row assigned to the column
+    private int[] _way;
+    private double[] _minV;
+    private boolean[] _used;
+    private int[] _assignment;
+
+    public SkeletonMatcher() {
+
+        ensureCapacity(8);
+    }
+
+    private void ensureCapacity(int size) {
+
+        if (size <= _capacity)
+            return;
+
+        _capacity = Math.max(size, _capacity * 2);
+        _cost = new double[_capacity + 1][_capacity + 1];
+        _u = new double[_capacity + 1];
+        _v = new double[_capacity + 1];
+        _p = new int[_capacity + 1];
+        _way = new int[_capacity + 1];
+        _minV = new double[_capacity + 1];
+        _used = new boolean[_capacity + 1];
+        _assignment = new int[_capacity];
+    }
+
+    /**
+     * Match a range of skeletons of a batch to the target skeletons
+     * @param batch Transformed skeletons
+     * @param first Index of the first skeleton to match in the batch
+     * @param count Number of skeletons to match (i.e: all skeletons of a single camera)
+     * @param targets Target skeletons
+     * @param targetsCount Number of target skeletons
+     * @return For each skeleton in the range (by its position in the range), the index of the matched target,
+     *         or -1 if not matched. The array is reused by the next call.
+     */
+    public int[] match(SkeletonBatch batch, int first, int count, Skeleton[] targets, int targetsCount) {
+
+        int size = Math.max(count, targetsCount);
+        ensureCapacity(size);
+
+        // Pad to a square matrix, padded rows / columns cost the same for every assignment
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+
+                double cost = 0;
+
+                if ((row < count) && (col < targetsCount))
+                    cost = distance(batch, first + row, targets[col]);
+
+                _cost[row + 1][col + 1] = cost;
+            }
+        }
+
+        return assign(count, targetsCount);
+    }
+
+    /**
+     * Match the skeletons of one camera to the skeletons of another camera, through the transformation
+     * between the cameras
+     * @param skeletons Skeletons in the coordinates system of the first camera
+     * @param transformation Transformation from the first camera to the second camera
+     * @param targets Skeletons in the coordinates system of the second camera
+     * @return For each skeleton, the index of the matched target, or -1 if not matched.
+     *         The array is reused by the next call.
+     */
+    public int[] match(List<Skeleton> skeletons, Mat4 transformation, List<Skeleton> targets) {
+
+        int count = skeletons.size();
+        int targetsCount = targets.size();
+        int size = Math.max(count, targetsCount);
+        ensureCapacity(size);
+
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+
+                double cost = 0;
+
+                if ((row < count) && (col < targetsCount))
+                    cost = distance(skeletons.get(row), transformation, targets.get(col));
+
+                _cost[row + 1][col + 1] = cost;
+            }
+        }
+
+        return assign(count, targetsCount);
+    }
+
+    /**
+     * Match the skeletons of one camera to the skeletons of another camera by their bone lengths,
+     * when there's no transformation between the cameras yet.
+     * Matches which are ambiguous (i.e: persons of similar build) are dropped.
+     * @return For each skeleton, the index of the matched target, or -1 if not matched.
+     *         The array is reused by the next call.
+     */
+    public int[] matchByBoneLengths(List<Skeleton> skeletons, List<Skeleton> targets) {
+
+        int count = skeletons.size();
+        int targetsCount = targets.size();
+        int size = Math.max(count, targetsCount);
+        ensureCapacity(size);
+
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+
+                double cost = 0;
+
+                if ((row < count) && (col < targetsCount))
+                    cost = boneLengthsDistance(skeletons.get(row), targets.get(col));
+
+                _cost[row + 1][col + 1] = cost;
+            }
+        }
+
+        assign(count, targetsCount);
+
+        for (int row = 0; row < count; row++) {
+
+            int col = _assignment[row];
+            if ((col >= 0) && (isAmbiguous(row, col, count, targetsCount)))
+                _assignment[row] = -1;
+        }
+
+        return _assignment;
+    }
+
+    /**
+     * @return True if another candidate of the row or of the column is nearly as good as the matched pair
+     */
+    private boolean isAmbiguous(int row, int col, int count, int targetsCount) {
+
+        double limit = _cost[row + 1][col + 1] * AMBIGUITY_RATIO;
+
+        for (int other = 0; other < targetsCount; other++)
+            if ((other != col) && (_cost[row + 1][other + 1] <= limit))
+                return true;
+
+        for (int other = 0; other < count; other++)
+            if ((other != row) && (_cost[other + 1][col + 1] <= limit))
+                return true;
+
+        return false;
+    }
+
+    /**
+     * Solve the filled cost matrix
+     * @return The assignment of each row (-1 if not matched), only feasible pairs are matched
+     */
+    private int[] assign(int count, int targetsCount) {
+
+        int size = Math.max(count, targetsCount);
+        solve(size);
+
+        for (int row = 0; row < count; row++)
+            _assignment[row] = -1;
+
+        for (int col = 1; col <= size; col++) {
+
+            int row = _p[col] - 1;
+
+            if ((row < count) && (col - 1 < targetsCount) && (_cost[row + 1][col] < INFEASIBLE))
+                _assignment[row] = col - 1;
+        }
+
+        return _assignment;
+    }
+
+    /**
+     * @return Root mean square distance between the joints tracked in both skeletons,
+     *         or INFEASIBLE if the skeletons are beyond the gate or have too few joints in common
+     */
+    private static double distance(SkeletonBatch batch, int index, Skeleton target) {
+
+        double squaredSum = 0;
+        int common = 0;
+
+        for (int i = 0; i < Skeleton.JOINTS_COUNT; i++) {
+
+            if (!batch.isTracked(index, i) ||
+                (target.joints[i].trackingState != Joint.JointTrackingState.Tracked))
+                continue;
+
+            double dx = batch.getX(index, i) - target.joints[i].x;
+            double dy = batch.getY(index, i) - target.joints[i].y;
+            double dz = batch.getZ(index, i) - target.joints[i].z;
+            squaredSum += dx * dx + dy * dy + dz * dz;
+            common++;
+        }
+
+        if (common < MIN_COMMON_JOINTS)
+            return INFEASIBLE;
+
+        double rms = Math.sqrt(squaredSum / common);
+        return (rms <= MAX_MATCH_DISTANCE) ? rms : INFEASIBLE;
+    }
+
+    /**
+     * @return Root mean square distance between the joints tracked in both skeletons, the first skeleton
+     *         transformed to the coordinates system of the target, or INFEASIBLE (see above)
+     */
+    private static double distance(Skeleton skeleton, Mat4 transformation, Skeleton target) {
+
+        double squaredSum = 0;
+        int common = 0;
+
+        for (int i = 0; i < Skeleton.JOINTS_COUNT; i++) {
+
+            Joint joint = skeleton.joints[i];
+            Joint targetJoint = target.joints[i];
+
+            if ((joint.trackingState != Joint.JointTrackingState.Tracked) ||
+                (targetJoint.trackingState != Joint.JointTrackingState.Tracked))
+                continue;
+
+            double x = transformation.m00 * joint.x + transformation.m01 * joint.y + transformation.m02 * joint.z + transformation.m03;
+            double y = transformation.m10 * joint.x + transformation.m11 * joint.y + transformation.m12 * joint.z + transformation.m13;
+            double z = transformation.m20 * joint.x + transformation.m21 * joint.y + transformation.m22 * joint.z + transformation.m23;
+
+            double dx = x - targetJoint.x;
+            double dy = y - targetJoint.y;
+            double dz = z - targetJoint.z;
+            squaredSum += dx * dx + dy * dy + dz * dz;
+            common++;
+        }
+
+        if (common < MIN_COMMON_JOINTS)
+            return INFEASIBLE;
+
+        double rms = Math.sqrt(squaredSum / common);
+        return (rms <= MAX_MATCH_DISTANCE) ? rms : INFEASIBLE;
+    }
+
+    /**
+     * @return Root mean square difference between the lengths of the bones tracked in both skeletons,
+     *         or INFEASIBLE if the skeletons differ too much or have too few bones in common
+     */
+    private static double boneLengthsDistance(Skeleton skeleton, Skeleton target) {
+
+        double squaredSum = 0;
+        int common = 0;
+
+        for (int[] bone: BONES) {
+
+            if (!isBoneTracked(skeleton, bone) || !isBoneTracked(target, bone))
+                continue;
+
+            double difference = skeleton.joints[bone[0]].distance(skeleton.joints[bone[1]]) -
+                                target.joints[bone[0]].distance(target.joints[bone[1]]);
+            squaredSum += difference * difference;
+            common++;
+        }
+
+        if (common < MIN_COMMON_BONES)
+            return INFEASIBLE;
+
+        double rms = Math.sqrt(squaredSum / common);
+        return (rms <= MAX_BONE_LENGTH_DIFFERENCE) ? rms : INFEASIBLE;
+    }
+
+    private static boolean isBoneTracked(Skeleton skeleton, int[] bone) {
+
+        return (skeleton.joints[bone[0]].trackingState == Joint.JointTrackingState.Tracked) &&
+               (skeleton.joints[bone[1]].trackingState == Joint.JointTrackingState.Tracked);
+    }
+
+    /**
+     * Minimal cost assignment of a size x size cost matrix, O(size^3) with potentials.
+     * On return _p[column] holds the row assigned to each column (1-based).
+     */
+    private void solve(int size) {
+
+        for (int i = 0; i <= size; i++) {
+            _u[i] = 0;
+            _v[i] = 0;
+            _p[i] = 0;
+            _way[i] = 0;
+        }
+
+        for (int row = 1; row <= size; row++) {
+
+            _p[0] = row;
+            int col0 = 0;
+
+            for (int j = 0; j <= size; j++) {
+                _minV[j] = Double.MAX_VALUE;
+                _used[j] = false;
+            }
+
+            // Find an augmenting path from the new row to a free column
+            do {
+                _used[col0] = true;
+                int row0 = _p[col0];
+                double delta = Double.MAX_VALUE;
+                int col1 = 0;
+
+                for (int j = 1; j <= size; j++) {
+
+                    if (_used[j])
+                        continue;
+
+                    double reduced = _cost[row0][j] - _u[row0] - _v[j];
+                    if (reduced < _minV[j]) {
+                        _minV[j] = reduced;
+                        _way[j] = col0;
+                    }
+
+                    if (_minV[j] < delta) {
+                        delta = _minV[j];
+                        col1 = j;
+                    }
+                }
+
+                for (int j = 0; j <= size; j++) {
+
+                    if (_used[j]) {
+                        _u[_p[j]] += delta;
+                        _v[j] -= delta;
+                    }
+                    else {
+                        _minV[j] -= delta;
+                    }
+                }
+
+                col0 = col1;
+            } while (_p[col0] != 0);
+
+            // Flip the assignments along the path
+            do {
+                int col1 = _way[col0];
+                _p[col0] = _p[col1];
+                col0 = col1;
+            } while (col0 != 0);
+        }
+    }
+}
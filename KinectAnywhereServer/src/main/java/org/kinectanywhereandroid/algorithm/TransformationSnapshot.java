@@ -0,0 +1,111 @@
+package org.kinectanywhereandroid.algorithm;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import net.jcip.annotations.Immutable;
+
+import org.kinectanywhereandroid.math.Mat4;
+import org.kinectanywhereandroid.util.Pair;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A consistent, versioned set of transformations between cameras coordinates systems.
+ * Snapshots are never modified once created: the calibrator builds the next version from the current one
+ * and publishes it atomically, so readers on any thread (UI, egress, analytics..) may fetch a snapshot and
+ * use all of its transformations without locks.
+ * The Mat4 and float[] instances held by a snapshot are shared and must not be modified by readers.
+ */
+@Immutable
+public final class TransformationSnapshot {
+
+    /** Snapshot without any transformation */
+    public static final TransformationSnapshot EMPTY =
+            new TransformationSnapshot(0, Collections.<Pair<String, String>, Mat4>emptyMap(),
+                                       Collections.<Pair<String, String>, float[]>emptyMap());
+
+    private final long _version;
+
+    /**
+     * Key: <From, To>
+     * Value: 4x4 homogeneous transformation matrix
+     */
+    private final Map<Pair<String, String>, Mat4> _transformations;
+
+    /** Single precision, row major copies of _transformations for batch transformation of frames */
+    private final Map<Pair<String, String>, float[]> _floatTransformations;
+
+    private TransformationSnapshot(long version,
+                                   Map<Pair<String, String>, Mat4> transformations,
+                                   Map<Pair<String, String>, float[]> floatTransformations) {
+
+        _version = version;
+        _transformations = transformations;
+        _floatTransformations = floatTransformations;
+    }
+
+    /**
+     * Creates the next version of the snapshot
+     * @param updates New transformations, replacing existing ones of the same pairs (copied)
+     * @return A new snapshot with the updates applied, or this snapshot if there are no updates
+     */
+    @NonNull
+    public TransformationSnapshot with(Map<Pair<String, String>, Mat4> updates) {
+
+        if (updates.isEmpty())
+            return this;
+
+        Map<Pair<String, String>, Mat4> transformations = new HashMap<>(_transformations);
+        Map<Pair<String, String>, float[]> floatTransformations = new HashMap<>(_floatTransformations);
+
+        for (Map.Entry<Pair<String, String>, Mat4> update: updates.entrySet()) {
+
+            Mat4 transformation = new Mat4(update.getValue());
+            transformations.put(update.getKey(), transformation);
+            floatTransformations.put(update.getKey(), transformation.toFloatArray(new float[16]));
+        }
+
+        return new TransformationSnapshot(_version + 1,
+                                          Collections.unmodifiableMap(transformations),
+                                          Collections.unmodifiableMap(floatTransformations));
+    }
+
+    /**
+     * @return Version of the snapshot, increases with each published snapshot
+     */
+    public long getVersion() {
+
+        return _version;
+    }
+
+    /**
+     * @return Transformation from coordinates of camera 1 to camera 2, or null if the pair wasn't calibrated yet
+     */
+    @Nullable
+    public Mat4 getTransformation(String fromCamera, String toCamera) {
+
+        return _transformations.get(new Pair<>(fromCamera, toCamera));
+    }
+
+    /**
+     * @return Single precision row major copy of the transformation from camera 1 to camera 2,
+     *         or null if the pair wasn't calibrated yet
+     */
+    @Nullable
+    public float[] getFloatTransformation(String fromCamera, String toCamera) {
+
+        return _floatTransformations.get(new Pair<>(fromCamera, toCamera));
+    }
+
+    /**
+     * @return All transformations of the snapshot (unmodifiable)
+     */
+    @NonNull
+    public Map<Pair<String, String>, Mat4> getTransformations() {
+
+        return _transformations;
+    }
+}
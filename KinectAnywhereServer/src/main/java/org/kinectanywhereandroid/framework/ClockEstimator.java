@@ -0,0 +1,171 @@
+package org.kinectanywhereandroid.framework;
+
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * Estimates the clock of a remote Kinect client relative to the server clock, from the arrival times of its samples.
+ * Each sample gives an upper bound on the offset between the clocks: arrival time - sample time = offset + delay,
+ * where the network & processing delay is always positive. The lowest bound over a block of samples is the
+ * sample that was delayed the least, so it's the tightest estimate of the offset.
+ * The lowest bounds of recent blocks are fit with a line, whose slope is the drift between the clocks.
+ *
+ * @see <a href="https://en.wikipedia.org/wiki/Network_Time_Protocol#Clock_synchronization_algorithm">Clock filtering</a>
+ */
+@ThreadSafe
+public class ClockEstimator {
+
+    /** Samples per block, about a second of samples at 30 fps */
+    private final static int BLOCK_SIZE = 30;
+
+    /** Number of recent blocks the drift is fit over */
+    private final static int BLOCKS = 16;
+
+    /** A sample further than this (milliseconds) from the estimate means the remote clock was reset */
+    private final static long RESET_THRESHOLD = 2000;
+
+    // Lowest bound of each recent block: remote time of the sample, and its bound
+    private final long[] _blockTimes;
+    private final double[] _blockOffsets;
+    private int _blocksCount;
+    private int _nextBlock;
+
+    // Current block
+    private long _currentTime;
+    private double _currentOffset;
+    private int _currentCount;
+
+    // Fit: offset(t) = _offset + _drift * (t - _referenceTime)
+    private boolean _isEstimated;
+    private long _referenceTime;
+    private double _offset;
+    private double _drift;
+
+    public ClockEstimator() {
+
+        _blockTimes = new long[BLOCKS];
+        _blockOffsets = new double[BLOCKS];
+        reset();
+    }
+
+    public synchronized void reset() {
+
+        _blocksCount = 0;
+        _nextBlock = 0;
+        _currentCount = 0;
+        _currentOffset = Double.MAX_VALUE;
+        _isEstimated = false;
+        _drift = 0;
+    }
+
+    /**
+     * @param remoteTime Timestamp of the sample, in the remote clock (milliseconds)
+     * @param arrivalTime Time the sample arrived at, in the server clock (milliseconds)
+     */
+    public synchronized void addSample(long remoteTime, long arrivalTime) {
+
+        double offset = arrivalTime - remoteTime;
+
+        if (_isEstimated && (Math.abs(offset - estimateOffset(remoteTime)) > RESET_THRESHOLD))
+            reset();
+
+        if (offset < _currentOffset) {
+            _currentOffset = offset;
+            _currentTime = remoteTime;
+        }
+
+        // Until the first block completes, the lowest bound so far is the best estimate there is
+        if (_blocksCount == 0) {
+            _isEstimated = true;
+            _referenceTime = _currentTime;
+            _offset = _currentOffset;
+        }
+
+        if (++_currentCount < BLOCK_SIZE)
+            return;
+
+        _blockTimes[_nextBlock] = _currentTime;
+        _blockOffsets[_nextBlock] = _currentOffset;
+        _nextBlock = (_nextBlock + 1) % BLOCKS;
+        _blocksCount = Math.min(_blocksCount + 1, BLOCKS);
+        _currentCount = 0;
+        _currentOffset = Double.MAX_VALUE;
+
+        fit();
+    }
+
+    /**
+     * Least squares line through the lowest bounds of the recent blocks
+     */
+    private void fit() {
+
+        // Times relative to the latest block, to keep the sums small
+        _referenceTime = _blockTimes[(_nextBlock + BLOCKS - 1) % BLOCKS];
+
+        double sumT = 0, sumO = 0, sumTT = 0, sumTO = 0;
+
+        for (int i = 0; i < _blocksCount; i++) {
+
+            double t = _blockTimes[i] - _referenceTime;
+            double o = _blockOffsets[i];
+            sumT += t;
+            sumO += o;
+            sumTT += t * t;
+            sumTO += t * o;
+        }
+
+        double n = _blocksCount;
+        double denominator = n * sumTT - sumT * sumT;
+
+        if ((_blocksCount < 2) || (denominator <= 0)) {
+            _drift = 0;
+            _offset = sumO / n;
+        }
+        else {
+            _drift = (n * sumTO - sumT * sumO) / denominator;
+            _offset = (sumO - _drift * sumT) / n;
+        }
+
+        _isEstimated = true;
+    }
+
+    private double estimateOffset(long remoteTime) {
+
+        return _offset + _drift * (remoteTime - _referenceTime);
+    }
+
+    /**
+     * @return True once any sample arrived
+     */
+    public synchronized boolean isEstimated() {
+
+        return _isEstimated;
+    }
+
+    /**
+     * @param remoteTime Time in the remote clock (milliseconds)
+     * @return The same time in the server clock, or remoteTime itself if there's no estimate yet
+     */
+    public synchronized long toLocalTime(long remoteTime) {
+
+        if (!_isEstimated)
+            return remoteTime;
+
+        return remoteTime + Math.round(estimateOffset(remoteTime));
+    }
+
+    /**
+     * @return Current offset of the server clock from the remote clock (milliseconds)
+     */
+    public synchronized double getOffset() {
+
+        return _offset;
+    }
+
+    /**
+     * @return Drift of the server clock relative to the remote clock (milliseconds per millisecond)
+     */
+    public synchronized double getDrift() {
+
+        return _drift;
+    }
+}
@@ -0,0 +1,309 @@
+package org.kinectanywhereandroid.framework;
+
+import android.util.Log;
+
+import net.jcip.annotations.ThreadSafe;
+
+import org.kinectanywhereandroid.algorithm.SkeletonBatch;
+import org.kinectanywhereandroid.model.Joint;
+import org.kinectanywhereandroid.model.Skeleton;
+
+import java.util.Arrays;
+
+/**
+ * Bounded history of the recent frames, shared by all modules which need more than the current frame.
+ * Frames are kept in a ring, the oldest frame is overwritten once full. Skeletons are stored as primitive columns
+ * (camera, tracking id, sensor time, joint positions & tracking states), all allocated once, so recording a frame
+ * allocates nothing and reading it copies nothing.
+ * Frames are indexed from 0 (the oldest frame kept) to size() - 1 (the latest frame), in order of their timestamps,
+ * and are found by time with a binary search.
+ *
+ * Frames are recorded on the frame thread. Indices are only valid until the next frame is recorded, so readers on
+ * other threads must hold the lock of the history (synchronized (history) { ... }) while they read.
+ */
+@ThreadSafe
+public class FrameHistory implements IKinectFrameEventListener {
+
+    private final static String TAG = "FRAME_HISTORY";
+
+    /** Number of frames kept, about 2 seconds of frames at 30 fps */
+    public final static int CAPACITY = 64;
+
+    /** Maximal number of skeletons (over all cameras) kept per frame, further skeletons are dropped */
+    public final static int MAX_SKELETONS = 16;
+
+    private final static int POSITIONS_STRIDE = Skeleton.JOINTS_COUNT * 3;
+
+    private final static Joint.JointTrackingState[] TRACKING_STATES = Joint.JointTrackingState.values();
+    private final static Joint.JointType[] JOINT_TYPES = Joint.JointType.values();
+
+    // Frame columns, one entry per frame slot
+    private final long[] _frameTimes;
+    private final int[] _frameSkeletons;   // Number of skeletons of the frame
+
+    // Skeleton columns, MAX_SKELETONS entries per frame slot
+    private final int[] _cameras;          // Index in _cameraNames
+    private final int[] _trackingIds;
+    private final long[] _sensorTimes;
+    private final float[] _positions;      // (x, y, z) of each joint
+    private final byte[] _states;          // Tracking state of each joint
+
+    private String[] _cameraNames;
+    private int _camerasCount;
+
+    private int _oldest;                   // Slot of the oldest frame
+    private int _count;
+
+    public FrameHistory() {
+
+        _frameTimes = new long[CAPACITY];
+        _frameSkeletons = new int[CAPACITY];
+        _cameras = new int[CAPACITY * MAX_SKELETONS];
+        _trackingIds = new int[CAPACITY * MAX_SKELETONS];
+        _sensorTimes = new long[CAPACITY * MAX_SKELETONS];
+        _positions = new float[CAPACITY * MAX_SKELETONS * POSITIONS_STRIDE];
+        _states = new byte[CAPACITY * MAX_SKELETONS * Skeleton.JOINTS_COUNT];
+        _cameraNames = new String[8];
+    }
+
+    @Override
+    public synchronized void handle(SingleFrameData frame) {
+
+        int slot = (_oldest + _count) % CAPACITY;
+
+        if (_count < CAPACITY)
+            _count++;
+        else
+            _oldest = (_oldest + 1) % CAPACITY;
+
+        // Timestamps must not decrease for the binary search, even if the wall clock was set back
+        long time = frame.getTimestamp();
+        if (_count > 1)
+            time = Math.max(time, _frameTimes[(slot + CAPACITY - 1) % CAPACITY]);
+
+        _frameTimes[slot] = time;
+
+        // Same columns as the frame itself, copied in bulk
+        SkeletonBatch columns = frame.getColumns();
+        int skeletonsCount = columns.size();
+
+        if (skeletonsCount > MAX_SKELETONS) {
+            Log.i(TAG, "Frame has more than " + MAX_SKELETONS + " skeletons, dropping the rest");
+            skeletonsCount = MAX_SKELETONS;
+        }
+
+        for (int i = 0; i < skeletonsCount; i++) {
+
+            int entry = slot * MAX_SKELETONS + i;
+            _cameras[entry] = cameraIndex(columns.getCamera(i));
+            _trackingIds[entry] = columns.getTrackingId(i);
+            _sensorTimes[entry] = columns.getTimestamp(i);
+        }
+
+        System.arraycopy(columns.getPositions(), 0, _positions, slot * MAX_SKELETONS * POSITIONS_STRIDE,
+                         skeletonsCount * POSITIONS_STRIDE);
+        System.arraycopy(columns.getTrackingStates(), 0, _states, slot * MAX_SKELETONS * Skeleton.JOINTS_COUNT,
+                         skeletonsCount * Skeleton.JOINTS_COUNT);
+
+        _frameSkeletons[slot] = skeletonsCount;
+    }
+
+    private int cameraIndex(String camera) {
+
+        for (int i = 0; i < _camerasCount; i++) {
+            if (_cameraNames[i].equals(camera))
+                return i;
+        }
+
+        if (_camerasCount == _cameraNames.length)
+            _cameraNames = Arrays.copyOf(_cameraNames, _camerasCount * 2);
+
+        _cameraNames[_camerasCount] = camera;
+        return _camerasCount++;
+    }
+
+    /**
+     * @return Number of frames kept
+     */
+    public synchronized int size() {
+
+        return _count;
+    }
+
+    /**
+     * @return Index of the latest frame at or before the time, -1 if all frames are later
+     */
+    public synchronized int floor(long time) {
+
+        return upperBound(time) - 1;
+    }
+
+    /**
+     * @return Index of the earliest frame at or after the time, size() if all frames are earlier
+     */
+    public synchronized int ceiling(long time) {
+
+        int low = 0;
+        int high = _count;
+
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (getTime(middle) < time)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+
+        return low;
+    }
+
+    /**
+     * @return Index of the earliest frame after the time, size() if no frame is later
+     */
+    private int upperBound(long time) {
+
+        int low = 0;
+        int high = _count;
+
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (getTime(middle) <= time)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+
+        return low;
+    }
+
+    /**
+     * Visits frames of a time range
+     */
+    public interface FrameVisitor {
+
+        /**
+         * @param history The history, locked during the visit
+         * @param frame Index of the visited frame
+         * @return False to stop the iteration
+         */
+        boolean visit(FrameHistory history, int frame);
+    }
+
+    /**
+     * Visit all frames of a time range, oldest first, with the history locked
+     * @param from Start time, inclusive (milliseconds, server time)
+     * @param to End time, inclusive (milliseconds, server time)
+     */
+    public synchronized void forEach(long from, long to, FrameVisitor visitor) {
+
+        int end = upperBound(to);
+
+        for (int frame = ceiling(from); frame < end; frame++) {
+            if (!visitor.visit(this, frame))
+                return;
+        }
+    }
+
+    /**
+     * @return Index of the latest frame, not earlier than a given time, in which the camera tracked skeletons.
+     *         -1 if there is no such frame
+     */
+    public synchronized int findLatest(String camera, long since) {
+
+        for (int frame = _count - 1; (frame >= 0) && (getTime(frame) >= since); frame--) {
+            for (int i = 0; i < getSkeletonsCount(frame); i++) {
+                if (getCamera(frame, i).equals(camera))
+                    return frame;
+            }
+        }
+
+        return -1;
+    }
+
+    private int slot(int frame) {
+
+        return (_oldest + frame) % CAPACITY;
+    }
+
+    private int entry(int frame, int skeleton) {
+
+        return slot(frame) * MAX_SKELETONS + skeleton;
+    }
+
+    /**
+     * @return Time the frame was assembled at (milliseconds, server time)
+     */
+    public long getTime(int frame) {
+
+        return _frameTimes[slot(frame)];
+    }
+
+    /**
+     * @return Number of skeletons in the frame, over all cameras
+     */
+    public int getSkeletonsCount(int frame) {
+
+        return _frameSkeletons[slot(frame)];
+    }
+
+    public String getCamera(int frame, int skeleton) {
+
+        return _cameraNames[_cameras[entry(frame, skeleton)]];
+    }
+
+    public int getTrackingId(int frame, int skeleton) {
+
+        return _trackingIds[entry(frame, skeleton)];
+    }
+
+    /**
+     * @return Time the skeleton was sampled at by its camera (milliseconds)
+     */
+    public long getSensorTime(int frame, int skeleton) {
+
+        return _sensorTimes[entry(frame, skeleton)];
+    }
+
+    public float getX(int frame, int skeleton, int jointId) {
+
+        return _positions[entry(frame, skeleton) * POSITIONS_STRIDE + jointId * 3];
+    }
+
+    public float getY(int frame, int skeleton, int jointId) {
+
+        return _positions[entry(frame, skeleton) * POSITIONS_STRIDE + jointId * 3 + 1];
+    }
+
+    public float getZ(int frame, int skeleton, int jointId) {
+
+        return _positions[entry(frame, skeleton) * POSITIONS_STRIDE + jointId * 3 + 2];
+    }
+
+    public Joint.JointTrackingState getTrackingState(int frame, int skeleton, int jointId) {
+
+        return TRACKING_STATES[_states[entry(frame, skeleton) * Skeleton.JOINTS_COUNT + jointId]];
+    }
+
+    /**
+     * @return A copy of a skeleton of the frame, in the coordinates system of its camera
+     */
+    public Skeleton getSkeleton(int frame, int skeleton) {
+
+        int entry = entry(frame, skeleton);
+        int offset = entry * POSITIONS_STRIDE;
+        int stateOffset = entry * Skeleton.JOINTS_COUNT;
+
+        Skeleton copy = new Skeleton();
+        copy.trackingId = _trackingIds[entry];
+        copy.setTimestamp(_sensorTimes[entry]);
+
+        for (int i = 0; i < Skeleton.JOINTS_COUNT; i++) {
+            Joint joint = new Joint(_positions[offset++], _positions[offset++], _positions[offset++]);
+            joint.type = JOINT_TYPES[i];
+            joint.trackingState = TRACKING_STATES[_states[stateOffset + i]];
+            copy.joints[i] = joint;
+        }
+
+        return copy;
+    }
+}
@@ -0,0 +1,17 @@
+package org.kinectanywhereandroid.framework;
+
+import org.kinectanywhereandroid.model.Skeleton;
+
+import java.util.List;
+
+/**
+ * Interface for responding to fused skeletons emitted at a fixed rate (see OutputScheduler)
+ */
+public interface IFusedSkeletonsListener {
+
+    /**
+     * @param time Time the skeletons are estimated at (milliseconds, server time)
+     * @param skeletons Skeleton of each person in master camera coordinates, the tracking id is the person id
+     */
+    void handle(long time, List<Skeleton> skeletons);
+}
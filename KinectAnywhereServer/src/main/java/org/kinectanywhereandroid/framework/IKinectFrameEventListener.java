@@ -6,5 +6,10 @@ package org.kinectanywhereandroid.framework;
  */
 public interface IKinectFrameEventListener {
 
+    /**
+     * The frame, its columns and the skeleton views it hands out are pooled: none of them may escape the call.
+     * A listener that needs the frame later (i.e: on another thread) must retain it and release it once done,
+     * anything else it keeps must be copied (i.e: new Skeleton(frame.getSkeleton(i)))
+     */
     void handle(SingleFrameData frame);
 }
@@ -0,0 +1,99 @@
+package org.kinectanywhereandroid.framework;
+
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * Sizes the playout delay of a single Kinect client adaptively, the way VoIP jitter buffers do:
+ * the delay is the mean transit delay of the samples plus a multiple of their jitter.
+ * The jitter is the smoothed variation between consecutive transit delays (RFC 3550), and the multiple adapts
+ * so that a target fraction of the samples arrives within the delay - a steady link gets a short delay,
+ * a jittery Wi-Fi link a longer one.
+ * Transit delays are measured in server time (see ClockEstimator), so they only hold the variable part of the delay.
+ *
+ * @see <a href="https://tools.ietf.org/html/rfc3550#appendix-A.8">RFC 3550: Estimating the interarrival jitter</a>
+ */
+@ThreadSafe
+public class JitterBuffer {
+
+    /** Fraction of samples that should arrive within the playout delay */
+    private final static double TARGET_COMPLETION = 0.95;
+
+    /** Bounds of the playout delay (milliseconds) */
+    private final static long MIN_DELAY = 0;
+    private final static long MAX_DELAY = 300;
+
+    /** Smoothing of the mean delay & jitter, as in RFC 3550 */
+    private final static double GAIN = 1.0 / 16;
+
+    /** Smoothing of the late samples rate, about the last 100 samples */
+    private final static double LATE_RATE_GAIN = 1.0 / 100;
+
+    /** Bounds & step of the jitter multiple */
+    private final static double MIN_JITTER_FACTOR = 1;
+    private final static double MAX_JITTER_FACTOR = 8;
+    private final static double JITTER_FACTOR_STEP = 0.05;
+
+    private boolean _isInitialized;
+    private double _meanDelay;
+    private double _lastDelay;
+    private double _jitter;
+    private double _jitterFactor;
+    private double _lateRate;
+
+    public JitterBuffer() {
+
+        _jitterFactor = 3;
+    }
+
+    /**
+     * @param delay Transit delay of a new sample: arrival time - sample time, both in server time (milliseconds)
+     */
+    public synchronized void addSample(long delay) {
+
+        if (!_isInitialized) {
+            _meanDelay = delay;
+            _lastDelay = delay;
+            _isInitialized = true;
+            return;
+        }
+
+        // Adapt the jitter multiple towards the target rate of samples within the delay
+        boolean isLate = (delay > getPlayoutDelay());
+        _lateRate += LATE_RATE_GAIN * ((isLate ? 1 : 0) - _lateRate);
+
+        if (_lateRate > 1 - TARGET_COMPLETION)
+            _jitterFactor = Math.min(_jitterFactor + JITTER_FACTOR_STEP, MAX_JITTER_FACTOR);
+        else
+            _jitterFactor = Math.max(_jitterFactor - JITTER_FACTOR_STEP * (1 - TARGET_COMPLETION), MIN_JITTER_FACTOR);
+
+        _jitter += GAIN * (Math.abs(delay - _lastDelay) - _jitter);
+        _meanDelay += GAIN * (delay - _meanDelay);
+        _lastDelay = delay;
+    }
+
+    /**
+     * @return How long to wait for a sample of this client past its sample time (milliseconds)
+     */
+    public synchronized long getPlayoutDelay() {
+
+        long delay = Math.round(_meanDelay + _jitterFactor * _jitter);
+
+        return Math.max(MIN_DELAY, Math.min(delay, MAX_DELAY));
+    }
+
+    /**
+     * @return Smoothed jitter of the transit delay (milliseconds)
+     */
+    public synchronized double getJitter() {
+
+        return _jitter;
+    }
+
+    /**
+     * @return Recent fraction of samples that arrived after the playout delay
+     */
+    public synchronized double getLateRate() {
+
+        return _lateRate;
+    }
+}
@@ -0,0 +1,215 @@
+package org.kinectanywhereandroid.framework;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import org.kinectanywhereandroid.algorithm.SkeletonBatch;
+import org.kinectanywhereandroid.model.Skeleton;
+import org.kinectanywhereandroid.util.DataHolder;
+import org.kinectanywhereandroid.util.DataHolderEntry;
+
+/**
+ * Frame pipeline stage which smooths the joints of all skeletons with an adaptive One-Euro filter:
+ * a low pass filter whose cutoff frequency rises with the joint speed, so slow movements are steady
+ * and fast movements don't lag.
+ * Should be registered before all other listeners: skeletons are smoothed in place in the columns of the frame,
+ * so listeners that follow receive stable joints without filtering them again.
+ * Filter state is kept per skeleton (camera and tracking id) in flat arrays, allocated once.
+ *
+ * @see <a href="http://cristal.univ-lille.fr/~casiez/1euro/">One Euro Filter</a>
+ */
+@NotThreadSafe
+public class JointSmoother implements IKinectFrameEventListener {
+
+    /** Maximal number of skeletons (over all cameras) tracked at the same time */
+    private final static int MAX_SLOTS = 64;
+
+    /** A skeleton not seen for this long (milliseconds) releases its filter state */
+    private final static long SLOT_TIMEOUT = 1000;
+
+    /** Cutoff frequency of a still joint (Hz), lower values smooth more */
+    private final static double MIN_CUTOFF = 1.0;
+
+    /** Increase of the cutoff frequency per joint speed (Hz per meter / second), higher values lag less */
+    private final static double BETA = 0.7;
+
+    /** Cutoff frequency of the speed estimation (Hz) */
+    private final static double DERIVATIVE_CUTOFF = 1.0;
+
+    private final static int SLOT_STRIDE = Skeleton.JOINTS_COUNT * 3;
+
+    // Slot keys
+    private String[] _slotCamera;
+    private int[] _slotTrackingId;
+    private long[] _slotTimestamp;      // Timestamp of the last sample filtered in the slot
+    private long[] _slotLastSeen;       // Frame time the slot was last used at
+
+    // Filter state, SLOT_STRIDE values per slot
+    private float[] _position;          // Filtered position
+    private float[] _speed;             // Filtered speed
+    private boolean[] _isJointFiltered; // Joint has state to continue from, one per joint
+
+    public JointSmoother() {
+
+        _slotCamera = new String[MAX_SLOTS];
+        _slotTrackingId = new int[MAX_SLOTS];
+        _slotTimestamp = new long[MAX_SLOTS];
+        _slotLastSeen = new long[MAX_SLOTS];
+        _position = new float[MAX_SLOTS * SLOT_STRIDE];
+        _speed = new float[MAX_SLOTS * SLOT_STRIDE];
+        _isJointFiltered = new boolean[MAX_SLOTS * Skeleton.JOINTS_COUNT];
+    }
+
+    @Override
+    public void handle(SingleFrameData frame) {
+
+        if (!Boolean.TRUE.equals(DataHolder.INSTANCE.retrieve(DataHolderEntry.JOINT_SMOOTHING)))
+            return;
+
+        long now = frame.getTimestamp();
+        SkeletonBatch columns = frame.getColumns();
+
+        for (int i = 0; i < frame.skeletonCount(); i++)
+            smooth(frame.getCamera(frame.getCameraIndex(i)), columns, i, now);
+    }
+
+    private void smooth(String camera, SkeletonBatch columns, int index, long now) {
+
+        int trackingId = columns.getTrackingId(index);
+        int slot = findSlot(camera, trackingId, now);
+        long timestamp = columns.getTimestamp(index);
+
+        if (slot < 0) {
+            slot = allocateSlot(camera, trackingId, now);
+        }
+        else if (timestamp <= _slotTimestamp[slot]) {
+            // Not a new sample (i.e: a camera that didn't send anything since the last frame), it was smoothed
+            // already: each frame has its own copy of the sample, so the result is applied again
+            _slotLastSeen[slot] = now;
+            reapply(slot, columns, index);
+            return;
+        }
+
+        boolean hasHistory = (_slotTimestamp[slot] != Long.MIN_VALUE);
+        double deltaTime = hasHistory ? (timestamp - _slotTimestamp[slot]) / 1000.0 : 0;
+        _slotTimestamp[slot] = timestamp;
+        _slotLastSeen[slot] = now;
+
+        double derivativeAlpha = hasHistory ? alpha(DERIVATIVE_CUTOFF, deltaTime) : 1;
+
+        for (int jointId = 0; jointId < Skeleton.JOINTS_COUNT; jointId++) {
+
+            int jointIndex = slot * Skeleton.JOINTS_COUNT + jointId;
+            int offset = slot * SLOT_STRIDE + jointId * 3;
+
+            // Untracked joints hold no information, start over once the joint is tracked again
+            if (!columns.isTracked(index, jointId)) {
+                _isJointFiltered[jointIndex] = false;
+                continue;
+            }
+
+            float x = columns.getX(index, jointId);
+            float y = columns.getY(index, jointId);
+            float z = columns.getZ(index, jointId);
+
+            if (!hasHistory || !_isJointFiltered[jointIndex]) {
+
+                _position[offset] = x;
+                _position[offset + 1] = y;
+                _position[offset + 2] = z;
+                _speed[offset] = 0;
+                _speed[offset + 1] = 0;
+                _speed[offset + 2] = 0;
+                _isJointFiltered[jointIndex] = true;
+                continue;
+            }
+
+            // Speed of the raw sample relative to the filtered position, low pass filtered
+            float speedX = _speed[offset] + (float)(derivativeAlpha * ((x - _position[offset]) / deltaTime - _speed[offset]));
+            float speedY = _speed[offset + 1] + (float)(derivativeAlpha * ((y - _position[offset + 1]) / deltaTime - _speed[offset + 1]));
+            float speedZ = _speed[offset + 2] + (float)(derivativeAlpha * ((z - _position[offset + 2]) / deltaTime - _speed[offset + 2]));
+
+            _speed[offset] = speedX;
+            _speed[offset + 1] = speedY;
+            _speed[offset + 2] = speedZ;
+
+            // The cutoff adapts to the joint speed (same cutoff for all axes of a joint)
+            double speed = Math.sqrt(speedX * speedX + speedY * speedY + speedZ * speedZ);
+            float positionAlpha = (float)alpha(MIN_CUTOFF + BETA * speed, deltaTime);
+
+            _position[offset] += positionAlpha * (x - _position[offset]);
+            _position[offset + 1] += positionAlpha * (y - _position[offset + 1]);
+            _position[offset + 2] += positionAlpha * (z - _position[offset + 2]);
+
+            columns.setPosition(index, jointId, _position[offset], _position[offset + 1], _position[offset + 2]);
+        }
+    }
+
+    /**
+     * Replace the tracked joints of a skeleton with their filtered positions, without advancing the filter
+     */
+    private void reapply(int slot, SkeletonBatch columns, int index) {
+
+        for (int jointId = 0; jointId < Skeleton.JOINTS_COUNT; jointId++) {
+
+            int offset = slot * SLOT_STRIDE + jointId * 3;
+
+            if (columns.isTracked(index, jointId) && _isJointFiltered[slot * Skeleton.JOINTS_COUNT + jointId])
+                columns.setPosition(index, jointId, _position[offset], _position[offset + 1], _position[offset + 2]);
+        }
+    }
+
+    /**
+     * @return Smoothing factor of an exponential low pass filter with the given cutoff frequency
+     */
+    private static double alpha(double cutoff, double deltaTime) {
+
+        double tau = 1.0 / (2 * Math.PI * cutoff);
+        return 1.0 / (1.0 + tau / deltaTime);
+    }
+
+    /**
+     * @return Slot of the skeleton, or -1 if the skeleton has no slot
+     */
+    private int findSlot(String camera, int trackingId, long now) {
+
+        for (int slot = 0; slot < MAX_SLOTS; slot++) {
+
+            if ((_slotCamera[slot] != null) &&
+                (_slotTrackingId[slot] == trackingId) &&
+                (now - _slotLastSeen[slot] <= SLOT_TIMEOUT) &&
+                (_slotCamera[slot].equals(camera)))
+                return slot;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Takes a free or expired slot, or the least recently used slot if all are in use
+     */
+    private int allocateSlot(String camera, int trackingId, long now) {
+
+        int oldest = 0;
+
+        for (int slot = 0; slot < MAX_SLOTS; slot++) {
+
+            if ((_slotCamera[slot] == null) || (now - _slotLastSeen[slot] > SLOT_TIMEOUT)) {
+                oldest = slot;
+                break;
+            }
+
+            if (_slotLastSeen[slot] < _slotLastSeen[oldest])
+                oldest = slot;
+        }
+
+        _slotCamera[oldest] = camera;
+        _slotTrackingId[oldest] = trackingId;
+        _slotTimestamp[oldest] = Long.MIN_VALUE;
+        _slotLastSeen[oldest] = now;
+
+        for (int i = 0; i < Skeleton.JOINTS_COUNT; i++)
+            _isJointFiltered[oldest * Skeleton.JOINTS_COUNT + i] = false;
+
+        return oldest;
+    }
+}
@@ -10,8 +10,6 @@ import java.lang.ref.WeakReference;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
 
 import static java.lang.Math.abs;
 import static org.kinectanywhereandroid.framework.SingleFrameData.SingleFrameDataBuilder;
@@ -20,20 +18,25 @@ import static org.kinectanywhereandroid.framework.SingleFrameData.SingleFrameDat
  * Processes kinect queues of frames and notifies listeners about new incoming data arriving
  * (e.g: calibrate, paint and so on)
  */
-public class KinectQueueWorkerThread extends TimerTask implements IKinectDataConsumer {
+public class KinectQueueWorkerThread implements Runnable, IKinectDataConsumer {
 
     private final static String TAG = "QUEUE_WORKER_THREAD";
 
-    /** Threshold of gap in milliseconds allowed between kinect camera snapshots to be considered the same frame.
-     *  Assumption: The kinect cameras are synchronized in time as closely as possible
+    /** Period of the Kinect sensors in milliseconds: sensors aren't synchronized, so snapshots of the same
+     *  moment may be up to a period apart. The gap allowed between kinect camera snapshots to be considered the
+     *  same frame is a period, plus the playout delay of the cameras (see JitterBuffer).
+     *  Snapshots are compared in server time: each camera clock is aligned by its own ClockEstimator
      */
-    private final static int FRAME_THRESHOLD = 45;
+    private final static int SENSOR_FRAME_PERIOD = 33;
 
-    private Timer _timer;
+    private TimingWheel.ScheduledTask _task;
     private List<WeakReference<IKinectFrameEventListener>> _listeners;
     private boolean _running;
     private long _lastTimerTick;
 
+    /** Reused for all frames, frames are assembled on the worker task only */
+    private final SingleFrameDataBuilder _frameBuilder = new SingleFrameDataBuilder();
+
     public KinectQueueWorkerThread() {
         super();
         _listeners = new LinkedList<>();
@@ -57,10 +60,10 @@ public class KinectQueueWorkerThread extends TimerTask implements IKinectDataCon
 
 
         long maxDiff = 0;
+        long frameThreshold = 0;
         String mostEarlyHost = null;
         long minTimestamp = Long.MAX_VALUE;
         boolean allKinectsReady = true;
-        SingleFrameDataBuilder frameBuilder = new SingleFrameDataBuilder();
 
         Log.i(TAG, "Begin frame");
 
@@ -74,7 +77,7 @@ public class KinectQueueWorkerThread extends TimerTask implements IKinectDataCon
             if (kinect.isTrackingSkeletons()) {
 
                 // All skeletons have the same timestamp for the same camera
-                long kinect1Timestamp = kinect.nextTimeStamp();
+                long kinect1Timestamp = kinect.toLocalTime(kinect.nextTimeStamp());
 
                 if (kinect1Timestamp < minTimestamp) {
                     minTimestamp = kinect1Timestamp;
@@ -88,20 +91,22 @@ public class KinectQueueWorkerThread extends TimerTask implements IKinectDataCon
                     QueuedSamplesKinect comparedKinect = (QueuedSamplesKinect)comparedKinectEntry.getValue();
 
                     if (!kinectHostname.equals(comparedHostname) && comparedKinect.isTrackingSkeletons()) {
-                        long kinect2Timestamp = comparedKinect.nextTimeStamp();
+                        long kinect2Timestamp = comparedKinect.toLocalTime(comparedKinect.nextTimeStamp());
                         long diff = abs(kinect1Timestamp - kinect2Timestamp);
                         if (diff > maxDiff) {
                             maxDiff = diff; // Store maximum difference of time between 2 kinects
+                            frameThreshold = SENSOR_FRAME_PERIOD +
+                                             Math.max(kinect.getPlayoutDelay(), comparedKinect.getPlayoutDelay());
                         }
                     }
                 }
 
                 Log.i(TAG, kinectHostname + " tracked " + kinect.peek().size() + " skels");
-                frameBuilder.addSkeletons(kinectHostname, kinect.poll()); // List a camera with skeletons
+                kinect.poll(_frameBuilder, kinectHostname); // List a camera with skeletons
             }
             else {
                 Log.i(TAG, kinectHostname + " tracked no skels");
-                frameBuilder.addQuietHost(kinectHostname); // List a camera without skeletons
+                _frameBuilder.addQuietHost(kinectHostname); // List a camera without skeletons
 
                 allKinectsReady = false;
             }
@@ -111,28 +116,32 @@ public class KinectQueueWorkerThread extends TimerTask implements IKinectDataCon
             // Second pass - build the actual frame
             // The frame is valid only if the kinect time signatures of latest data are not too far apart,
             // otherwise we discard this frame and throw away the oldest piece of info for one of the kinects
-            if (maxDiff > FRAME_THRESHOLD) {
+            if (maxDiff > frameThreshold) {
                 //kinectDict.get(mostEarlyHost).poll(); // Discard
 
-                Log.i(TAG, "WorkerThread bailed out due to " + mostEarlyHost + " being late at " + maxDiff);
+                Log.i(TAG, "WorkerThread bailed out due to " + mostEarlyHost + " being late at " + maxDiff +
+                           " (allowed " + frameThreshold + ")");
+                _frameBuilder.discard();
                 return null;
             }
         }
         else {
             Log.i(TAG, "No skeletons in any queue for this frame");
+            _frameBuilder.discard();
             return null;
         }
 
         long timeSinceLastUpdate = System.currentTimeMillis() - _lastTimerTick;
         if (!allKinectsReady && timeSinceLastUpdate < 0) {
+            _frameBuilder.discard();
             return null;
         }
 
         Log.i(TAG, "Prompting frame");
 
-        frameBuilder.addTimestamp(System.currentTimeMillis());
+        _frameBuilder.addTimestamp(System.currentTimeMillis());
         _lastTimerTick = System.currentTimeMillis();
-        return frameBuilder.build();
+        return _frameBuilder.build();
     }
 
     @Override
@@ -148,10 +157,15 @@ public class KinectQueueWorkerThread extends TimerTask implements IKinectDataCon
                     return; // Invalid frame was discarded
 
                 // Notify listeners (painter, calibration, etc)
-                for (WeakReference<IKinectFrameEventListener> weakListener: _listeners) {
-                    IKinectFrameEventListener listener = weakListener.get();
-                    if (listener != null)
-                        listener.handle(frame);
+                try {
+                    for (WeakReference<IKinectFrameEventListener> weakListener: _listeners) {
+                        IKinectFrameEventListener listener = weakListener.get();
+                        if (listener != null)
+                            listener.handle(frame);
+                    }
+                }
+                finally {
+                    frame.release(); // Recycled once listeners which kept the frame release it as well
                 }
             }
         } catch (Exception e) {
@@ -167,14 +181,14 @@ public class KinectQueueWorkerThread extends TimerTask implements IKinectDataCon
         // 30 fps
         long delay = 0;
         long period = 32;
-        _timer = new Timer();
-        _timer.scheduleAtFixedRate(this, delay, period);
+        TimingWheel scheduler = DataHolder.INSTANCE.retrieve(DataHolderEntry.SCHEDULER);
+        _task = scheduler.schedule(TAG, this, delay, period);
     }
 
     @Override
     public void deactivate() {
 
         _running = false;
-        _timer.cancel();
+        _task.cancel();
     }
 }
\ No newline at end of file
@@ -3,18 +3,14 @@ package org.kinectanywhereandroid.framework;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
-import org.kinectanywhereandroid.model.Skeleton;
 import org.kinectanywhereandroid.util.DataHolder;
 import org.kinectanywhereandroid.util.DataHolderEntry;
-import org.kinectanywhereandroid.util.Pair;
 
 import java.lang.ref.WeakReference;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
 
 import static java.lang.Math.abs;
 import static org.kinectanywhereandroid.framework.SingleFrameData.SingleFrameDataBuilder;
@@ -23,24 +19,32 @@ import static org.kinectanywhereandroid.framework.SingleFrameData.SingleFrameDat
  * Samples kinect queues of frames and notifies listeners about latest incoming data arriving
  * (e.g: calibrate, paint and so on)
  */
-public class KinectSampleWorkerThread extends TimerTask implements IKinectDataConsumer {
+public class KinectSampleWorkerThread implements Runnable, IKinectDataConsumer {
 
     private final static String TAG = "SAMPLE_WORKER_THREAD";
 
-    /** Threshold of gap in milliseconds allowed between kinect camera snapshots to be considered the same frame.
-     *  If a camera falls more than FRAME_THRESHOLD milliseconds behind, it's sample is dropped for the current frame.
-     *  Assumption: The kinect cameras are synchronized in time as closely as possible
+    /** Period of the Kinect sensors in milliseconds.
+     *  If a camera falls more than a period plus its playout delay (see JitterBuffer) behind the most updated camera,
+     *  it's sample is dropped for the current frame.
+     *  Samples are compared in server time: each camera clock is aligned by its own ClockEstimator
      */
-    private final static int FRAME_THRESHOLD = 300;
+    private final static int SENSOR_FRAME_PERIOD = 33;
 
-    private Timer _timer;
+    private TimingWheel.ScheduledTask _task;
     private List<WeakReference<IKinectFrameEventListener>> _listeners;
     private boolean _running;
 
+    /** Sequence number of the samples of each kinect: as of the last frame, and as just sampled */
+    private Map<String, long[]> _sequences;
+
+    /** Reused for all frames, frames are assembled on the worker task only */
+    private final SingleFrameDataBuilder _frameBuilder = new SingleFrameDataBuilder();
+
     public KinectSampleWorkerThread() {
         super();
         _listeners = new LinkedList<>();
         _running = false;
+        _sequences = new HashMap<>();
     }
 
     @Override
@@ -49,34 +53,16 @@ public class KinectSampleWorkerThread extends TimerTask implements IKinectDataCo
     }
 
     /**
-     * Collect samples from all active kinects since the last sample might change during the processing
-     * of this frame. We don't lock the RemoteKinect here with a synchronization block, so one kinect
-     * may be updated while the previous kinect is still being sampled.
-     * This is ok since we assume these samples should be close enough to each other and the collection
-     * time is fast.
-     * @param kinectDict
-     * @return "Frozen" state of samples from currently active kinect.
+     * @param kinectDict Data of remotely connected kinect clients
+     * @return Time of the latest sample of any kinect, in server time
      */
-    private Map<String, Pair<Long, List<Skeleton>>> collectSamples(Map<String, RemoteKinect> kinectDict) {
-
-        Map<String, Pair<Long, List<Skeleton>>> samples = new HashMap<>();
-
-        for(Map.Entry<String, RemoteKinect> remoteKinectEntry: kinectDict.entrySet()) {
-
-            SingleSampleKinect kinect = (SingleSampleKinect)remoteKinectEntry.getValue();
-            samples.put(remoteKinectEntry.getKey(), kinect.sample());
-        }
-
-        return samples;
-    }
-
-    private long getMostUpdatedTime(Map<String, Pair<Long, List<Skeleton>>> samples) {
+    private long getMostUpdatedTime(Map<String, RemoteKinect> kinectDict) {
 
         long mostUpdatedTime = 0;
 
-        for(Map.Entry<String, Pair<Long, List<Skeleton>>> sampleEntry: samples.entrySet()) {
+        for (RemoteKinect kinect: kinectDict.values()) {
 
-            long sampleTime = sampleEntry.getValue().first;
+            long sampleTime = ((SingleSampleKinect)kinect).getSampleTime();
 
             // Ignore untracked skeletons without sampling time
             if (sampleTime == RemoteKinect.INVALID_TIME)
@@ -89,12 +75,12 @@ public class KinectSampleWorkerThread extends TimerTask implements IKinectDataCo
         return mostUpdatedTime;
     }
 
-    private boolean isTrackingSkeletons(List<Skeleton> skels) {
-
-        return skels != null && !skels.isEmpty();
-    }
-
     /**
+     * Sample the last sample of all active kinects. We don't lock all the RemoteKinects together, so one kinect
+     * may be updated while the previous kinect is still being sampled.
+     * This is ok since we assume these samples should be close enough to each other and the collection
+     * time is fast. Each sample is copied to the frame under the lock of its kinect, so the frame is a "frozen"
+     * state of samples from currently active kinects.
      * @param kinectDict Data of remotely connected kinect clients
      * @return Next assembled kinect frame information from queried connected kinects,
      *         may return null if the next frame is not ready yet.
@@ -102,29 +88,34 @@ public class KinectSampleWorkerThread extends TimerTask implements IKinectDataCo
     @Nullable
     public SingleFrameData sampleKinectQueues(Map<String, RemoteKinect> kinectDict) {
 
-        Map<String, Pair<Long, List<Skeleton>>> samples = collectSamples(kinectDict);
-        long mostUpdatedTime = getMostUpdatedTime(samples);
-        SingleFrameDataBuilder frameBuilder = new SingleFrameDataBuilder();
+        long mostUpdatedTime = getMostUpdatedTime(kinectDict);
 
         // Iterate all skeletons for all connected kinect cameras and drop sensor data that is too old
-        for(Map.Entry<String, Pair<Long, List<Skeleton>>> sampleEntry: samples.entrySet()) {
-
-            String kinectHostname = sampleEntry.getKey();
-            long sampleTime = sampleEntry.getValue().first;
-            List<Skeleton> sampleData = sampleEntry.getValue().second;
+        for(Map.Entry<String, RemoteKinect> remoteKinectEntry: kinectDict.entrySet()) {
 
-            if ((isTrackingSkeletons(sampleData) && (mostUpdatedTime - sampleTime < FRAME_THRESHOLD))) {
+            String kinectHostname = remoteKinectEntry.getKey();
+            SingleSampleKinect kinect = (SingleSampleKinect)remoteKinectEntry.getValue();
+            long frameThreshold = SENSOR_FRAME_PERIOD + kinect.getPlayoutDelay();
 
-                frameBuilder.addSkeletons(kinectHostname, sampleData); // List a camera with skeletons
-            }
-            else {
+            // List a camera with skeletons, or without skeletons if it tracked none lately
+            if (!kinect.sample(_frameBuilder, kinectHostname, mostUpdatedTime - frameThreshold))
                 Log.i(TAG, kinectHostname + " tracked no skels");
-                frameBuilder.addQuietHost(kinectHostname); // List a camera without skeletons
+
+            long[] sequences = _sequences.get(kinectHostname);
+            if (sequences == null) {
+                sequences = new long[] { -1, -1 };
+                _sequences.put(kinectHostname, sequences);
             }
+
+            // The same sample is sampled again until a new one arrives, only a new sample is a change
+            sequences[1] = kinect.getSampledSequence();
+            if (sequences[1] == sequences[0])
+                _frameBuilder.markUnchanged(kinectHostname);
+            sequences[0] = sequences[1];
         }
 
-        frameBuilder.addTimestamp(System.currentTimeMillis());
-        return frameBuilder.build();
+        _frameBuilder.addTimestamp(System.currentTimeMillis());
+        return _frameBuilder.build();
     }
 
     @Override
@@ -140,10 +131,15 @@ public class KinectSampleWorkerThread extends TimerTask implements IKinectDataCo
                     return; // Invalid frame was discarded
 
                 // Notify listeners (painter, calibration, etc)
-                for (WeakReference<IKinectFrameEventListener> weakListener: _listeners) {
-                    IKinectFrameEventListener listener = weakListener.get();
-                    if (listener != null)
-                        listener.handle(frame);
+                try {
+                    for (WeakReference<IKinectFrameEventListener> weakListener: _listeners) {
+                        IKinectFrameEventListener listener = weakListener.get();
+                        if (listener != null)
+                            listener.handle(frame);
+                    }
+                }
+                finally {
+                    frame.release(); // Recycled once listeners which kept the frame release it as well
                 }
             }
         } catch (Exception e) {
@@ -159,14 +155,14 @@ public class KinectSampleWorkerThread extends TimerTask implements IKinectDataCo
         // 30 fps
         long delay = 0;
         long period = 32;
-        _timer = new Timer();
-        _timer.scheduleAtFixedRate(this, delay, period);
+        TimingWheel scheduler = DataHolder.INSTANCE.retrieve(DataHolderEntry.SCHEDULER);
+        _task = scheduler.schedule(TAG, this, delay, period);
     }
 
     @Override
     public void deactivate() {
 
         _running = false;
-        _timer.cancel();
+        _task.cancel();
     }
 }
\ No newline at end of file
@@ -0,0 +1,187 @@
+package org.kinectanywhereandroid.framework;
+
+import android.util.Log;
+
+import org.kinectanywhereandroid.algorithm.PersonTracker;
+import org.kinectanywhereandroid.model.Skeleton;
+import org.kinectanywhereandroid.util.DataHolder;
+import org.kinectanywhereandroid.util.DataHolderEntry;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Emits the fused skeletons of all persons at a fixed output rate (e.g: 60 or 120 Hz), independent of the rate
+ * the Kinect sensors deliver frames at.
+ * The persons of the last few frames are kept, each output tick estimates the persons at the tick time:
+ * interpolated between the two frames around it, or extrapolated from the latest frame (see PersonTracker.Person).
+ * Ticks are estimated a short delay in the past, so they usually fall between real frames and are interpolated.
+ * Should be registered after the PersonTracker, to record the persons of each frame once tracked.
+ */
+public class OutputScheduler implements Runnable, IKinectFrameEventListener {
+
+    private final static String TAG = "OUTPUT_SCHEDULER";
+
+    /** Number of recent frames kept, a few sensor periods */
+    private final static int HISTORY_SIZE = 8;
+
+    private final PersonTracker _tracker;
+    private final long _period;
+    private final long _delay;
+
+    private TimingWheel.ScheduledTask _task;
+    private List<WeakReference<IFusedSkeletonsListener>> _listeners;
+    private boolean _running;
+
+    // Ring of the persons of recent frames, by frame time
+    private long[] _historyTimes;
+    private List<List<PersonTracker.Person>> _historyPersons;
+    private int _historyCount;
+    private int _nextEntry;
+
+    /**
+     * @param tracker Tracker of the persons to emit
+     * @param rate Output rate (Hz)
+     * @param delay How far in the past (milliseconds) the persons are estimated at each tick.
+     *              About a sensor period interpolates between real frames, 0 always extrapolates.
+     */
+    public OutputScheduler(PersonTracker tracker, int rate, long delay) {
+        super();
+        _tracker = tracker;
+        _period = Math.max(1, Math.round(1000.0 / rate));
+        _delay = delay;
+        _listeners = new LinkedList<>();
+        _running = false;
+        _historyTimes = new long[HISTORY_SIZE];
+        _historyPersons = new ArrayList<>(HISTORY_SIZE);
+
+        for (int i = 0; i < HISTORY_SIZE; i++)
+            _historyPersons.add(Collections.<PersonTracker.Person>emptyList());
+    }
+
+    public synchronized void register(IFusedSkeletonsListener listener) {
+        _listeners.add(new WeakReference<>(listener));
+    }
+
+    @Override
+    public void handle(SingleFrameData frame) {
+
+        // A frame repeating the samples of the previous frame would only hold the persons still for a frame
+        if (!frame.hasChanges())
+            return;
+
+        record(frame.getTimestamp(), _tracker.getPersons());
+    }
+
+    /**
+     * Keep the persons of a frame
+     * @param time Frame time (milliseconds, server time)
+     * @param persons Persons as tracked at the frame, not modified afterwards
+     */
+    synchronized void record(long time, List<PersonTracker.Person> persons) {
+
+        _historyTimes[_nextEntry] = time;
+        _historyPersons.set(_nextEntry, persons);
+        _nextEntry = (_nextEntry + 1) % HISTORY_SIZE;
+        _historyCount = Math.min(_historyCount + 1, HISTORY_SIZE);
+    }
+
+    /**
+     * @param time Time to estimate the persons at (milliseconds, server time)
+     * @return Skeleton of each person at the time, interpolated or extrapolated from the recorded frames
+     */
+    synchronized List<Skeleton> sample(long time) {
+
+        List<Skeleton> skeletons = new ArrayList<>();
+
+        if (_historyCount == 0)
+            return skeletons;
+
+        // Latest frame at or before the time, and the frame following it (if any)
+        int oldest = (_nextEntry - _historyCount + HISTORY_SIZE) % HISTORY_SIZE;
+        int before = -1;
+        int after = -1;
+
+        for (int i = 0; i < _historyCount; i++) {
+
+            int entry = (oldest + i) % HISTORY_SIZE;
+
+            if (_historyTimes[entry] <= time) {
+                before = entry;
+            }
+            else {
+                after = entry;
+                break;
+            }
+        }
+
+        // Earlier than all frames kept: show the oldest frame as is
+        if (before < 0) {
+            before = after;
+            after = -1;
+        }
+
+        List<PersonTracker.Person> nextPersons = (after >= 0) ?
+                                                 _historyPersons.get(after) :
+                                                 Collections.<PersonTracker.Person>emptyList();
+
+        for (PersonTracker.Person person : _historyPersons.get(before)) {
+
+            PersonTracker.Person next = null;
+
+            for (PersonTracker.Person candidate : nextPersons) {
+                if (candidate.id == person.id) {
+                    next = candidate;
+                    break;
+                }
+            }
+
+            skeletons.add((next != null) ? person.interpolate(next, time) : person.predict(time));
+        }
+
+        return skeletons;
+    }
+
+    @Override
+    public void run() {
+
+        try {
+            if (!_running)
+                return;
+
+            List<WeakReference<IFusedSkeletonsListener>> listeners;
+            synchronized (this) {
+                if (_listeners.isEmpty())
+                    return; // No one to estimate the persons for
+                listeners = new ArrayList<>(_listeners);
+            }
+
+            long time = System.currentTimeMillis() - _delay;
+            List<Skeleton> skeletons = Collections.unmodifiableList(sample(time));
+
+            for (WeakReference<IFusedSkeletonsListener> weakListener: listeners) {
+                IFusedSkeletonsListener listener = weakListener.get();
+                if (listener != null)
+                    listener.handle(time, skeletons);
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Exception have occurred in OutputScheduler", e);
+        }
+    }
+
+    public void activate() {
+
+        _running = true;
+        TimingWheel scheduler = DataHolder.INSTANCE.retrieve(DataHolderEntry.SCHEDULER);
+        _task = scheduler.schedule(TAG, this, 0, _period);
+    }
+
+    public void deactivate() {
+
+        _running = false;
+        _task.cancel();
+    }
+}
@@ -12,7 +12,8 @@ import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
- * Kinect sensor representation that keeps a queue of all arriving data samples from the client
+ * Kinect sensor representation that keeps a queue of all arriving data samples from the client.
+ * Entries are only removed by the frame worker, which recycles them once copied to a frame
  */
 @ThreadSafe
 public class QueuedSamplesKinect extends RemoteKinect {
@@ -29,6 +30,7 @@ public class QueuedSamplesKinect extends RemoteKinect {
     @Override
     public void enqueue(List<Skeleton> skels) {
 
+        recordArrival(skels);
         skeletonQueue.add(skels);
         framesSinceLastPoll++;
     }
@@ -38,9 +40,15 @@ public class QueuedSamplesKinect extends RemoteKinect {
         return skeletonQueue.peek();
     }
 
-    public List<Skeleton> poll() {
+    /**
+     * Remove the next entry in the queue, copying its skeletons to a frame. The entry is recycled afterwards
+     */
+    void poll(SingleFrameData.SingleFrameDataBuilder frameBuilder, String host) {
+
+        List<Skeleton> skels = skeletonQueue.poll();
 
-        return skeletonQueue.poll();
+        frameBuilder.addSkeletons(host, skels);
+        recycleSample(skels);
     }
 
     /**
@@ -1,31 +1,126 @@
 package org.kinectanywhereandroid.framework;
 
+import org.kinectanywhereandroid.model.Joint;
 import org.kinectanywhereandroid.model.Skeleton;
 import org.kinectanywhereandroid.util.DataHolder;
 import org.kinectanywhereandroid.util.DataHolderEntry;
 
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
+/**
+ * Connected Kinect client, along with the samples it sent which weren't framed yet.
+ * Sample lists & skeletons are pooled (see obtainSample, obtainSkeleton): a kinect owns the samples enqueued to it,
+ * and recycles each sample once it's copied to a frame and no longer needed, so receiving packets allocates
+ * nothing in steady state.
+ */
 public abstract class RemoteKinect {
 
     public static final long INVALID_TIME = -1;
 
-    public long lastBeacon = System.currentTimeMillis();
+    /** Maximal number of recycled sample lists kept, a burst beyond that is left to the garbage collector */
+    private final static int POOL_CAPACITY = 16;
+
+    /** Maximal number of skeletons a Kinect tracks at once */
+    private final static int MAX_SKELETONS = 6;
+
+    private final static Queue<List<Skeleton>> SAMPLES_POOL = new ArrayBlockingQueue<>(POOL_CAPACITY);
+    private final static Queue<Skeleton> SKELETONS_POOL = new ArrayBlockingQueue<>(POOL_CAPACITY * MAX_SKELETONS);
+
+    private final static Joint.JointType[] JOINT_TYPES = Joint.JointType.values();
+
+    public volatile long lastBeacon = System.currentTimeMillis();
     public boolean isON = true;
 
     protected int framesSinceLastPoll;
     protected long lastPollTime;
 
+    /** Clock of the client relative to the server clock */
+    protected final ClockEstimator clock = new ClockEstimator();
+
+    /** Playout delay of the client samples */
+    protected final JitterBuffer jitterBuffer = new JitterBuffer();
+
+    /** Number of sample sets received so far, tells consumers whether anything new arrived since they last looked */
+    protected final AtomicLong sequence = new AtomicLong();
+
     /**
      * Cache another set of samples from the sensor
-     * @param skels
+     * @param skels Samples, owned by the kinect from now on: recycled once framed (see recycleSample)
      */
     public abstract void enqueue(List<Skeleton> skels);
 
+    /**
+     * @return An empty list for the skeletons of a sample, recycled if possible
+     */
+    public static List<Skeleton> obtainSample() {
+
+        List<Skeleton> sample = SAMPLES_POOL.poll();
+        return (sample != null) ? sample : new ArrayList<Skeleton>(MAX_SKELETONS);
+    }
+
+    /**
+     * @return A skeleton with all its joints, not tracked, recycled if possible
+     */
+    public static Skeleton obtainSkeleton() {
+
+        Skeleton skeleton = SKELETONS_POOL.poll();
+
+        if (skeleton == null) {
+            skeleton = new Skeleton();
+            for (int i = 0; i < Skeleton.JOINTS_COUNT; i++)
+                skeleton.joints[i] = new Joint();
+        }
+
+        for (int i = 0; i < Skeleton.JOINTS_COUNT; i++) {
+            Joint joint = skeleton.joints[i];
+            joint.type = JOINT_TYPES[i];
+            joint.trackingState = Joint.JointTrackingState.NotTracked;
+            joint.x = 0;
+            joint.y = 0;
+            joint.z = 0;
+        }
+
+        return skeleton;
+    }
+
+    /**
+     * Return a sample and its skeletons to the pools, neither may be used by the caller afterwards
+     */
+    protected static void recycleSample(List<Skeleton> sample) {
+
+        if (sample == null)
+            return;
+
+        // Replayed samples weren't obtained from the pools, only what fits the pools is kept
+        if (!(sample instanceof ArrayList))
+            return;
+
+        for (int i = 0; i < sample.size(); i++) {
+            if (isComplete(sample.get(i)))
+                SKELETONS_POOL.offer(sample.get(i));
+        }
+
+        sample.clear();
+        SAMPLES_POOL.offer(sample);
+    }
+
+    private static boolean isComplete(Skeleton skeleton) {
+
+        for (Joint joint: skeleton.joints) {
+            if (joint == null)
+                return false;
+        }
+
+        return true;
+    }
+
     /**
      * @return Next entry from the sensor is valid and has tracked any skeletons
      */
@@ -36,6 +131,57 @@ public abstract class RemoteKinect {
      */
     public abstract long nextTimeStamp();
 
+    /**
+     * Count a new set of samples and feed the clock estimation with its arrival
+     * @param skels Samples that just arrived
+     */
+    protected void recordArrival(List<Skeleton> skels) {
+
+        sequence.incrementAndGet();
+
+        if ((skels == null) || skels.isEmpty())
+            return;
+
+        long timestamp = skels.get(0).getTimestamp();
+        long arrivalTime = System.currentTimeMillis();
+
+        clock.addSample(timestamp, arrivalTime);
+        jitterBuffer.addSample(arrivalTime - clock.toLocalTime(timestamp));
+    }
+
+    /**
+     * @param timestamp Time in the client clock (i.e: a skeleton timestamp)
+     * @return The same time in the server clock, so timestamps of different clients are comparable
+     */
+    public long toLocalTime(long timestamp) {
+
+        if (timestamp == INVALID_TIME)
+            return INVALID_TIME;
+
+        return clock.toLocalTime(timestamp);
+    }
+
+    /**
+     * @return Sequence number of the latest set of samples received
+     */
+    public long getSequence() {
+
+        return sequence.get();
+    }
+
+    public ClockEstimator getClock() {
+
+        return clock;
+    }
+
+    /**
+     * @return How long to wait for samples of this client past their sample time (milliseconds)
+     */
+    public long getPlayoutDelay() {
+
+        return jitterBuffer.getPlayoutDelay();
+    }
+
     public int fps() {
 
         long delta = System.currentTimeMillis() - lastPollTime;
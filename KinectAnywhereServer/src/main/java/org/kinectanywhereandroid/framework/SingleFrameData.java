@@ -1,21 +1,38 @@
 package org.kinectanywhereandroid.framework;
 
+import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
+import org.kinectanywhereandroid.algorithm.CoordinatesTransformer;
+import org.kinectanywhereandroid.algorithm.SkeletonBatch;
 import org.kinectanywhereandroid.model.Skeleton;
 import org.kinectanywhereandroid.util.Pair;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Single frame data of skeletons from all cameras
+ * Single frame data of skeletons from all cameras.
+ * Skeletons are stored in a columnar layout only (see getColumns): the builder copies the skeletons of each camera
+ * to the columns as they are listed, the frame keeps no reference to the skeleton objects it was built from.
+ * Skeleton objects are views of the columns created on request.
+ * Frames and their views (see getColumns, getTransformed) are pooled: a frame is reference counted, the consumer
+ * that assembled it holds the first reference. Anyone who keeps the frame past its handling (i.e: hands it to
+ * another thread) must retain it and release it once done. When the last reference is released, the frame and its
+ * views are recycled for the frames that follow, so steady state operation allocates almost nothing per frame.
+ * Reading the skeletons of a recycled frame throws IllegalStateException (unless the frame was obtained again
+ * meanwhile, so this is a best effort check). Views already handed out can't tell, their holders may compare
+ * the generation of the batch instead (see SkeletonBatch.getGeneration).
  */
 public class SingleFrameData implements Iterable<Pair<String, Skeleton>>, Serializable {
 
@@ -23,25 +40,364 @@ public class SingleFrameData implements Iterable<Pair<String, Skeleton>>, Serial
 
     private final static long UNINITIALIZED = Long.MIN_VALUE;
 
-    private Map<String, List<Skeleton>> _skeletons;
+    /** Number of cameras the changes bitmap tracks separately */
+    private final static int MAX_CHANGE_BITS = 64;
+
+    /** Maximal number of recycled frames & views kept, a burst beyond that is left to the garbage collector */
+    private final static int POOL_CAPACITY = 8;
+
+    private final static Queue<SingleFrameData> FRAMES_POOL = new ArrayBlockingQueue<>(POOL_CAPACITY);
+    private final static Queue<SkeletonBatch> BATCHES_POOL = new ArrayBlockingQueue<>(POOL_CAPACITY * 2);
+
+    /** Skeletons of all cameras, grouped by camera, the store of the frame */
+    private final SkeletonBatch _columns;
+
+    /** All cameras of the frame, including cameras without skeletons */
+    private final Set<String> _cameras;
+    private final Set<String> _camerasView;
+
     private long _timestamp;
     private long _prevFrameTimestamp;
 
+    /** Memoised view of this frame in coordinates of a single camera, see getTransformed */
+    private transient SkeletonBatch _transformed;
+    private transient String _transformedTo;
+    private transient long _transformedVersion;
+
+    /** Views superseded during this frame, other listeners may still read them until the frame is recycled */
+    private transient List<SkeletonBatch> _retiredViews;
+
+    private final AtomicInteger _references;
+
+    // Index of the cameras & skeletons, built as the cameras are listed and reused with the frame object.
+    // Skeletons are grouped by camera: skeletons of camera i are [_cameraFirst[i], _cameraFirst[i + 1])
+    private transient String[] _cameraNames;
+    private transient int[] _cameraFirst;
+    private transient int[] _skeletonCamera;
+    private transient int _camerasCount;
+    private transient int _skeletonsCount;
+
+    /** Cameras with new samples, as a bitmap of camera indices. All other cameras repeat the samples
+     *  of the previous frame */
+    private transient long _changedCameras;
+
     private SingleFrameData() {
         // Allow creation only via SingleFrameDataBuilder
-        _skeletons = new HashMap<>();
+        _columns = new SkeletonBatch();
+        _cameras = new HashSet<>();
+        _camerasView = Collections.unmodifiableSet(_cameras);
+        _timestamp = UNINITIALIZED;
+        _prevFrameTimestamp = UNINITIALIZED;
+        _references = new AtomicInteger();
+        _cameraNames = new String[4];
+        _cameraFirst = new int[5];
+        _skeletonCamera = new int[8];
+    }
+
+    /**
+     * List a camera, its skeletons follow it (see addSkeleton). A camera has new samples unless marked otherwise
+     */
+    private void addCamera(String camera) {
+
+        if (_cameraNames.length == _camerasCount) {
+            _cameraNames = Arrays.copyOf(_cameraNames, _camerasCount * 2);
+            _cameraFirst = Arrays.copyOf(_cameraFirst, _camerasCount * 2 + 1);
+        }
+
+        _cameras.add(camera);
+        _cameraNames[_camerasCount] = camera;
+        _cameraFirst[_camerasCount] = _skeletonsCount;
+        _changedCameras |= changeBit(_camerasCount);
+        _camerasCount++;
+        _cameraFirst[_camerasCount] = _skeletonsCount;
+    }
+
+    /**
+     * Copy a skeleton of the last listed camera to the columns
+     */
+    private void addSkeleton(Skeleton skeleton) {
+
+        if (_skeletonCamera.length == _skeletonsCount)
+            _skeletonCamera = Arrays.copyOf(_skeletonCamera, _skeletonsCount * 2);
+
+        _columns.add(_cameraNames[_camerasCount - 1], skeleton);
+        _skeletonCamera[_skeletonsCount++] = _camerasCount - 1;
+        _cameraFirst[_camerasCount] = _skeletonsCount;
+    }
+
+    private void markUnchanged(int cameraIndex) {
+
+        // Cameras beyond the bitmap are always considered changed
+        if (cameraIndex < MAX_CHANGE_BITS)
+            _changedCameras &= ~changeBit(cameraIndex);
+    }
+
+    /**
+     * @return A recycled frame if there is one, a new frame otherwise. Holds a single reference
+     */
+    private static SingleFrameData obtain() {
+
+        SingleFrameData frame = FRAMES_POOL.poll();
+        if (frame == null)
+            frame = new SingleFrameData();
+
+        frame._references.set(1);
+        return frame;
+    }
+
+    /**
+     * Keep the frame from being recycled, until a matching release
+     */
+    public void retain() {
+
+        _references.incrementAndGet();
+    }
+
+    /**
+     * Drop a reference to the frame, the frame must not be used by the caller afterwards
+     */
+    public void release() {
+
+        int references = _references.decrementAndGet();
+
+        if (references == 0)
+            recycle();
+        else if (references < 0)
+            throw new IllegalStateException("Frame released more times than retained");
+    }
+
+    private synchronized void recycle() {
+
+        _columns.clear();
+        _cameras.clear();
+        _changedCameras = 0;
+
+        Arrays.fill(_cameraNames, 0, _camerasCount, null);
+        _camerasCount = 0;
+        _skeletonsCount = 0;
         _timestamp = UNINITIALIZED;
         _prevFrameTimestamp = UNINITIALIZED;
+
+        recycleBatch(_transformed);
+        _transformed = null;
+        _transformedTo = null;
+
+        if (_retiredViews != null) {
+            for (SkeletonBatch view: _retiredViews)
+                recycleBatch(view);
+            _retiredViews.clear();
+        }
+
+        FRAMES_POOL.offer(this);
     }
 
     /**
-     * Get all skeletons the camera detected
+     * Fail fast on a frame that is used after its last reference was released
+     */
+    private void checkNotRecycled() {
+
+        if (_references.get() <= 0)
+            throw new IllegalStateException("Frame used after it was recycled");
+    }
+
+    private static SkeletonBatch obtainBatch() {
+
+        SkeletonBatch batch = BATCHES_POOL.poll();
+        return (batch != null) ? batch : new SkeletonBatch();
+    }
+
+    private static void recycleBatch(SkeletonBatch batch) {
+
+        if (batch == null)
+            return;
+
+        batch.clear();
+        BATCHES_POOL.offer(batch);
+    }
+
+    /**
+     * Get all skeletons the camera detected.
+     * Allocates a list, hot loops should use the skeleton indices instead (see indexOf)
      * @param cameraName Unique camera name
-     * @return List of skels
+     * @return List of views of the skels (see getSkeleton), null if the camera isn't part of this frame
      */
+    @Nullable
     public List<Skeleton> getSkeletons(String cameraName) {
 
-        return _skeletons.get(cameraName);
+        checkNotRecycled();
+
+        int cameraIndex = indexOf(cameraName);
+        if (cameraIndex < 0)
+            return null;
+
+        int first = _cameraFirst[cameraIndex];
+        int end = _cameraFirst[cameraIndex + 1];
+        List<Skeleton> skeletons = new ArrayList<>(end - first);
+
+        for (int i = first; i < end; i++)
+            skeletons.add(getSkeleton(i));
+
+        return skeletons;
+    }
+
+    /**
+     * @return Host names of all cameras participating in this frame, including cameras without skeletons
+     */
+    public Set<String> getCameras() {
+
+        return _camerasView;
+    }
+
+    /**
+     * @return Index of the camera, -1 if the camera isn't part of this frame
+     */
+    public int indexOf(String cameraName) {
+
+        for (int i = 0; i < _camerasCount; i++) {
+            if (_cameraNames[i].equals(cameraName))
+                return i;
+        }
+
+        return -1;
+    }
+
+    /**
+     * @return Number of cameras participating in this frame, including cameras without skeletons.
+     *         Cameras are indexed from 0 to cameraCount() - 1
+     */
+    public int cameraCount() {
+
+        return _camerasCount;
+    }
+
+    public String getCamera(int cameraIndex) {
+
+        return _cameraNames[cameraIndex];
+    }
+
+    /**
+     * @return Number of skeletons of all cameras. Skeletons are indexed from 0 to skeletonCount() - 1, grouped by camera
+     */
+    public int skeletonCount() {
+
+        return _skeletonsCount;
+    }
+
+    /**
+     * @return Index of the first skeleton of the camera, its skeletons end at getFirstSkeleton(cameraIndex + 1)
+     */
+    public int getFirstSkeleton(int cameraIndex) {
+
+        return _cameraFirst[cameraIndex];
+    }
+
+    /**
+     * @return View of the skeleton, in coordinates of its own camera (see SkeletonBatch.getSkeleton).
+     *         Must not be modified nor kept past the frame
+     */
+    public Skeleton getSkeleton(int skeletonIndex) {
+
+        checkNotRecycled();
+        return _columns.getSkeleton(skeletonIndex);
+    }
+
+    /**
+     * @return Index of the camera the skeleton was tracked by
+     */
+    public int getCameraIndex(int skeletonIndex) {
+
+        return _skeletonCamera[skeletonIndex];
+    }
+
+    /**
+     * @return True if the samples of the camera arrived since the previous frame,
+     *         false if they are the same samples the previous frame had
+     */
+    public boolean isChanged(int cameraIndex) {
+
+        return (_changedCameras & changeBit(cameraIndex)) != 0;
+    }
+
+    /**
+     * @return True if any camera has new samples in this frame. Listeners may skip frames without changes,
+     *         these repeat the samples of the previous frame
+     */
+    public boolean hasChanges() {
+
+        return _changedCameras != 0;
+    }
+
+    private static long changeBit(int cameraIndex) {
+
+        return 1L << Math.min(cameraIndex, MAX_CHANGE_BITS - 1);
+    }
+
+    /**
+     * Receives the skeletons of a frame, see forEachSkeleton
+     */
+    public interface SkeletonConsumer {
+
+        void accept(String camera, Skeleton skeleton);
+    }
+
+    /**
+     * Pass all skeletons of all cameras to the consumer, grouped by camera.
+     * Allocates nothing once the views of the skeletons exist
+     */
+    public void forEachSkeleton(SkeletonConsumer consumer) {
+
+        for (int i = 0; i < _skeletonsCount; i++)
+            consumer.accept(_cameraNames[_skeletonCamera[i]], getSkeleton(i));
+    }
+
+    /**
+     * All skeletons of this frame in a columnar layout, each in coordinates of its own camera.
+     * This is the store of the frame, shared by all listeners of this frame: skeleton i of the columns is
+     * skeleton i of the frame.
+     * @return Skeletons of all cameras, grouped by camera, must not be modified by the caller,
+     *         except by the first listener (i.e: JointSmoother)
+     */
+    @NonNull
+    public SkeletonBatch getColumns() {
+
+        checkNotRecycled();
+        return _columns;
+    }
+
+    /**
+     * All skeletons of this frame in coordinates of a single camera (usually the master camera).
+     * Transformed once, on first request, and shared by all listeners of this frame until the transformations
+     * change (the view is tagged with the version of the transformations used).
+     * @param toCamera Target camera
+     * @param transformer Transformations to use
+     * @return Skeletons in coordinates of toCamera, must not be modified by the caller
+     */
+    @NonNull
+    public synchronized SkeletonBatch getTransformed(String toCamera, CoordinatesTransformer transformer) {
+
+        checkNotRecycled();
+
+        // Read the version before transforming, so a concurrent update only causes a recalculation
+        long version = transformer.getVersion();
+
+        if ((_transformed == null) || (!toCamera.equals(_transformedTo)) || (_transformedVersion != version)) {
+
+            // A new batch each time: previous views may still be read by other listeners
+            SkeletonBatch transformed = obtainBatch();
+            transformer.transformFrame(this, toCamera, transformed);
+
+            if (_transformed != null) {
+                if (_retiredViews == null)
+                    _retiredViews = new ArrayList<>();
+                _retiredViews.add(_transformed);
+            }
+
+            _transformed = transformed;
+            _transformedTo = toCamera;
+            _transformedVersion = version;
+        }
+
+        return _transformed;
     }
 
     /**
@@ -50,12 +406,13 @@ public class SingleFrameData implements Iterable<Pair<String, Skeleton>>, Serial
      * @return The single skeleton of the camera or NULL if there is no skeleton or more than 1
      */
     public Skeleton getSingletonSkeleton(String cameraName) {
-        List<Skeleton> detectedSkels = _skeletons.get(cameraName);
 
-        if ((detectedSkels == null) || (detectedSkels.size() != 1))
+        int cameraIndex = indexOf(cameraName);
+
+        if ((cameraIndex < 0) || (_cameraFirst[cameraIndex + 1] - _cameraFirst[cameraIndex] != 1))
             return null;
 
-        return detectedSkels.get(0);
+        return getSkeleton(_cameraFirst[cameraIndex]);
     }
 
     /**
@@ -73,8 +430,8 @@ public class SingleFrameData implements Iterable<Pair<String, Skeleton>>, Serial
      */
     public boolean isAllKinectsTracking() {
 
-        for (List<Skeleton> camData: _skeletons.values()) {
-            if (camData == null || camData.isEmpty())
+        for (int i = 0; i < _camerasCount; i++) {
+            if (_cameraFirst[i + 1] == _cameraFirst[i])
                 return false;
         }
 
@@ -86,8 +443,8 @@ public class SingleFrameData implements Iterable<Pair<String, Skeleton>>, Serial
      */
     public boolean isAllKinectsTrackingSingle() {
 
-        for (List<Skeleton> camData: _skeletons.values()) {
-            if ((camData == null) || (camData.size() != 1))
+        for (int i = 0; i < _camerasCount; i++) {
+            if (_cameraFirst[i + 1] - _cameraFirst[i] != 1)
                 return false;
         }
 
@@ -99,7 +456,7 @@ public class SingleFrameData implements Iterable<Pair<String, Skeleton>>, Serial
      */
     public int numOfCameras() {
 
-        return _skeletons.size();
+        return _camerasCount;
     }
 
     /**
@@ -111,11 +468,11 @@ public class SingleFrameData implements Iterable<Pair<String, Skeleton>>, Serial
         int avgCount = 0;
         long avgTime = 0;
 
-        for (Map.Entry<String, List<Skeleton>> cameraEntry: _skeletons.entrySet()) {
+        for (int i = 0; i < _camerasCount; i++) {
 
-            if ((cameraEntry.getValue() != null) && (cameraEntry.getValue().size() > 0)) {
+            if (_cameraFirst[i + 1] > _cameraFirst[i]) {
 
-                avgTime += cameraEntry.getValue().get(0).getTimestamp();
+                avgTime += _columns.getTimestamp(_cameraFirst[i]);
                 avgCount++;
             }
         }
@@ -138,7 +495,7 @@ public class SingleFrameData implements Iterable<Pair<String, Skeleton>>, Serial
     }
 
     /**
-     *
+     * Allocates a pair per skeleton, hot loops should use forEachSkeleton or the skeleton indices instead
      * @return Iterator for Skeletons of all cameras
      */
     @Override
@@ -148,100 +505,113 @@ public class SingleFrameData implements Iterable<Pair<String, Skeleton>>, Serial
 
     private class FrameDataIterator implements Iterator<Pair<String, Skeleton>> {
 
-        Iterator<Map.Entry<String, List<Skeleton>>> _camIter;
-        Iterator<Skeleton> _skelIter;
-        String _currCam;
-
-        FrameDataIterator() {
-
-            _camIter = _skeletons.entrySet().iterator();
-        }
+        int _next;
 
         @Override
         public boolean hasNext() {
-            // Fetch next camera info
-            while ((_skelIter == null) || (!_skelIter.hasNext())) {
-
-                if (!_camIter.hasNext())
-                    return false;
-
-                Map.Entry<String, List<Skeleton>> nextEntry = _camIter.next();
-
-                if (nextEntry == null)
-                    continue;
-
-                _currCam = nextEntry.getKey();
-                List<Skeleton> nextSkelList = nextEntry.getValue();
-
-                if (nextSkelList == null)
-                    continue;
-
-                _skelIter = nextSkelList.iterator();
-            }
-
-            return (_skelIter != null) && (_skelIter.hasNext());
+            return _next < _skeletonsCount;
         }
 
         @Override
         public Pair<String, Skeleton> next() {
-            // Fetch next skeleton of camera
-            return new Pair(_currCam, _skelIter.next());
+
+            if (!hasNext())
+                throw new NoSuchElementException();
+
+            int index = _next++;
+            return new Pair<>(_cameraNames[_skeletonCamera[index]], getSkeleton(index));
         }
     }
 
     /**
      * Builder object for SingleFrameData.
      * Meant to be used by framework package members only.
+     * Skeletons are copied to the frame as they are added, so the caller may reuse them right away.
+     * Each host is listed once per frame, its skeletons are added consecutively.
+     * A builder may be reused for the frames that follow once a frame is built or discarded.
      */
     static class SingleFrameDataBuilder {
 
-        SingleFrameData frame = new SingleFrameData();
+        private SingleFrameData _frame;
 
         /** Keeps the timestamp of the last frame data object constructed */
         static long prevTimestamp = 0;
 
+        /** Frame being built, obtained from the pool on first use */
+        private SingleFrameData frame() {
+
+            if (_frame == null)
+                _frame = SingleFrameData.obtain();
+
+            return _frame;
+        }
+
         /**
          * @return Finalize creation, returns a complete SingleFrameData object
          */
         SingleFrameData build() {
 
-            if ((frame._timestamp == UNINITIALIZED) || (frame._skeletons.isEmpty()))
+            SingleFrameData frame = frame();
+
+            if ((frame._timestamp == UNINITIALIZED) || (frame._camerasCount == 0)) {
+                discard();
                 return null;
+            }
 
             frame._prevFrameTimestamp = prevTimestamp;
             prevTimestamp = frame._timestamp; // List latest frame as prev from now on
+            _frame = null;
             return frame;
         }
 
+        /** Give up on the frame, recycling it */
+        void discard() {
+
+            if (_frame != null)
+                _frame.release();
+
+            _frame = null;
+        }
+
+        /** Mark the samples of a listed host as the same samples the previous frame had, samples are new otherwise */
+        void markUnchanged(String host) {
+
+            int cameraIndex = frame().indexOf(host);
+            if (cameraIndex >= 0)
+                _frame.markUnchanged(cameraIndex);
+        }
+
         /** List a host without skeletons */
         void addQuietHost(String host) {
 
-            frame._skeletons.put(host, Collections.EMPTY_LIST);
+            frame().addCamera(host);
         }
 
         /** Add an identified skeleton under a given host */
         void addSkeleton(String host, Skeleton skel) {
 
-            List<Skeleton> camSkels = frame._skeletons.get(host);
+            SingleFrameData frame = frame();
 
             // First skeleton for this host
-            if (camSkels == null) {
-                camSkels = new LinkedList<>();
-                frame._skeletons.put(host, camSkels);
-            }
+            if ((frame._camerasCount == 0) || !frame._cameraNames[frame._camerasCount - 1].equals(host))
+                frame.addCamera(host);
 
-            camSkels.add(skel);
+            frame.addSkeleton(skel);
         }
 
         /** Set a group of identified skeleton under a given host */
         void addSkeletons(String host, List<Skeleton> skels) {
 
-            frame._skeletons.put(host, skels);
+            SingleFrameData frame = frame();
+            frame.addCamera(host);
+
+            for (int i = 0; i < skels.size(); i++)
+                frame.addSkeleton(skels.get(i));
         }
 
         /** Set a timestamp for when this frame was assembled */
         void addTimestamp(long timestamp) {
-            frame._timestamp = timestamp;
+            frame()._timestamp = timestamp;
         }
     }
 }
@@ -1,41 +1,68 @@
 package org.kinectanywhereandroid.framework;
 
 import net.jcip.annotations.GuardedBy;
-import net.jcip.annotations.NotThreadSafe;
 import net.jcip.annotations.ThreadSafe;
 
 import org.kinectanywhereandroid.model.Skeleton;
-import org.kinectanywhereandroid.util.Pair;
 
 import java.util.List;
-import java.util.concurrent.atomic.AtomicReference;
 
 /**
- * Kinect sensor representation that keeps only the last sample to arrive at the server
+ * Kinect sensor representation that keeps only the last sample to arrive at the server.
+ * The last sample is recycled once a newer sample replaces it, so it's only read under the kinect lock
+ * (see sample)
  */
 @ThreadSafe
 public class SingleSampleKinect extends RemoteKinect {
 
-    private AtomicReference<List<Skeleton>> latestSample;
+    @GuardedBy("this")
+    private List<Skeleton> latestSample;
+
+    @GuardedBy("this")
+    private long sampledSequence;
 
     public SingleSampleKinect() {
 
         super();
-        latestSample = new AtomicReference<>();
     }
 
     /**
-     * @return Sample the last sample that arrived and the time it arrived in
+     * @return Time of the last sample that arrived, in the server clock. INVALID_TIME if it tracked no skeletons
      */
-    public Pair<Long, List<Skeleton>> sample() {
+    public synchronized long getSampleTime() {
 
-        synchronized (this) {
-            return new Pair<>(nextTimeStamp(), latestSample.get());
+        return toLocalTime(nextTimeStamp());
+    }
+
+    /**
+     * Sample the last sample that arrived into a frame: its skeletons are copied to the frame if the sample is recent
+     * enough, the host is listed without skeletons otherwise
+     * @param minTime Samples at or before this time (server clock) are too old
+     * @return True if the skeletons of the sample were copied
+     */
+    synchronized boolean sample(SingleFrameData.SingleFrameDataBuilder frameBuilder, String host, long minTime) {
+
+        sampledSequence = sequence.get();
+
+        if (isTrackingSkeletons() && (getSampleTime() > minTime)) {
+            frameBuilder.addSkeletons(host, latestSample);
+            return true;
         }
+
+        frameBuilder.addQuietHost(host);
+        return false;
+    }
+
+    /**
+     * @return Sequence number of the sample returned by the last call to sample
+     */
+    public synchronized long getSampledSequence() {
+
+        return sampledSequence;
     }
 
     /**
-     * Keep latest sample given.
+     * Keep latest sample given, recycling the previous one.
      * This method locks using the current object as a lock.
      * @param skels
      */
@@ -43,7 +70,9 @@ public class SingleSampleKinect extends RemoteKinect {
     public void enqueue(List<Skeleton> skels) {
 
         synchronized (this) {
-            latestSample.set(skels);
+            recordArrival(skels);
+            recycleSample(latestSample);
+            latestSample = skels;
             framesSinceLastPoll++;
         }
     }
@@ -52,20 +81,20 @@ public class SingleSampleKinect extends RemoteKinect {
      * @return True if the latest sensor sample contains any skeletons
      */
     @Override
-    public boolean isTrackingSkeletons() {
+    public synchronized boolean isTrackingSkeletons() {
 
-        return latestSample != null && !latestSample.get().isEmpty();
+        return latestSample != null && !latestSample.isEmpty();
     }
 
     /**
      * @return The timestamp of the last sample if it tracked any skeletons
      */
     @Override
-    public long nextTimeStamp() {
+    public synchronized long nextTimeStamp() {
 
         if (!isTrackingSkeletons())
             return INVALID_TIME;
 
-        return latestSample.get().get(0).getTimestamp();
+        return latestSample.get(0).getTimestamp();
     }
 }
@@ -0,0 +1,66 @@
+package org.kinectanywhereandroid.framework;
+
+import android.util.Log;
+
+import org.kinectanywhereandroid.util.DataHolder;
+import org.kinectanywhereandroid.util.DataHolderEntry;
+
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Periodically drops connected hosts which haven't sent anything for a while, so their last samples
+ * don't linger in the frames. A host that comes back is listed again by the next packet it sends.
+ */
+public class StaleHostsEvictor implements Runnable {
+
+    private final static String TAG = "STALE_HOSTS_EVICTOR";
+
+    /** A host is stale once no packet arrived from it for this long (milliseconds) */
+    public final static long HOST_TIMEOUT = 10000;
+
+    /** Time between checks (milliseconds) */
+    public final static long CHECK_PERIOD = 1000;
+
+    private TimingWheel.ScheduledTask _task;
+
+    public void activate() {
+
+        TimingWheel scheduler = DataHolder.INSTANCE.retrieve(DataHolderEntry.SCHEDULER);
+        _task = scheduler.schedule(TAG, this, CHECK_PERIOD, CHECK_PERIOD);
+    }
+
+    public void deactivate() {
+
+        _task.cancel();
+    }
+
+    @Override
+    public void run() {
+
+        Map<String, RemoteKinect> kinectDict = DataHolder.INSTANCE.retrieve(DataHolderEntry.CONNECTED_HOSTS);
+        if (kinectDict == null)
+            return;
+
+        evict(kinectDict, System.currentTimeMillis());
+    }
+
+    /**
+     * @param kinectDict Connected hosts, safe for concurrent modification
+     * @param now Current time (milliseconds, server time)
+     */
+    public static void evict(Map<String, RemoteKinect> kinectDict, long now) {
+
+        Iterator<Map.Entry<String, RemoteKinect>> iterator = kinectDict.entrySet().iterator();
+
+        while (iterator.hasNext()) {
+
+            Map.Entry<String, RemoteKinect> entry = iterator.next();
+
+            if (now - entry.getValue().lastBeacon > HOST_TIMEOUT) {
+                iterator.remove();
+                Log.i(TAG, entry.getKey() + " sent nothing for " + HOST_TIMEOUT + " ms, evicted");
+            }
+        }
+    }
+}
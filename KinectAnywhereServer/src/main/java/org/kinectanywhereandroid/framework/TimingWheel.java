@@ -0,0 +1,366 @@
+package org.kinectanywhereandroid.framework;
+
+import android.util.Log;
+
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Single scheduler for all the periodic work of the server (frame ticks, broadcast beacons, hosts eviction, ..).
+ * Tasks are kept in a hashed timing wheel: a ring of slots, one per tick. A task is placed in the slot of its
+ * deadline, along with the number of full turns of the wheel left until it's due, so scheduling and expiring
+ * a task takes constant time no matter how many tasks there are.
+ * A ticker thread advances the wheel once per tick and hands the due tasks to a small fixed pool of threads,
+ * so a slow task delays neither the wheel nor the other tasks.
+ *
+ * Periodic tasks are drift-compensated: each deadline is the previous deadline plus the period, not the end of
+ * the previous run plus the period, so the rate holds over time. A run never starts while the previous run of
+ * the same task is still running - such a run is skipped and counted as an overrun, as are runs missed because
+ * the task fell a whole period behind.
+ *
+ * @see <a href="http://www.cs.columbia.edu/~nahum/w6998/papers/sosp87-timing-wheels.pdf">Hashed and Hierarchical Timing Wheels</a>
+ */
+@ThreadSafe
+public class TimingWheel {
+
+    private final static String TAG = "TIMING_WHEEL";
+
+    /** Resolution of the wheel (milliseconds): a task runs up to a tick after its deadline, never before */
+    public final static long TICK = 4;
+
+    /** Number of slots, about a second per turn of the wheel. Must be a power of 2 */
+    private final static int WHEEL_SIZE = 256;
+
+    /** How long deactivate waits for the runs in progress to complete (milliseconds) */
+    private final static long TERMINATION_TIMEOUT = 1000;
+
+    private final ExecutorService _executor;
+    private final List<List<ScheduledTask>> _wheel;
+    private final List<ScheduledTask> _tasks;
+    private final List<ScheduledTask> _expired; // Tasks expired by the current tick, used by the ticker thread only
+    private final long _startTime;
+    private Thread _ticker;
+    private volatile boolean _running;
+
+    private long _tick; // Next tick to expire, counted from _startTime
+
+    /**
+     * Periodic task on the wheel, along with its run statistics
+     */
+    @ThreadSafe
+    public final class ScheduledTask implements Runnable {
+
+        private final String _name;
+        private final Runnable _task;
+        private final long _period;
+
+        private final AtomicBoolean _isRunning = new AtomicBoolean();
+        private volatile boolean _isCancelled;
+
+        // Guarded by the wheel
+        private long _deadline;
+        private long _rounds;
+
+        // Statistics, maxima are reset whenever the statistics are flushed
+        private final AtomicInteger _runs = new AtomicInteger();
+        private final AtomicInteger _overruns = new AtomicInteger();
+        private volatile long _maxLateness;
+        private volatile long _maxDuration;
+        private volatile long _runDeadline;
+
+        private ScheduledTask(String name, Runnable task, long deadline, long period) {
+
+            _name = name;
+            _task = task;
+            _deadline = deadline;
+            _period = period;
+        }
+
+        @Override
+        public void run() {
+
+            long start = now();
+
+            try {
+                _task.run();
+            } catch (Exception e) {
+                Log.e(TAG, "Exception have occurred in " + _name, e);
+            } finally {
+                long duration = now() - start;
+                _maxLateness = Math.max(_maxLateness, start - _runDeadline);
+                _maxDuration = Math.max(_maxDuration, duration);
+                _runs.incrementAndGet();
+                _isRunning.set(false);
+            }
+        }
+
+        /**
+         * Stop running the task, a run in progress completes
+         */
+        public void cancel() {
+
+            _isCancelled = true;
+        }
+
+        public String getName() {
+
+            return _name;
+        }
+
+        /**
+         * @return Number of completed runs
+         */
+        public int getRuns() {
+
+            return _runs.get();
+        }
+
+        /**
+         * @return Number of runs skipped, since the previous run was still running or the task fell behind
+         */
+        public int getOverruns() {
+
+            return _overruns.get();
+        }
+
+        /**
+         * @return Longest delay of a run past its deadline since the last flush (milliseconds)
+         */
+        public long getMaxLateness() {
+
+            return _maxLateness;
+        }
+
+        /**
+         * @return Longest run since the last flush (milliseconds)
+         */
+        public long getMaxDuration() {
+
+            return _maxDuration;
+        }
+
+        private String flushStatistics() {
+
+            String statistics = _name + ": " + getRuns() + " runs, " + getOverruns() + " overruns, max lateness " +
+                                _maxLateness + " ms, max duration " + _maxDuration + " ms";
+            _maxLateness = 0;
+            _maxDuration = 0;
+
+            return statistics;
+        }
+    }
+
+    /**
+     * @param threads Number of threads tasks run on
+     */
+    public TimingWheel(int threads) {
+
+        _executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+
+            private final AtomicInteger _count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+
+                Thread thread = new Thread(runnable, TAG + "_" + _count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        _wheel = new ArrayList<>(WHEEL_SIZE);
+        for (int i = 0; i < WHEEL_SIZE; i++)
+            _wheel.add(new LinkedList<ScheduledTask>());
+
+        _tasks = new ArrayList<>();
+        _expired = new ArrayList<>();
+        _startTime = now();
+    }
+
+    private static long now() {
+
+        // Monotonic, unlike the wall clock
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    /**
+     * Run a task periodically
+     * @param name Name of the task, for the statistics
+     * @param delay Time until the first run (milliseconds)
+     * @param period Time between the deadlines of adjacent runs (milliseconds)
+     * @return Handle of the task, to cancel it
+     */
+    public ScheduledTask schedule(String name, Runnable task, long delay, long period) {
+
+        if (period <= 0)
+            throw new IllegalArgumentException("Period must be positive: " + period);
+
+        ScheduledTask scheduled = new ScheduledTask(name, task, now() + Math.max(0, delay), period);
+
+        synchronized (this) {
+            _tasks.add(scheduled);
+            place(scheduled);
+        }
+
+        return scheduled;
+    }
+
+    /**
+     * Put a task in the slot of its deadline, the next tick if it's already due
+     */
+    private void place(ScheduledTask task) {
+
+        long tick = Math.max((task._deadline - _startTime) / TICK, _tick);
+
+        task._rounds = (tick - _tick) / WHEEL_SIZE;
+        _wheel.get((int)(tick & (WHEEL_SIZE - 1))).add(task);
+    }
+
+    /**
+     * Expire the tasks due at the next tick, and reschedule them for their next period
+     */
+    private void tick() {
+
+        List<ScheduledTask> expired = _expired;
+        expired.clear();
+        long tickEnd;
+
+        synchronized (this) {
+
+            tickEnd = _startTime + (_tick + 1) * TICK;
+
+            Iterator<ScheduledTask> iterator = _wheel.get((int)(_tick & (WHEEL_SIZE - 1))).iterator();
+            while (iterator.hasNext()) {
+
+                ScheduledTask task = iterator.next();
+
+                if (task._isCancelled) {
+                    iterator.remove();
+                    _tasks.remove(task);
+                }
+                else if (task._rounds > 0) {
+                    task._rounds--;
+                }
+                else {
+                    iterator.remove();
+                    expired.add(task);
+                }
+            }
+
+            _tick++;
+
+            for (int i = 0; i < expired.size(); i++) {
+
+                ScheduledTask task = expired.get(i);
+                long deadline = task._deadline;
+
+                // Next deadline follows the previous one, runs missed altogether are overruns
+                task._deadline += task._period;
+                while (task._deadline < tickEnd - TICK) {
+                    task._deadline += task._period;
+                    task._overruns.incrementAndGet();
+                }
+
+                place(task);
+
+                if (task._isRunning.compareAndSet(false, true)) {
+                    task._runDeadline = deadline;
+                    try {
+                        _executor.execute(task);
+                    } catch (RejectedExecutionException e) {
+                        task._isRunning.set(false); // Deactivated meanwhile
+                    }
+                }
+                else {
+                    task._overruns.incrementAndGet(); // Previous run is still running
+                }
+            }
+        }
+    }
+
+    /**
+     * Start the ticker thread
+     */
+    public void activate() {
+
+        _running = true;
+
+        _ticker = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+
+                try {
+                    while (_running) {
+
+                        // Tick boundaries are fixed in time, so sleeping late doesn't push the following ticks
+                        long wait;
+                        synchronized (TimingWheel.this) {
+                            wait = _startTime + (_tick + 1) * TICK - now();
+                        }
+
+                        if (wait > 0)
+                            Thread.sleep(wait);
+
+                        tick();
+                    }
+                } catch (InterruptedException e) {
+                    Log.i(TAG, "Ticker interrupted");
+                }
+            }
+        }, TAG);
+
+        _ticker.setDaemon(true);
+        _ticker.start();
+    }
+
+    /**
+     * Stop the ticker and the tasks threads, waiting for the runs in progress to complete, so the state the
+     * tasks share may be used by the caller once this returns
+     * @return False if a run didn't complete in time
+     */
+    public boolean deactivate() {
+
+        _running = false;
+
+        if (_ticker != null)
+            _ticker.interrupt();
+
+        _executor.shutdown();
+
+        try {
+            if (_executor.awaitTermination(TERMINATION_TIMEOUT, TimeUnit.MILLISECONDS))
+                return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        Log.e(TAG, "Runs in progress didn't complete in " + TERMINATION_TIMEOUT + " ms");
+        return false;
+    }
+
+    /**
+     * Log the statistics of all tasks, and reset their maxima
+     */
+    public void flushStatistics() {
+
+        List<ScheduledTask> tasks;
+        synchronized (this) {
+            tasks = new ArrayList<>(_tasks);
+        }
+
+        for (ScheduledTask task: tasks)
+            Log.i(TAG, task.flushStatistics());
+    }
+}
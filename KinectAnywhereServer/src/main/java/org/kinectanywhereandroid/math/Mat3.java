@@ -0,0 +1,293 @@
+package org.kinectanywhereandroid.math;
+
+/**
+ * Mutable 3x3 matrix backed by primitive fields, mostly used for rotations.
+ * Operations write into this instance and are safe to use when this instance is also an operand.
+ */
+public final class Mat3 {
+
+    /** For floating points rounding errors */
+    private static final double EPSILON = 0.000001;
+
+    public double m00, m01, m02;
+    public double m10, m11, m12;
+    public double m20, m21, m22;
+
+    /**
+     * Creates a new identity matrix
+     */
+    public Mat3() {
+
+        setIdentity();
+    }
+
+    public Mat3 set(double m00, double m01, double m02,
+                    double m10, double m11, double m12,
+                    double m20, double m21, double m22) {
+
+        this.m00 = m00; this.m01 = m01; this.m02 = m02;
+        this.m10 = m10; this.m11 = m11; this.m12 = m12;
+        this.m20 = m20; this.m21 = m21; this.m22 = m22;
+        return this;
+    }
+
+    public Mat3 set(Mat3 other) {
+
+        return set(other.m00, other.m01, other.m02,
+                   other.m10, other.m11, other.m12,
+                   other.m20, other.m21, other.m22);
+    }
+
+    public Mat3 setIdentity() {
+
+        return set(1, 0, 0,
+                   0, 1, 0,
+                   0, 0, 1);
+    }
+
+    public Mat3 setZero() {
+
+        return set(0, 0, 0,
+                   0, 0, 0,
+                   0, 0, 0);
+    }
+
+    /**
+     * @param row Row index (0 - 2)
+     * @param col Column index (0 - 2)
+     * @return The matrix element at (row, col)
+     */
+    public double get(int row, int col) {
+
+        switch (row * 3 + col) {
+            case 0: return m00;
+            case 1: return m01;
+            case 2: return m02;
+            case 3: return m10;
+            case 4: return m11;
+            case 5: return m12;
+            case 6: return m20;
+            case 7: return m21;
+            case 8: return m22;
+            default: throw new IndexOutOfBoundsException("Mat3 index out of range: (" + row + "," + col + ")");
+        }
+    }
+
+    /** this = a * b */
+    public Mat3 mul(Mat3 a, Mat3 b) {
+
+        return set(a.m00 * b.m00 + a.m01 * b.m10 + a.m02 * b.m20,
+                   a.m00 * b.m01 + a.m01 * b.m11 + a.m02 * b.m21,
+                   a.m00 * b.m02 + a.m01 * b.m12 + a.m02 * b.m22,
+                   a.m10 * b.m00 + a.m11 * b.m10 + a.m12 * b.m20,
+                   a.m10 * b.m01 + a.m11 * b.m11 + a.m12 * b.m21,
+                   a.m10 * b.m02 + a.m11 * b.m12 + a.m12 * b.m22,
+                   a.m20 * b.m00 + a.m21 * b.m10 + a.m22 * b.m20,
+                   a.m20 * b.m01 + a.m21 * b.m11 + a.m22 * b.m21,
+                   a.m20 * b.m02 + a.m21 * b.m12 + a.m22 * b.m22);
+    }
+
+    /** this = this * other */
+    public Mat3 mul(Mat3 other) {
+
+        return mul(this, other);
+    }
+
+    /** this = src' */
+    public Mat3 transpose(Mat3 src) {
+
+        return set(src.m00, src.m10, src.m20,
+                   src.m01, src.m11, src.m21,
+                   src.m02, src.m12, src.m22);
+    }
+
+    public Mat3 transpose() {
+
+        return transpose(this);
+    }
+
+    public double trace() {
+
+        return m00 + m11 + m22;
+    }
+
+    public double det() {
+
+        return m00 * (m11 * m22 - m12 * m21) -
+               m01 * (m10 * m22 - m12 * m20) +
+               m02 * (m10 * m21 - m11 * m20);
+    }
+
+    /** this += other */
+    public Mat3 add(Mat3 other) {
+
+        return set(m00 + other.m00, m01 + other.m01, m02 + other.m02,
+                   m10 + other.m10, m11 + other.m11, m12 + other.m12,
+                   m20 + other.m20, m21 + other.m21, m22 + other.m22);
+    }
+
+    /** this -= other */
+    public Mat3 sub(Mat3 other) {
+
+        return set(m00 - other.m00, m01 - other.m01, m02 - other.m02,
+                   m10 - other.m10, m11 - other.m11, m12 - other.m12,
+                   m20 - other.m20, m21 - other.m21, m22 - other.m22);
+    }
+
+    /** this += value * I */
+    public Mat3 addDiagonal(double value) {
+
+        m00 += value;
+        m11 += value;
+        m22 += value;
+        return this;
+    }
+
+    /** this = (this + this') / 2, removes asymmetry accumulated by rounding errors */
+    public Mat3 symmetrize() {
+
+        double a01 = (m01 + m10) * 0.5;
+        double a02 = (m02 + m20) * 0.5;
+        double a12 = (m12 + m21) * 0.5;
+
+        return set(m00, a01, a02,
+                   a01, m11, a12,
+                   a02, a12, m22);
+    }
+
+    /**
+     * this = inverse of src (adjugate divided by the determinant).
+     * A singular src (determinant ~ 0) sets this matrix to zero.
+     */
+    public Mat3 invert(Mat3 src) {
+
+        double det = src.det();
+
+        if (Math.abs(det) <= EPSILON * EPSILON)
+            return setZero();
+
+        double invDet = 1 / det;
+
+        return set((src.m11 * src.m22 - src.m12 * src.m21) * invDet,
+                   (src.m02 * src.m21 - src.m01 * src.m22) * invDet,
+                   (src.m01 * src.m12 - src.m02 * src.m11) * invDet,
+                   (src.m12 * src.m20 - src.m10 * src.m22) * invDet,
+                   (src.m00 * src.m22 - src.m02 * src.m20) * invDet,
+                   (src.m02 * src.m10 - src.m00 * src.m12) * invDet,
+                   (src.m10 * src.m21 - src.m11 * src.m20) * invDet,
+                   (src.m01 * src.m20 - src.m00 * src.m21) * invDet,
+                   (src.m00 * src.m11 - src.m01 * src.m10) * invDet);
+    }
+
+    /** @return v' * this * v */
+    public double quadraticForm(Vec3 v) {
+
+        return v.x * (m00 * v.x + m01 * v.y + m02 * v.z) +
+               v.y * (m10 * v.x + m11 * v.y + m12 * v.z) +
+               v.z * (m20 * v.x + m21 * v.y + m22 * v.z);
+    }
+
+    /** out = this * v (safe when out is v) */
+    public Vec3 transform(Vec3 v, Vec3 out) {
+
+        return out.set(m00 * v.x + m01 * v.y + m02 * v.z,
+                       m10 * v.x + m11 * v.y + m12 * v.z,
+                       m20 * v.x + m21 * v.y + m22 * v.z);
+    }
+
+    /**
+     * Sets this matrix to the rotation encoded by an axis angle vector (Rodrigues formula)
+     * @param r Axis angle vector: the rotation axis, scaled by the angle of rotation (radians)
+     */
+    public Mat3 setAxisAngle(Vec3 r) {
+
+        // The angle of rotation is encoded in the norm of axisAngle
+        double theta = r.norm();
+
+        // Rotation matrix is identity
+        if (theta <= EPSILON)
+            return setIdentity();
+
+        // Define: u = r / theta
+        double ux = r.x / theta;
+        double uy = r.y / theta;
+        double uz = r.z / theta;
+
+        double cosTheta = Math.cos(theta);
+        double sinTheta = Math.sin(theta);
+        double oneMinusCosTheta = 1 - cosTheta;
+
+        return set(cosTheta + oneMinusCosTheta * ux * ux,
+                   oneMinusCosTheta * ux * uy - sinTheta * uz,
+                   oneMinusCosTheta * ux * uz + sinTheta * uy,
+                   oneMinusCosTheta * uy * ux + sinTheta * uz,
+                   cosTheta + oneMinusCosTheta * uy * uy,
+                   oneMinusCosTheta * uy * uz - sinTheta * ux,
+                   oneMinusCosTheta * uz * ux - sinTheta * uy,
+                   oneMinusCosTheta * uz * uy + sinTheta * ux,
+                   cosTheta + oneMinusCosTheta * uz * uz);
+    }
+
+    /**
+     * Converts this rotation matrix to axis angle format (inverse Rodrigues formula).
+     * This matrix is expected to be a rotation matrix in SO3, where det(R) = 1 and R' * R = I.
+     * @param out Axis angle vector: the rotation axis, scaled by the angle of rotation (radians)
+     * @return out
+     *
+     * @see <a href="https://www.cs.duke.edu/courses/fall13/compsci527/notes/rodrigues.pdf">Rodrigues</a>
+     */
+    public Vec3 toAxisAngle(Vec3 out) {
+
+        // p = [ a21 a02 a10 ]' where A = (R - R') / 2
+        double px = (m21 - m12) * 0.5;
+        double py = (m02 - m20) * 0.5;
+        double pz = (m10 - m01) * 0.5;
+
+        double s = Math.sqrt(px * px + py * py + pz * pz);
+        double c = (trace() - 1) * 0.5;
+
+        // If s = 0, c = 1 (avoid floating points rounding errors)
+        if ((s <= EPSILON) && (c <= 1 + EPSILON) && (1 - EPSILON <= c))
+            return out.setZero();
+
+        // s = 0, c = -1: rotation by PI, the axis is any non zero column of R + I
+        if ((s <= EPSILON) && (c <= -1 + EPSILON) && (-1 - EPSILON <= c)) {
+
+            double vx = m00 + 1, vy = m10, vz = m20;
+            double norm = Math.sqrt(vx * vx + vy * vy + vz * vz);
+
+            if (norm <= EPSILON) {
+                vx = m01; vy = m11 + 1; vz = m21;
+                norm = Math.sqrt(vx * vx + vy * vy + vz * vz);
+            }
+
+            if (norm <= EPSILON) {
+                vx = m02; vy = m12; vz = m22 + 1;
+                norm = Math.sqrt(vx * vx + vy * vy + vz * vz);
+            }
+
+            out.set(vx, vy, vz).scale(Math.PI / norm);
+
+            // r and -r are the same rotation by PI, keep the canonical (positive) half space
+            if (((out.x == 0) && (out.y == 0) && (out.z < 0)) || ((out.x == 0) && (out.y < 0)) || (out.x < 0))
+                out.scale(-1);
+
+            return out;
+        }
+
+        double theta = Math.atan2(s, c);
+
+        // Sin theta != 0
+        if (Math.abs(Math.sin(theta)) > EPSILON)
+            return out.set(px, py, pz).scale(theta / s);
+
+        return out.setZero(); // Undefined - shouldn't happen
+    }
+
+    @Override
+    public String toString() {
+        return "[" + m00 + "," + m01 + "," + m02 + "; " +
+                     m10 + "," + m11 + "," + m12 + "; " +
+                     m20 + "," + m21 + "," + m22 + "]";
+    }
+}
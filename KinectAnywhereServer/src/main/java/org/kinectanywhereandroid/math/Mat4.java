@@ -0,0 +1,259 @@
+package org.kinectanywhereandroid.math;
+
+import Jama.Matrix;
+
+/**
+ * Mutable 4x4 homogeneous transformation matrix backed by primitive fields.
+ * Operations write into this instance and are safe to use when this instance is also an operand.
+ *
+ *   [ R R R Tx
+ *     R R R Ty
+ *     R R R Tz
+ *     0 0 0 1 ]
+ */
+public final class Mat4 {
+
+    public double m00, m01, m02, m03;
+    public double m10, m11, m12, m13;
+    public double m20, m21, m22, m23;
+    public double m30, m31, m32, m33;
+
+    /**
+     * Creates a new identity matrix
+     */
+    public Mat4() {
+
+        setIdentity();
+    }
+
+    /**
+     * Creates a copy of a 4x4 Jama matrix
+     */
+    public Mat4(Matrix matrix) {
+
+        set(matrix);
+    }
+
+    public Mat4(Mat4 other) {
+
+        set(other);
+    }
+
+    public Mat4 set(double m00, double m01, double m02, double m03,
+                    double m10, double m11, double m12, double m13,
+                    double m20, double m21, double m22, double m23,
+                    double m30, double m31, double m32, double m33) {
+
+        this.m00 = m00; this.m01 = m01; this.m02 = m02; this.m03 = m03;
+        this.m10 = m10; this.m11 = m11; this.m12 = m12; this.m13 = m13;
+        this.m20 = m20; this.m21 = m21; this.m22 = m22; this.m23 = m23;
+        this.m30 = m30; this.m31 = m31; this.m32 = m32; this.m33 = m33;
+        return this;
+    }
+
+    public Mat4 set(Mat4 other) {
+
+        return set(other.m00, other.m01, other.m02, other.m03,
+                   other.m10, other.m11, other.m12, other.m13,
+                   other.m20, other.m21, other.m22, other.m23,
+                   other.m30, other.m31, other.m32, other.m33);
+    }
+
+    /**
+     * @param matrix 4x4 Jama matrix
+     */
+    public Mat4 set(Matrix matrix) {
+
+        double[][] m = matrix.getArray();
+        return set(m[0][0], m[0][1], m[0][2], m[0][3],
+                   m[1][0], m[1][1], m[1][2], m[1][3],
+                   m[2][0], m[2][1], m[2][2], m[2][3],
+                   m[3][0], m[3][1], m[3][2], m[3][3]);
+    }
+
+    /**
+     * Composes a homogeneous transformation from a rotation and a translation
+     */
+    public Mat4 set(Mat3 rotation, Vec3 translation) {
+
+        return set(rotation.m00, rotation.m01, rotation.m02, translation.x,
+                   rotation.m10, rotation.m11, rotation.m12, translation.y,
+                   rotation.m20, rotation.m21, rotation.m22, translation.z,
+                   0, 0, 0, 1);
+    }
+
+    public Mat4 setIdentity() {
+
+        return set(1, 0, 0, 0,
+                   0, 1, 0, 0,
+                   0, 0, 1, 0,
+                   0, 0, 0, 1);
+    }
+
+    /**
+     * @return A new 4x4 Jama matrix copy of this matrix
+     */
+    public Matrix toMatrix() {
+
+        return new Matrix(new double[][] {
+                { m00, m01, m02, m03 },
+                { m10, m11, m12, m13 },
+                { m20, m21, m22, m23 },
+                { m30, m31, m32, m33 }
+        });
+    }
+
+    /** out = top left 3x3 rotation sub-matrix */
+    public Mat3 getRotation(Mat3 out) {
+
+        return out.set(m00, m01, m02,
+                       m10, m11, m12,
+                       m20, m21, m22);
+    }
+
+    /** out = top right 3x1 translation sub-vector */
+    public Vec3 getTranslation(Vec3 out) {
+
+        return out.set(m03, m13, m23);
+    }
+
+    /** this = a * b (compose: apply b first, then a) */
+    public Mat4 mul(Mat4 a, Mat4 b) {
+
+        return set(a.m00 * b.m00 + a.m01 * b.m10 + a.m02 * b.m20 + a.m03 * b.m30,
+                   a.m00 * b.m01 + a.m01 * b.m11 + a.m02 * b.m21 + a.m03 * b.m31,
+                   a.m00 * b.m02 + a.m01 * b.m12 + a.m02 * b.m22 + a.m03 * b.m32,
+                   a.m00 * b.m03 + a.m01 * b.m13 + a.m02 * b.m23 + a.m03 * b.m33,
+                   a.m10 * b.m00 + a.m11 * b.m10 + a.m12 * b.m20 + a.m13 * b.m30,
+                   a.m10 * b.m01 + a.m11 * b.m11 + a.m12 * b.m21 + a.m13 * b.m31,
+                   a.m10 * b.m02 + a.m11 * b.m12 + a.m12 * b.m22 + a.m13 * b.m32,
+                   a.m10 * b.m03 + a.m11 * b.m13 + a.m12 * b.m23 + a.m13 * b.m33,
+                   a.m20 * b.m00 + a.m21 * b.m10 + a.m22 * b.m20 + a.m23 * b.m30,
+                   a.m20 * b.m01 + a.m21 * b.m11 + a.m22 * b.m21 + a.m23 * b.m31,
+                   a.m20 * b.m02 + a.m21 * b.m12 + a.m22 * b.m22 + a.m23 * b.m32,
+                   a.m20 * b.m03 + a.m21 * b.m13 + a.m22 * b.m23 + a.m23 * b.m33,
+                   a.m30 * b.m00 + a.m31 * b.m10 + a.m32 * b.m20 + a.m33 * b.m30,
+                   a.m30 * b.m01 + a.m31 * b.m11 + a.m32 * b.m21 + a.m33 * b.m31,
+                   a.m30 * b.m02 + a.m31 * b.m12 + a.m32 * b.m22 + a.m33 * b.m32,
+                   a.m30 * b.m03 + a.m31 * b.m13 + a.m32 * b.m23 + a.m33 * b.m33);
+    }
+
+    /** this = this * other */
+    public Mat4 mul(Mat4 other) {
+
+        return mul(this, other);
+    }
+
+    /**
+     * this = inverse of a rigid transformation (rotation & translation only)
+     * Inverse of [ R T ] is [ R' -R'T ]
+     *            [ 0 1 ]    [ 0   1  ]
+     */
+    public Mat4 invertRigid(Mat4 src) {
+
+        double tx = -(src.m00 * src.m03 + src.m10 * src.m13 + src.m20 * src.m23);
+        double ty = -(src.m01 * src.m03 + src.m11 * src.m13 + src.m21 * src.m23);
+        double tz = -(src.m02 * src.m03 + src.m12 * src.m13 + src.m22 * src.m23);
+
+        return set(src.m00, src.m10, src.m20, tx,
+                   src.m01, src.m11, src.m21, ty,
+                   src.m02, src.m12, src.m22, tz,
+                   0, 0, 0, 1);
+    }
+
+    public Mat4 invertRigid() {
+
+        return invertRigid(this);
+    }
+
+    /** out = this * (p, 1) (safe when out is p) */
+    public Vec3 transformPoint(Vec3 p, Vec3 out) {
+
+        return out.set(m00 * p.x + m01 * p.y + m02 * p.z + m03,
+                       m10 * p.x + m11 * p.y + m12 * p.z + m13,
+                       m20 * p.x + m21 * p.y + m22 * p.z + m23);
+    }
+
+    /**
+     * Transforms a batch of points stored as consecutive (x, y, z) triplets.
+     * Source and destination may be the same array (in place transform).
+     * @param src Source points
+     * @param srcOffset Index of the first coordinate of the first point in src
+     * @param dst Destination of the transformed points
+     * @param dstOffset Index of the first coordinate of the first point in dst
+     * @param count Number of points to transform
+     */
+    public void transformPoints(float[] src, int srcOffset, float[] dst, int dstOffset, int count) {
+
+        // Copy to locals so the JIT can keep them in registers through the loop
+        double r00 = m00, r01 = m01, r02 = m02, tx = m03;
+        double r10 = m10, r11 = m11, r12 = m12, ty = m13;
+        double r20 = m20, r21 = m21, r22 = m22, tz = m23;
+
+        for (int i = 0; i < count; i++) {
+
+            int s = srcOffset + i * 3;
+            int d = dstOffset + i * 3;
+            double x = src[s];
+            double y = src[s + 1];
+            double z = src[s + 2];
+
+            dst[d]     = (float)(r00 * x + r01 * y + r02 * z + tx);
+            dst[d + 1] = (float)(r10 * x + r11 * y + r12 * z + ty);
+            dst[d + 2] = (float)(r20 * x + r21 * y + r22 * z + tz);
+        }
+    }
+
+    /**
+     * Writes this matrix in row major order, as single precision floats.
+     * @param out Array of at least 16 elements
+     * @return out
+     */
+    public float[] toFloatArray(float[] out) {
+
+        out[0]  = (float)m00; out[1]  = (float)m01; out[2]  = (float)m02; out[3]  = (float)m03;
+        out[4]  = (float)m10; out[5]  = (float)m11; out[6]  = (float)m12; out[7]  = (float)m13;
+        out[8]  = (float)m20; out[9]  = (float)m21; out[10] = (float)m22; out[11] = (float)m23;
+        out[12] = (float)m30; out[13] = (float)m31; out[14] = (float)m32; out[15] = (float)m33;
+        return out;
+    }
+
+    /**
+     * Transforms a batch of points stored as consecutive (x, y, z) triplets, using a single precision
+     * row major matrix (see toFloatArray). Source and destination may be the same array (in place transform).
+     * @param matrix 4x4 homogeneous transformation in row major order
+     * @param src Source points
+     * @param srcOffset Index of the first coordinate of the first point in src
+     * @param dst Destination of the transformed points
+     * @param dstOffset Index of the first coordinate of the first point in dst
+     * @param count Number of points to transform
+     */
+    public static void transformPoints(float[] matrix, float[] src, int srcOffset,
+                                       float[] dst, int dstOffset, int count) {
+
+        float r00 = matrix[0], r01 = matrix[1], r02 = matrix[2],  tx = matrix[3];
+        float r10 = matrix[4], r11 = matrix[5], r12 = matrix[6],  ty = matrix[7];
+        float r20 = matrix[8], r21 = matrix[9], r22 = matrix[10], tz = matrix[11];
+
+        for (int i = 0; i < count; i++) {
+
+            int s = srcOffset + i * 3;
+            int d = dstOffset + i * 3;
+            float x = src[s];
+            float y = src[s + 1];
+            float z = src[s + 2];
+
+            dst[d]     = r00 * x + r01 * y + r02 * z + tx;
+            dst[d + 1] = r10 * x + r11 * y + r12 * z + ty;
+            dst[d + 2] = r20 * x + r21 * y + r22 * z + tz;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "[" + m00 + "," + m01 + "," + m02 + "," + m03 + "; " +
+                     m10 + "," + m11 + "," + m12 + "," + m13 + "; " +
+                     m20 + "," + m21 + "," + m22 + "," + m23 + "; " +
+                     m30 + "," + m31 + "," + m32 + "," + m33 + "]";
+    }
+}
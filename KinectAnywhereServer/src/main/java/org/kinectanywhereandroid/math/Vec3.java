@@ -0,0 +1,100 @@
+package org.kinectanywhereandroid.math;
+
+/**
+ * Mutable 3d vector backed by primitive fields.
+ * Operations write into this instance, so hot loops can reuse vectors instead of allocating new ones.
+ */
+public final class Vec3 {
+
+    public double x;
+    public double y;
+    public double z;
+
+    /**
+     * Creates a new vector at (0, 0, 0)
+     */
+    public Vec3() {
+
+        this(0, 0, 0);
+    }
+
+    public Vec3(double x, double y, double z) {
+
+        this.x = x;
+        this.y = y;
+        this.z = z;
+    }
+
+    public Vec3 set(double x, double y, double z) {
+
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        return this;
+    }
+
+    public Vec3 set(Vec3 other) {
+
+        return set(other.x, other.y, other.z);
+    }
+
+    public Vec3 setZero() {
+
+        return set(0, 0, 0);
+    }
+
+    /** this += other */
+    public Vec3 add(Vec3 other) {
+
+        return set(x + other.x, y + other.y, z + other.z);
+    }
+
+    /** this -= other */
+    public Vec3 sub(Vec3 other) {
+
+        return set(x - other.x, y - other.y, z - other.z);
+    }
+
+    /** this *= factor */
+    public Vec3 scale(double factor) {
+
+        return set(x * factor, y * factor, z * factor);
+    }
+
+    /** this += other * factor */
+    public Vec3 addScaled(Vec3 other, double factor) {
+
+        return set(x + other.x * factor, y + other.y * factor, z + other.z * factor);
+    }
+
+    /** this = a x b (safe when this is one of the operands) */
+    public Vec3 cross(Vec3 a, Vec3 b) {
+
+        return set(a.y * b.z - a.z * b.y,
+                   a.z * b.x - a.x * b.z,
+                   a.x * b.y - a.y * b.x);
+    }
+
+    public double dot(Vec3 other) {
+
+        return x * other.x + y * other.y + z * other.z;
+    }
+
+    public double norm() {
+
+        return Math.sqrt(x * x + y * y + z * z);
+    }
+
+    public double distanceSquared(Vec3 other) {
+
+        double dx = x - other.x;
+        double dy = y - other.y;
+        double dz = z - other.z;
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    @Override
+    public String toString() {
+        return "(" + x + "," + y + "," + z + ")";
+    }
+}
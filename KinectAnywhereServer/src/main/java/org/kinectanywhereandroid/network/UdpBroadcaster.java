@@ -0,0 +1,86 @@
+package org.kinectanywhereandroid.network;
+
+import android.util.Log;
+
+import org.kinectanywhereandroid.framework.TimingWheel;
+import org.kinectanywhereandroid.util.DataHolder;
+import org.kinectanywhereandroid.util.DataHolderEntry;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Broadcasts a beacon periodically so clients may find the server, or the next queued message instead
+ */
+public class UdpBroadcaster implements Runnable {
+    private final static String TAG = "UDP_BROADCASTER";
+    public static final int TIME_TO_WAIT_BETWEEN_BROADCASTING_MILLIS = 2000;
+
+    Queue<String> _messageQueue;
+    int broadcastingPort;
+    InetAddress address;
+    DatagramSocket socket;
+    TimingWheel.ScheduledTask _task;
+    boolean running;
+
+    public UdpBroadcaster(int broadcastingPort) {
+        super();
+        this.broadcastingPort = broadcastingPort;
+
+        _messageQueue = new ConcurrentLinkedQueue<>();
+        DataHolder.INSTANCE.save(DataHolderEntry.BROADCASTING_QUEUE, _messageQueue);
+    }
+
+    public synchronized void activate() {
+
+        running = true;
+        TimingWheel scheduler = DataHolder.INSTANCE.retrieve(DataHolderEntry.SCHEDULER);
+        _task = scheduler.schedule(TAG, this, 0, TIME_TO_WAIT_BETWEEN_BROADCASTING_MILLIS);
+    }
+
+    public synchronized void deactivate() {
+
+        running = false;
+        _task.cancel();
+
+        if(socket != null){
+            socket.close();
+            socket = null;
+            Log.e(TAG, "socket.close()");
+        }
+    }
+
+    @Override
+    public synchronized void run() {
+
+        if (!running)
+            return;
+
+        try {
+            // Opened on the first beacon, off the UI thread
+            if (socket == null) {
+                address = InetAddress.getByName(Utils.getBroadcastingAddress());
+                socket = new DatagramSocket();
+                socket.setBroadcast(true);
+            }
+
+            String msg;
+            if (_messageQueue.isEmpty()) {
+                msg = "SERVER";
+            } else {
+                msg = _messageQueue.poll();
+            }
+
+            byte[] sendData = msg.getBytes();
+
+            DatagramPacket sendPacket = new DatagramPacket(sendData, sendData.length, address, broadcastingPort);
+            socket.send(sendPacket);
+
+        } catch (Exception e) {
+            Log.e(TAG, e.getLocalizedMessage());
+        }
+    }
+}
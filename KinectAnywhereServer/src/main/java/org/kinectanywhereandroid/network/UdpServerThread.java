@@ -17,16 +17,19 @@ import java.net.SocketException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 // Good example: http://android-er.blogspot.co.il/2016/06/android-datagramudp-server-example.html
 
 public class UdpServerThread extends Thread{
     private final static String TAG = "UDP_SERVER_THREAD";
+
+    // Enum values() allocates a copy on each call, keep a single copy for parsing
+    private final static Joint.JointType[] JOINT_TYPES = Joint.JointType.values();
+    private final static Joint.JointTrackingState[] TRACKING_STATES = Joint.JointTrackingState.values();
+
     int serverPort;
     MainActivity mActivity;
     DatagramSocket socket;
@@ -40,7 +43,7 @@ public class UdpServerThread extends Thread{
         this.serverPort = serverPort;
         this.mActivity = mActivity;
 
-        _kinectDict = new HashMap<>();
+        _kinectDict = new ConcurrentHashMap<>(); // Hosts are evicted from another thread
         DataHolder.INSTANCE.save(DataHolderEntry.CONNECTED_HOSTS, _kinectDict); // Share hosts list with rest of app modules
 
         if (isRecord) {
@@ -64,63 +67,47 @@ public class UdpServerThread extends Thread{
         });
     }
 
-    public List<Skeleton> parseSkeleton(final DatagramPacket packet, int i) {
-        float[] points = new float[3];
-        byte[] point = new byte[4];
-        byte[] timestampsBytes = new byte[8];
-
-        // Parse timestamp
-        for (int k = 0; k < 8; k++) {   // Get current point from packet
-            timestampsBytes[k] = packet.getData()[i + k];
-        }
+    /**
+     * @param buffer Little endian view of the packet data, fields are read in place
+     * @return Skeletons of the packet, obtained from the pools of the kinects (see RemoteKinect.obtainSample)
+     */
+    public List<Skeleton> parseSkeleton(final DatagramPacket packet, ByteBuffer buffer, int i) {
 
-        i += 8;
+        byte[] data = packet.getData();
 
         // C# TimeSpan measures milliseconds and fraction of milliseconds in double,
         // Java uses long for currentTime.
-        double csharp_timestamp = ByteBuffer.wrap(timestampsBytes).order(ByteOrder.LITTLE_ENDIAN).getDouble();
+        double csharp_timestamp = buffer.getDouble(i);
         long timestamp = (long)csharp_timestamp; // We work in resolution of milliseconds anyway
 
-        List<Skeleton> skeletonList = new LinkedList<>();
+        i += 8;
+
+        List<Skeleton> skeletonList = RemoteKinect.obtainSample();
 
         while (i < packet.getLength()) {
-            Skeleton skeleton = new Skeleton();
+            Skeleton skeleton = RemoteKinect.obtainSkeleton();
 
             skeleton.setTimestamp(timestamp);
 
             // Parse skeletons tracker id
-            for (int k = 0; k < 4; k++) {   // Get current point from packet
-                point[k] = packet.getData()[i + k];
-            }
-            skeleton.trackingId = ByteBuffer.wrap(point).order(ByteOrder.LITTLE_ENDIAN).getInt();
+            skeleton.trackingId = buffer.getInt(i);
 
             i += 4;
 
-            // Parse joints
+            // Parse joints, joints missing from the packet stay not tracked
             while (i < packet.getLength()) {
-                Joint joint = new Joint();
+                Joint joint = skeleton.joints[JOINT_TYPES[data[i++]].getValue()]; // Get current type from packet
 
-                joint.type = Joint.JointType.values()[packet.getData()[i++]]; // Get current type from packet
-                joint.trackingState = Joint.JointTrackingState.values()[packet.getData()[i++]]; // Get current type from packet
+                joint.trackingState = TRACKING_STATES[data[i++]]; // Get current type from packet
 
-                for (int j = 0; j < 3; j++) { // For every point in joint (x,y,z):
-                    for (int k = 0; k < 4; k++) {   // Get current point from packet
-                        point[k] = packet.getData()[i + k];
-                    }
-
-                    points[j] = ByteBuffer.wrap(point).order(ByteOrder.LITTLE_ENDIAN).getFloat(); // Convert current point to float
-                    i += 4;
-                }
-
-                // Create joint from points
-                joint.x = points[0];
-                joint.y = points[1];
-                joint.z = points[2];
-
-                skeleton.joints[joint.type.getValue()] = joint;
+                // Create joint from points (x,y,z)
+                joint.x = buffer.getFloat(i);
+                joint.y = buffer.getFloat(i + 4);
+                joint.z = buffer.getFloat(i + 8);
+                i += 12;
 
                 // Check for end of skeleton
-                if (packet.getData()[i] == -1 && packet.getData()[i+1] == -1) {
+                if (data[i] == -1 && data[i+1] == -1) {
                     i += 2;
                     break;
                 }
@@ -146,48 +133,67 @@ public class UdpServerThread extends Thread{
             Log.e(TAG, "UDP Server is running");
 
 
+            // Packets are parsed before the next one is received, so a single buffer serves them all
+            byte[] buf = new byte[5000];
+            DatagramPacket packet = new DatagramPacket(buf, buf.length);
+            ByteBuffer packetView = ByteBuffer.wrap(buf).order(ByteOrder.LITTLE_ENDIAN);
+
             while(running){
-                byte[] buf = new byte[5000];
 
                 // receive request
-                DatagramPacket packet = new DatagramPacket(buf, buf.length);
+                packet.setLength(buf.length); // Shrunk to the size of the previous packet
                 socket.receive(packet);   //this code block the program flow
 
-                // Parse timestamp
-                byte[] hostnameBytes = new byte[30];
+                // Parse hostname, decoded in place
                 int i = 0;
-                while (packet.getData()[i] != 0) {
-                    hostnameBytes[i] = packet.getData()[i];
+                while ((i < packet.getLength()) && (buf[i] != 0)) {
                     i++;
                 }
 
-                String hostname = new String(Arrays.copyOfRange(hostnameBytes, 0, i), StandardCharsets.US_ASCII);
+                // Hostname must be terminated and followed by the status byte
+                if (i + 1 >= packet.getLength()) {
+                    Log.e(TAG, "Dropped malformed packet of " + packet.getLength() + " bytes");
+                    continue;
+                }
+
+                String hostname = new String(buf, 0, i, StandardCharsets.US_ASCII);
 
                 i++;
 
-                if (_kinectDict.get(hostname) == null) {
+                RemoteKinect remoteKinect = _kinectDict.get(hostname);
+                if (remoteKinect == null) {
 
                     Constructor<? extends RemoteKinect> rkCtor = DataHolder.INSTANCE.retrieve(DataHolderEntry.REMOTE_KINECT_CTOR);
-                    _kinectDict.put(hostname, rkCtor.newInstance());
+                    remoteKinect = rkCtor.newInstance();
+                    _kinectDict.put(hostname, remoteKinect);
                 }
 
                 boolean isKinectON = true;
-                if (packet.getData()[i] == 0) {
+                if (buf[i] == 0) {
                     isKinectON = false;
                 }
                 i++;
 
-                 RemoteKinect remoteKinect = _kinectDict.get(hostname);
                 remoteKinect.lastBeacon = System.currentTimeMillis();
                 remoteKinect.isON = isKinectON;
 
                 if (i < packet.getLength()) {
-                    List<Skeleton> skeletonList = parseSkeleton(packet, i);
-                    remoteKinect.enqueue(skeletonList);
 
+                    List<Skeleton> skeletonList;
+                    try {
+                        skeletonList = parseSkeleton(packet, packetView, i);
+                    } catch (IndexOutOfBoundsException e) {
+                        // Truncated skeleton or unknown joint type, the sample is dropped but the server keeps going
+                        Log.e(TAG, "Dropped malformed packet of " + hostname);
+                        continue;
+                    }
+
+                    // Before the kinect takes the samples, it may recycle them right away
                     if (mServerMock != null) {
                         mServerMock.recordSkels(hostname, skeletonList);
                     }
+
+                    remoteKinect.enqueue(skeletonList);
                 }
             }
 
@@ -16,11 +16,11 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.lang.reflect.Constructor;
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class UDPServerThreadMock extends Thread {
 
@@ -46,11 +46,14 @@ public class UDPServerThreadMock extends Thread {
 
         if (!_isRecord) {
             loadReplay();
-            _kinectDict = new HashMap<>();
+            _kinectDict = new ConcurrentHashMap<>(); // Hosts are evicted from another thread
             DataHolder.INSTANCE.save(DataHolderEntry.CONNECTED_HOSTS, _kinectDict); // Share hosts list with rest of app modules
         }
     }
 
+    /**
+     * @param skelList Samples of a packet, copied: samples are recycled once framed
+     */
     public void recordSkels(String hostname, List<Skeleton> skelList) {
 
         if (!_isRecord)
@@ -59,7 +62,11 @@ public class UDPServerThreadMock extends Thread {
         long now = System.currentTimeMillis();
         long delta = now - _startTime;
 
-        _recordings.offer(new RecordedPacket(delta, hostname, skelList));
+        List<Skeleton> copy = new LinkedList<>();
+        for (Skeleton skeleton: skelList)
+            copy.add(new Skeleton(skeleton));
+
+        _recordings.offer(new RecordedPacket(delta, hostname, copy));
     }
 
     /**
@@ -143,12 +150,13 @@ public class UDPServerThreadMock extends Thread {
                     RecordedPacket nextPacket = _recordings.poll();
 
                     String hostname = nextPacket.hostname;
-                    if (_kinectDict.get(hostname) == null) {
+                    RemoteKinect remoteKinect = _kinectDict.get(hostname);
+                    if (remoteKinect == null) {
                         Constructor<? extends RemoteKinect> rkCtor = DataHolder.INSTANCE.retrieve(DataHolderEntry.REMOTE_KINECT_CTOR);
-                        _kinectDict.put(hostname, rkCtor.newInstance());
+                        remoteKinect = rkCtor.newInstance();
+                        _kinectDict.put(hostname, remoteKinect);
                     }
 
-                    RemoteKinect remoteKinect = _kinectDict.get(hostname);
                     remoteKinect.lastBeacon = System.currentTimeMillis();
                     remoteKinect.enqueue(nextPacket.skels);
                 }
@@ -2,7 +2,11 @@ package org.kinectanywhereandroid.util;
 
 import org.kinectanywhereandroid.algorithm.CalibrationAlgo;
 import org.kinectanywhereandroid.algorithm.CoordinatesTransformer;
+import org.kinectanywhereandroid.algorithm.PersonTracker;
+import org.kinectanywhereandroid.framework.FrameHistory;
+import org.kinectanywhereandroid.framework.OutputScheduler;
 import org.kinectanywhereandroid.framework.RemoteKinect;
+import org.kinectanywhereandroid.framework.TimingWheel;
 import org.kinectanywhereandroid.model.Skeleton;
 
 import java.lang.reflect.Constructor;
@@ -56,6 +60,47 @@ public class DataHolderEntry<T> {
      * Otherwise - the view of all cameras is displayed.
      */
     public final static DataHolderEntry<Boolean> SHOW_AVERAGE_SKELETONS = new DataHolderEntry<>();
+
+    /**
+     * When true - pairwise calibrations are refined into a single consistent set of camera poses
+     * by the pose graph optimizer.
+     */
+    public final static DataHolderEntry<Boolean> POSE_GRAPH_REFINEMENT = new DataHolderEntry<>();
+
+    /**
+     * When true - the calibrations of all camera pairs are solved concurrently on a fork-join pool.
+     */
+    public final static DataHolderEntry<Boolean> PARALLEL_CALIBRATION = new DataHolderEntry<>();
+
+    /**
+     * When true - joints of all skeletons are smoothed before they reach the calibrator & painter.
+     */
+    public final static DataHolderEntry<Boolean> JOINT_SMOOTHING = new DataHolderEntry<>();
+
+    /**
+     * Recent frames of all cameras, for modules that look back further than the current frame
+     */
+    public final static DataHolderEntry<FrameHistory> FRAME_HISTORY = new DataHolderEntry<>();
+
+    /**
+     * Links the skeletons of all cameras to global person ids, stable across cameras and over time
+     */
+    public final static DataHolderEntry<PersonTracker> PERSON_TRACKER = new DataHolderEntry<>();
+
+    /**
+     * How far ahead (milliseconds) the estimated skeletons are predicted when displayed, 0 to show them as last seen
+     */
+    public final static DataHolderEntry<Integer> PREDICTION_LOOK_AHEAD = new DataHolderEntry<>();
+
+    /**
+     * Emits the fused skeletons at a fixed rate, register to it for evenly spaced updates
+     */
+    public final static DataHolderEntry<OutputScheduler> OUTPUT_SCHEDULER = new DataHolderEntry<>();
+
+    /**
+     * Runs all periodic work of the server (frame ticks, beacons, ..), schedule further periodic tasks on it
+     */
+    public final static DataHolderEntry<TimingWheel> SCHEDULER = new DataHolderEntry<>();
 	
 	/**
 	 * Queue for sending broadcast messages
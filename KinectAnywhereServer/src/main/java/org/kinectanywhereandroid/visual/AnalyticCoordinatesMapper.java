@@ -121,6 +121,18 @@ public class AnalyticCoordinatesMapper {
 	 * @return SkeletonPoint projected to 2d.
 	 */
     public PointF MapSkeletonPointToDepthPoint(Joint point)
+    {
+        return MapSkeletonPointToDepthPoint(point, new PointF());
+    }
+
+    /**
+     * Maps a skeleton joint position from the 3d IR camera space to the
+     * device 2d screen space, without allocating (for per frame drawing).
+     * @param point SkeletonPoint in 3d IR camera space.
+     * @param out Receives the SkeletonPoint projected to 2d.
+     * @return out
+     */
+    public PointF MapSkeletonPointToDepthPoint(Joint point, PointF out)
     {
         float xi = point.x;
         float yi = point.y;
@@ -137,6 +149,7 @@ public class AnalyticCoordinatesMapper {
         float xo = _canvasWidth * (1 - (xt / zt)) * 0.5f;
         float yo = _canvasHeight * ((yt / zt) + 0.5f);
 
-        return new PointF(xo, yo);
+        out.set(xo, yo);
+        return out;
     }
 }
\ No newline at end of file
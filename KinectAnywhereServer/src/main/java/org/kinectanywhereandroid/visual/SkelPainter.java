@@ -14,21 +14,29 @@ import android.widget.LinearLayout;
 import org.kinectanywhereandroid.MainActivity;
 import org.kinectanywhereandroid.R;
 import org.kinectanywhereandroid.algorithm.CoordinatesTransformer;
+import org.kinectanywhereandroid.algorithm.PersonTracker;
+import org.kinectanywhereandroid.algorithm.SkeletonBatch;
+import org.kinectanywhereandroid.framework.FrameHistory;
 import org.kinectanywhereandroid.framework.IKinectFrameEventListener;
 import org.kinectanywhereandroid.framework.RemoteKinect;
 import org.kinectanywhereandroid.framework.SingleFrameData;
+import org.kinectanywhereandroid.framework.TimingWheel;
 import org.kinectanywhereandroid.model.Joint;
 import org.kinectanywhereandroid.model.Skeleton;
 import org.kinectanywhereandroid.util.DataHolder;
 import org.kinectanywhereandroid.util.DataHolderEntry;
-import org.kinectanywhereandroid.util.Pair;
 
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static java.lang.Math.abs;
 
@@ -37,9 +45,12 @@ import static java.lang.Math.abs;
  */
 public class SkelPainter implements IKinectFrameEventListener {
 
-    private final static int FPS_DELTA = 60; // Minimal amount of milliseconds between adjacent renderings
+    private final static String TAG = "SKEL_PAINTER";
+
+    private final static int PAINT_PERIOD = 60; // Milliseconds between adjacent renderings
     private final static int CANVAS_WIDTH = 480;
     private final static int CANVAS_HEIGHT = 800;
+    private final static int FROZEN_VIEW_TIMEOUT = 1000; // Skeletons of a camera which tracks none are kept this long
 
     private MainActivity _activity;
     private Bitmap _bg;
@@ -47,9 +58,22 @@ public class SkelPainter implements IKinectFrameEventListener {
     private AnalyticCoordinatesMapper _cm;
     private  ColorsPalette[] COLOR_KITS;
     private int lastKitIndex;
-    private long prevTimestamp;
 
-    private Map<String, Pair<Long, List<Skeleton>>> _lastCameraViews;
+    // Latest frame not drawn yet, retained until drawn or replaced by a later frame
+    private AtomicReference<SingleFrameData> _pendingFrame;
+    private AtomicBoolean _isDrawing;
+    private TimingWheel.ScheduledTask _paintTask;
+
+    // Cameras of the latest frame handed for drawing (frame thread only)
+    private Set<String> _lastCameras;
+
+    // The last drawing showed frozen views, which expire with time (written by the UI thread)
+    private volatile boolean _hasFrozenViews;
+
+    // Projected points, reused between draws (drawing happens on the UI thread only)
+    private PointF _boneStart;
+    private PointF _boneEnd;
+    private PointF _jointCenter;
 
     public ColorsPalette nextColorKit() {
 
@@ -68,8 +92,10 @@ public class SkelPainter implements IKinectFrameEventListener {
         _cm = new AnalyticCoordinatesMapper(CANVAS_WIDTH, CANVAS_HEIGHT);
         _bg = Bitmap.createBitmap(CANVAS_WIDTH, CANVAS_HEIGHT, Bitmap.Config.ARGB_8888);
         _canvas = new Canvas(_bg);
-        _lastCameraViews = new HashMap<>();
         _camerasColorKit = new HashMap<>();
+        _boneStart = new PointF();
+        _boneEnd = new PointF();
+        _jointCenter = new PointF();
 
         ColorsPalette CAM0 = new ColorsPalette().setJointsColor(Color.RED).setBonesColor(ColorsPalette.DARKRED);
         ColorsPalette CAM1 = new ColorsPalette().setJointsColor(Color.BLUE).setBonesColor(ColorsPalette.DARKBLUE);
@@ -83,23 +109,89 @@ public class SkelPainter implements IKinectFrameEventListener {
         COLOR_KITS = new ColorsPalette[]{ CAM0, CAM1, CAM2, CAM3, CAM4, CAM5, CAM6, CAM7 };
 
         lastKitIndex = 0;
-        prevTimestamp = 0;
+        _pendingFrame = new AtomicReference<>();
+        _isDrawing = new AtomicBoolean();
+        _lastCameras = new HashSet<>();
     }
 
     @Override
-    public void handle(final SingleFrameData frame) {
-        long currentTimestamp = System.currentTimeMillis();
-        if (currentTimestamp - prevTimestamp > FPS_DELTA) {
-            prevTimestamp = currentTimestamp;
+    public void handle(SingleFrameData frame) {
 
-            _activity.runOnUiThread( new Runnable() {
+        // Nothing new to draw and nothing on screen changes with time, the last drawing stays on screen
+        boolean isCamerasChanged = !_lastCameras.equals(frame.getCameras());
+        if (!frame.hasChanges() && !isCamerasChanged && !_hasFrozenViews && !isPredicting())
+            return;
 
-                @Override
-                public void run() {
-                    drawSkeletons(frame, _canvas);
-                }
-            });
+        if (isCamerasChanged) {
+            _lastCameras.clear();
+            _lastCameras.addAll(frame.getCameras());
         }
+
+        // Drawn later by the paint task, keep the frame from being recycled until then
+        frame.retain();
+
+        SingleFrameData replaced = _pendingFrame.getAndSet(frame);
+        if (replaced != null)
+            replaced.release();
+    }
+
+    /**
+     * @return True if persons are drawn extrapolated to the current time
+     */
+    private boolean isPredicting() {
+
+        Boolean isShowAverageSkels = DataHolder.INSTANCE.retrieve(DataHolderEntry.SHOW_AVERAGE_SKELETONS);
+        Integer lookAhead = DataHolder.INSTANCE.retrieve(DataHolderEntry.PREDICTION_LOOK_AHEAD);
+
+        return (isShowAverageSkels != null) && isShowAverageSkels && (lookAhead != null) && (lookAhead > 0) &&
+               (DataHolder.INSTANCE.retrieve(DataHolderEntry.MASTER_CAMERA) != null);
+    }
+
+    /**
+     * Start drawing the latest frame periodically, on the ticks of the scheduler
+     */
+    public void activate() {
+
+        TimingWheel scheduler = DataHolder.INSTANCE.retrieve(DataHolderEntry.SCHEDULER);
+        _paintTask = scheduler.schedule(TAG, new Runnable() {
+
+            @Override
+            public void run() {
+
+                // The UI thread may fall behind, then the frame waits for the next tick instead of piling up
+                if (!_isDrawing.compareAndSet(false, true))
+                    return;
+
+                final SingleFrameData frame = _pendingFrame.getAndSet(null);
+                if (frame == null) {
+                    _isDrawing.set(false);
+                    return;
+                }
+
+                _activity.runOnUiThread( new Runnable() {
+
+                    @Override
+                    public void run() {
+                        try {
+                            drawSkeletons(frame, _canvas);
+                        }
+                        finally {
+                            frame.release();
+                            _isDrawing.set(false);
+                        }
+                    }
+                });
+            }
+        }, 0, PAINT_PERIOD);
+    }
+
+    public void deactivate() {
+
+        _paintTask.cancel();
+
+        SingleFrameData frame = _pendingFrame.getAndSet(null);
+        if (frame != null)
+            frame.release();
     }
 
     private void DrawBone(Canvas canvas, Skeleton skeleton,
@@ -123,8 +215,8 @@ public class SkelPainter implements IKinectFrameEventListener {
         }
 
 
-        PointF start = _cm.MapSkeletonPointToDepthPoint(joint0);
-        PointF end = _cm.MapSkeletonPointToDepthPoint(joint1);
+        PointF start = _cm.MapSkeletonPointToDepthPoint(joint0, _boneStart);
+        PointF end = _cm.MapSkeletonPointToDepthPoint(joint1, _boneEnd);
 
         boolean isBoneTracked = (joint0.trackingState == Joint.JointTrackingState.Tracked &&
                                  joint1.trackingState == Joint.JointTrackingState.Tracked);
@@ -181,7 +273,7 @@ public class SkelPainter implements IKinectFrameEventListener {
         for (Joint joint : skeleton.joints)
         {
             // Project 3d point to 2d screen coordinates
-            PointF center = _cm.MapSkeletonPointToDepthPoint(joint);
+            PointF center = _cm.MapSkeletonPointToDepthPoint(joint, _jointCenter);
 
             if (joint.trackingState == Joint.JointTrackingState.Tracked)
             {
@@ -239,7 +331,8 @@ public class SkelPainter implements IKinectFrameEventListener {
             }
 
             String fps = String.format("%02d", kinect.fps());
-            String cameraInfo = cameraName + " @ " + getTimeString(kinect.lastBeacon) + " [" + fps + " FPS]";
+            String cameraInfo = cameraName + " @ " + getTimeString(kinect.lastBeacon) + " [" + fps + " FPS, " +
+                                kinect.getPlayoutDelay() + " ms delay]";
 
             canvas.drawText(cameraInfo, 30, 30 + i * 25, paint);
 
@@ -254,17 +347,25 @@ public class SkelPainter implements IKinectFrameEventListener {
         }
     }
 
+    /**
+     * @return The skeleton in master camera coordinates, or as is if no master camera is defined
+     */
+    private Skeleton toMasterCoordinates(String cameraName, Skeleton skeleton, String masterCamera) {
+
+        if (masterCamera == null)
+            return skeleton;
+
+        CoordinatesTransformer ct = DataHolder.INSTANCE.retrieve(DataHolderEntry.CAMERA_TRANSFORMER);
+        return ct.transform(cameraName, masterCamera, skeleton);
+    }
+
+    /**
+     * @param skeleton Skeleton to draw, already in master camera coordinates (if a master camera is defined)
+     */
     private void drawSingleSkeleton(String cameraName, Skeleton skeleton,
                                     String masterCamera, Canvas canvas,
                                     boolean isDrawTransparentMode) {
 
-        // If a master camera is defined, transform to master camera coordinates and then draw
-        if (masterCamera != null) {
-
-            CoordinatesTransformer ct = DataHolder.INSTANCE.retrieve(DataHolderEntry.CAMERA_TRANSFORMER);
-            skeleton = ct.transform(cameraName, masterCamera, skeleton);
-        }
-
         // Transparent mode: don't draw master and draw all other skeletons with low opacity
         if (!isDrawTransparentMode) {
 
@@ -292,52 +393,79 @@ public class SkelPainter implements IKinectFrameEventListener {
     public void drawAllCameras(SingleFrameData frame, Canvas canvas, String masterCamera,
                                boolean isDrawTransparentMode) {
 
-        for (Pair<String, Skeleton> skeletonEntry : frame) {
+        if (masterCamera != null) {
 
-            String cameraName = skeletonEntry.first;
-            Skeleton skeleton = skeletonEntry.second;
+            // Master coordinates view of the frame, shared with the other listeners of this frame
+            CoordinatesTransformer ct = DataHolder.INSTANCE.retrieve(DataHolderEntry.CAMERA_TRANSFORMER);
+            SkeletonBatch masterView = frame.getTransformed(masterCamera, ct);
 
-            drawSingleSkeleton(cameraName, skeleton, masterCamera, canvas, isDrawTransparentMode);
+            for (int i = 0; i < masterView.size(); i++) {
+                drawSingleSkeleton(masterView.getCamera(i), masterView.getSkeleton(i),
+                                   masterCamera, canvas, isDrawTransparentMode);
+            }
         }
+        else {
 
-        // Keep skeletons for next iteration and draw frozen skeletons from slow cameras
-        Map<String, RemoteKinect> kinectDict = DataHolder.INSTANCE.retrieve(DataHolderEntry.CONNECTED_HOSTS);
-        for (Map.Entry<String, RemoteKinect> entry : kinectDict.entrySet()) {
+            for (int i = 0; i < frame.skeletonCount(); i++) {
 
-            String cameraName = entry.getKey();
-            List<Skeleton> trackedSkeletons = frame.getSkeletons(cameraName);
+                String cameraName = frame.getCamera(frame.getCameraIndex(i));
+                drawSingleSkeleton(cameraName, frame.getSkeleton(i), masterCamera, canvas, isDrawTransparentMode);
+            }
+        }
 
-            if (trackedSkeletons == null)
-                continue;
+        // Draw frozen skeletons from slow cameras: the latest skeletons they tracked, if recent enough
+        FrameHistory history = DataHolder.INSTANCE.retrieve(DataHolderEntry.FRAME_HISTORY);
+        if (history == null)
+            return;
 
-            if (trackedSkeletons.size() == 0) {
+        for (int cameraIndex = 0; cameraIndex < frame.cameraCount(); cameraIndex++) {
 
-                Pair<Long, List<Skeleton>> lastView = _lastCameraViews.get(cameraName);
+            if (frame.getFirstSkeleton(cameraIndex) < frame.getFirstSkeleton(cameraIndex + 1))
+                continue; // The camera tracks skeletons in this frame
 
-                if (lastView != null) {
+            String cameraName = frame.getCamera(cameraIndex);
+            List<Skeleton> frozenSkeletons = new ArrayList<>();
 
-                    long timeSinceLastRender = lastView.first - System.currentTimeMillis();
+            // Only copy under the lock, the frame thread appends to the history meanwhile
+            synchronized (history) {
 
-                    if (timeSinceLastRender < 1000) {
+                int lastView = history.findLatest(cameraName, frame.getTimestamp() - FROZEN_VIEW_TIMEOUT);
+                if (lastView < 0)
+                    continue;
 
-                        for (Skeleton skeleton: lastView.second) {
-                            drawSingleSkeleton(cameraName, skeleton, masterCamera, canvas, isDrawTransparentMode);
-                        }
-                    }
+                for (int i = 0; i < history.getSkeletonsCount(lastView); i++) {
+
+                    if (history.getCamera(lastView, i).equals(cameraName))
+                        frozenSkeletons.add(history.getSkeleton(lastView, i));
                 }
             }
-            else {
-                long now = System.currentTimeMillis();
-                _lastCameraViews.put(cameraName, new Pair<>(now, trackedSkeletons));
+
+            for (Skeleton skeleton: frozenSkeletons) {
+
+                Skeleton masterSkeleton = toMasterCoordinates(cameraName, skeleton, masterCamera);
+                drawSingleSkeleton(cameraName, masterSkeleton, masterCamera, canvas, isDrawTransparentMode);
+                _hasFrozenViews = true;
             }
         }
     }
 
     public void drawPredictedSkels(SingleFrameData frame, Canvas canvas, String masterCamera) {
 
+        int lookAhead = DataHolder.INSTANCE.retrieve(DataHolderEntry.PREDICTION_LOOK_AHEAD);
+        PersonTracker tracker = DataHolder.INSTANCE.retrieve(DataHolderEntry.PERSON_TRACKER);
         List<Skeleton> prediction = DataHolder.INSTANCE.retrieve(DataHolderEntry.AVERAGE_SKELETONS);
 
-        if (prediction != null) {
+        if ((lookAhead > 0) && (tracker != null) && (masterCamera != null)) {
+
+            // Fused persons, extrapolated to about the time they appear on screen
+            long displayTime = System.currentTimeMillis() + lookAhead;
+
+            for (PersonTracker.Person person : tracker.getPersons()) {
+
+                drawSingleSkeleton(masterCamera, person.predict(displayTime), masterCamera, canvas, false);
+            }
+        }
+        else if (prediction != null) {
 
             for (Skeleton skel : prediction) {
 
@@ -351,6 +479,7 @@ public class SkelPainter implements IKinectFrameEventListener {
     public void drawSkeletons(SingleFrameData frame, Canvas canvas){
 
         canvas.drawColor(ColorsPalette.CANVAS_BG_COLOR);
+        _hasFrozenViews = false;
         String masterCamera = DataHolder.INSTANCE.retrieve(DataHolderEntry.MASTER_CAMERA);
 
         boolean isShowAverageSkels = DataHolder.INSTANCE.retrieve(DataHolderEntry.SHOW_AVERAGE_SKELETONS);
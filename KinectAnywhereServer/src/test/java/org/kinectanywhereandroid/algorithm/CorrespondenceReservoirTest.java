@@ -0,0 +1,53 @@
+package org.kinectanywhereandroid.algorithm;
+
+import org.junit.Test;
+
+import Jama.Matrix;
+
+import static org.junit.Assert.assertEquals;
+
+public class CorrespondenceReservoirTest {
+
+    @Test
+    public void dropsRedundantPoints() {
+
+        CorrespondenceReservoir reservoir = new CorrespondenceReservoir();
+
+        // A person standing still: the same few points over and over
+        for (int frame = 0; frame < 100; frame++)
+            for (int joint = 0; joint < 3; joint++)
+                reservoir.add(0, joint, 2, 0.001 * frame, joint, 2);
+
+        assertEquals(3, reservoir.size());
+
+        // Full reservoir keeps its capacity
+        for (int i = 0; i < 2 * CorrespondenceReservoir.CAPACITY; i++)
+            reservoir.add(i, 0, 0, i, 0, 0);
+
+        assertEquals(CorrespondenceReservoir.CAPACITY, reservoir.size());
+    }
+
+    @Test
+    public void solvesOverReservoir() {
+
+        CorrespondenceReservoir reservoir = new CorrespondenceReservoir();
+
+        // Rotation of 90 degrees around y, then translation of (1, 0, 2)
+        for (int i = 0; i < 50; i++) {
+
+            double x = Math.sin(i) * 2;
+            double y = Math.cos(i * 0.7);
+            double z = 1 + (i % 7) * 0.3;
+
+            reservoir.add(x, y, z, z + 1, y, -x + 2);
+        }
+
+        Matrix transformation = new CalibrationAlgo().calibrate(reservoir.getCorrespondences(), reservoir.size());
+
+        assertEquals(0, transformation.get(0, 0), 1e-6);
+        assertEquals(1, transformation.get(0, 2), 1e-6);
+        assertEquals(-1, transformation.get(2, 0), 1e-6);
+        assertEquals(1, transformation.get(0, 3), 1e-6);
+        assertEquals(2, transformation.get(2, 3), 1e-6);
+    }
+}
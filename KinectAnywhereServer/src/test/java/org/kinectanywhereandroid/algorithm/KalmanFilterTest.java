@@ -0,0 +1,65 @@
+package org.kinectanywhereandroid.algorithm;
+
+import org.junit.Test;
+import org.kinectanywhereandroid.math.Mat3;
+import org.kinectanywhereandroid.math.Mat4;
+import org.kinectanywhereandroid.math.Vec3;
+
+import java.util.Random;
+
+import Jama.Matrix;
+
+import static org.junit.Assert.assertTrue;
+
+public class KalmanFilterTest {
+
+    private static final Vec3 AXIS_ANGLE = new Vec3(0.2, 1.1, -0.3);
+    private static final Vec3 TRANSLATION = new Vec3(1.5, 0.2, 2.0);
+
+    Matrix getPose(Random rand, double sigma) {
+
+        Vec3 axisAngle = new Vec3(rand.nextGaussian(), rand.nextGaussian(), rand.nextGaussian())
+                .scale(sigma).add(AXIS_ANGLE);
+        Vec3 translation = new Vec3(rand.nextGaussian(), rand.nextGaussian(), rand.nextGaussian())
+                .scale(sigma).add(TRANSLATION);
+
+        return new Mat4().set(new Mat3().setAxisAngle(axisAngle), translation).toMatrix();
+    }
+
+    double poseError(Matrix pose) {
+
+        Vec3 axisAngle = CalibrationAlgo.Rotation.toMat3(pose).toAxisAngle(new Vec3());
+        Vec3 translation = new Vec3(pose.get(0, 3), pose.get(1, 3), pose.get(2, 3));
+
+        return axisAngle.sub(AXIS_ANGLE).norm() + translation.sub(TRANSLATION).norm();
+    }
+
+    @Test
+    public void convergesOnNoisyMeasurements() {
+
+        Random rand = new Random(7);
+        KalmanFilter filter = new KalmanFilter();
+        Matrix estimate = null;
+
+        for (int i = 0; i < 300; i++)
+            estimate = filter.update(getPose(rand, 0.03), 0.05, i * 33);
+
+        // Far below the noise of a single measurement
+        assertTrue(poseError(estimate) < 0.02);
+    }
+
+    @Test
+    public void rejectsOutliers() {
+
+        Random rand = new Random(11);
+        KalmanFilter filter = new KalmanFilter();
+
+        for (int i = 0; i < 100; i++)
+            filter.update(getPose(rand, 0.01), 0.05, i * 33);
+
+        Matrix outlier = new Mat4().set(new Mat3(), new Vec3(-3, 0, 0)).toMatrix();
+        Matrix estimate = filter.update(outlier, 0.05, 100 * 33);
+
+        assertTrue(poseError(estimate) < 0.02);
+    }
+}
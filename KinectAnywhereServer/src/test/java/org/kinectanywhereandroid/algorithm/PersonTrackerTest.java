@@ -0,0 +1,133 @@
+package org.kinectanywhereandroid.algorithm;
+
+import org.junit.Test;
+import org.kinectanywhereandroid.model.Joint;
+import org.kinectanywhereandroid.model.Skeleton;
+import org.kinectanywhereandroid.model.TestSkeletons;
+
+import Jama.Matrix;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PersonTrackerTest {
+
+    @Test
+    public void linksCamerasToSamePerson() {
+
+        PersonTracker tracker = new PersonTracker();
+        SkelCalibrator calibrator = new SkelCalibrator();
+        calibrator.setTransformation("other", "master", Matrix.identity(4, 4));
+
+        // Each camera has its own tracking ids for the same two persons
+        SkeletonBatch batch = new SkeletonBatch();
+        batch.add("master", TestSkeletons.line(1, 0.0f, 2.0f));
+        batch.add("master", TestSkeletons.line(2, 1.5f, 2.0f));
+        batch.add("other", TestSkeletons.line(7, 1.45f, 2.0f));
+        batch.add("other", TestSkeletons.line(8, 0.05f, 2.0f));
+        tracker.update(batch, null, "master", calibrator, 1000);
+
+        assertEquals(2, tracker.getPersons().size());
+        assertEquals(tracker.getPersonId("master", 1), tracker.getPersonId("other", 8));
+        assertEquals(tracker.getPersonId("master", 2), tracker.getPersonId("other", 7));
+        assertTrue(tracker.getPersonId("master", 1) != tracker.getPersonId("master", 2));
+    }
+
+    @Test
+    public void ignoresUncalibratedCameras() {
+
+        PersonTracker tracker = new PersonTracker();
+        SkelCalibrator calibrator = new SkelCalibrator();
+
+        SkeletonBatch batch = new SkeletonBatch();
+        batch.add("master", TestSkeletons.line(1, 0.0f, 2.0f));
+        batch.add("other", TestSkeletons.line(7, 1.5f, 2.0f));
+        tracker.update(batch, null, "master", calibrator, 1000);
+
+        assertEquals(1, tracker.getPersons().size());
+        assertEquals(-1, tracker.getPersonId("other", 7));
+    }
+
+    @Test
+    public void keepsIdWhileMovingAndForgetsAfterTimeout() {
+
+        PersonTracker tracker = new PersonTracker();
+        SkelCalibrator calibrator = new SkelCalibrator();
+
+        SkeletonBatch batch = new SkeletonBatch();
+        batch.add("master", TestSkeletons.line(1, 0.0f, 2.0f));
+        tracker.update(batch, null, "master", calibrator, 1000);
+        int id = tracker.getPersonId("master", 1);
+
+        // The camera lost the person and tracks it again under a new tracking id, a bit further
+        batch = new SkeletonBatch();
+        batch.add("master", TestSkeletons.line(3, 0.2f, 2.0f));
+        tracker.update(batch, null, "master", calibrator, 1100);
+        assertEquals(id, tracker.getPersonId("master", 3));
+
+        tracker.update(new SkeletonBatch(), null, "master", calibrator, 5000);
+        assertEquals(0, tracker.getPersons().size());
+        assertEquals(-1, tracker.getPersonId("master", 3));
+    }
+
+    @Test
+    public void predictsAlongJointsVelocity() {
+
+        PersonTracker tracker = new PersonTracker();
+        SkelCalibrator calibrator = new SkelCalibrator();
+
+        // Walking sideways at 1 m/s
+        for (int i = 0; i < 3; i++) {
+            Skeleton skeleton = TestSkeletons.line(1, i * 0.1f, 2.0f);
+            skeleton.setTimestamp(1000 + i * 100);
+
+            SkeletonBatch batch = new SkeletonBatch();
+            batch.add("master", skeleton);
+            tracker.update(batch, null, "master", calibrator, 1000 + i * 100);
+        }
+
+        PersonTracker.Person person = tracker.getPersons().get(0);
+        Skeleton predicted = person.predict(1300);
+        assertTrue(predicted.joints[0].x > 0.2f);
+        assertTrue(predicted.joints[0].x < 0.3f);
+        assertEquals(person.joints[1], predicted.joints[0].y, 1e-6);
+
+        // Extrapolation is bounded
+        Skeleton far = person.predict(60000);
+        assertEquals(person.predict(1200 + PersonTracker.MAX_PREDICTION).joints[0].x, far.joints[0].x, 1e-6);
+    }
+
+    @Test
+    public void reseedsVelocityOfReappearingJoint() {
+
+        PersonTracker tracker = new PersonTracker();
+        SkelCalibrator calibrator = new SkelCalibrator();
+        int hand = Joint.JointType.HandRight.getValue();
+
+        // Standing still, the hand hidden for a few frames
+        for (int i = 0; i < 6; i++) {
+            Skeleton skeleton = TestSkeletons.line(1, 0.0f, 2.0f);
+            skeleton.setTimestamp(1000 + i * 33);
+            if (i > 0)
+                skeleton.joints[hand].trackingState = Joint.JointTrackingState.NotTracked;
+
+            SkeletonBatch batch = new SkeletonBatch();
+            batch.add("master", skeleton);
+            tracker.update(batch, null, "master", calibrator, 1000 + i * 33);
+        }
+
+        // The hand shows up again half a meter away: it moved while hidden, not within the last frame
+        Skeleton skeleton = TestSkeletons.line(1, 0.0f, 2.0f);
+        skeleton.setTimestamp(1000 + 6 * 33);
+        skeleton.joints[hand].x = 0.5f;
+
+        SkeletonBatch batch = new SkeletonBatch();
+        batch.add("master", skeleton);
+        tracker.update(batch, null, "master", calibrator, 1000 + 6 * 33);
+
+        PersonTracker.Person person = tracker.getPersons().get(0);
+        assertEquals(0.5f, person.joints[hand * 3], 1e-6);
+        assertEquals(0.0f, person.velocities[hand * 3], 1e-6);
+        assertEquals(0.5f, person.predict(person.timestamp + PersonTracker.MAX_PREDICTION).joints[hand].x, 1e-6);
+    }
+}
@@ -0,0 +1,50 @@
+package org.kinectanywhereandroid.algorithm;
+
+import org.junit.Test;
+import org.kinectanywhereandroid.model.Joint;
+import org.kinectanywhereandroid.model.TestSkeletons;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class SkeletonFusionTest {
+
+    @Test
+    public void weightsViewsByConfidence() {
+
+        SkeletonBatch batch = new SkeletonBatch();
+        batch.add("master", TestSkeletons.line(0, 0.0f, 2.0f, Joint.JointTrackingState.Tracked));
+        batch.add("inferred", TestSkeletons.line(0, 1.0f, 2.0f, Joint.JointTrackingState.Inferred));
+        batch.add("far", TestSkeletons.line(0, 1.0f, 5.0f, Joint.JointTrackingState.Tracked));
+
+        SkeletonFusion fusion = new SkeletonFusion();
+        fusion.begin(2);
+        fusion.add(0, batch, 0, SkeletonFusion.cameraWeight(0));
+        fusion.add(0, batch, 1, SkeletonFusion.cameraWeight(0));
+        fusion.add(1, batch, 0, SkeletonFusion.cameraWeight(0));
+        fusion.add(1, batch, 2, SkeletonFusion.cameraWeight(0));
+
+        float[] joint = new float[3];
+
+        // Inferred view weighs 0.1 of a tracked view
+        fusion.getJoint(0, 0, joint, 0);
+        assertEquals(0.1 / 1.1, joint[0], 1e-5);
+
+        // At twice the optimal distance a view weighs a quarter
+        fusion.getJoint(1, 0, joint, 0);
+        assertEquals(0.25 / 1.25, joint[0], 1e-5);
+    }
+
+    @Test
+    public void ignoresUncalibratedCameras() {
+
+        SkeletonBatch batch = new SkeletonBatch();
+        batch.add("other", TestSkeletons.line(0, 1.0f, 2.0f, Joint.JointTrackingState.Tracked));
+
+        SkeletonFusion fusion = new SkeletonFusion();
+        fusion.begin(1);
+        fusion.add(0, batch, 0, SkeletonFusion.cameraWeight(Double.NaN));
+
+        assertFalse(fusion.getJoint(0, 0, new float[3], 0));
+    }
+}
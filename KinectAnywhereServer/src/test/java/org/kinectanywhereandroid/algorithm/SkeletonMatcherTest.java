@@ -0,0 +1,76 @@
+package org.kinectanywhereandroid.algorithm;
+
+import org.junit.Test;
+import org.kinectanywhereandroid.model.Skeleton;
+import org.kinectanywhereandroid.model.TestSkeletons;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class SkeletonMatcherTest {
+
+    @Test
+    public void matchesOneToOne() {
+
+        Skeleton[] masters = { TestSkeletons.line(0.0f, 2.0f), TestSkeletons.line(0.35f, 2.0f) };
+
+        // Both skeletons are nearest to the first master, but only one of them can be that person
+        SkeletonBatch batch = new SkeletonBatch();
+        batch.add("camera", TestSkeletons.line(0.1f, 2.0f));
+        batch.add("camera", TestSkeletons.line(0.15f, 2.0f));
+
+        int[] assignment = new SkeletonMatcher().match(batch, 0, 2, masters, 2);
+
+        assertEquals(0, assignment[0]);
+        assertEquals(1, assignment[1]);
+    }
+
+    @Test
+    public void gatesDistantSkeletons() {
+
+        Skeleton[] masters = { TestSkeletons.line(0.0f, 2.0f) };
+
+        SkeletonBatch batch = new SkeletonBatch();
+        batch.add("camera", TestSkeletons.line(3.0f, 2.0f));
+        batch.add("camera", TestSkeletons.line(0.05f, 2.0f));
+
+        int[] assignment = new SkeletonMatcher().match(batch, 0, 2, masters, 1);
+
+        assertEquals(-1, assignment[0]);
+        assertEquals(0, assignment[1]);
+    }
+
+    @Test
+    public void matchesByBoneLengths() {
+
+        // Same persons in both cameras, in unrelated coordinates systems
+        Skeleton tall = TestSkeletons.line(0.0f, 2.0f);
+        Skeleton small = TestSkeletons.line(1.0f, 2.0f);
+        for (int i = 0; i < Skeleton.JOINTS_COUNT; i++)
+            small.joints[i].y *= 0.7f;
+
+        Skeleton otherSmall = new Skeleton(small);
+        Skeleton otherTall = new Skeleton(tall);
+        for (int i = 0; i < Skeleton.JOINTS_COUNT; i++) {
+            otherSmall.joints[i].x += 3.0f;
+            otherTall.joints[i].z -= 1.0f;
+        }
+
+        List<Skeleton> skeletons = Arrays.asList(tall, small);
+        List<Skeleton> targets = Arrays.asList(otherSmall, otherTall);
+
+        int[] assignment = new SkeletonMatcher().matchByBoneLengths(skeletons, targets);
+
+        assertEquals(1, assignment[0]);
+        assertEquals(0, assignment[1]);
+
+        // Persons of the same build can't be told apart
+        assignment = new SkeletonMatcher().matchByBoneLengths(Arrays.asList(tall, TestSkeletons.line(2.0f, 2.0f)),
+                                                              Arrays.asList(otherTall, TestSkeletons.line(5.0f, 2.0f)));
+
+        assertEquals(-1, assignment[0]);
+        assertEquals(-1, assignment[1]);
+    }
+}
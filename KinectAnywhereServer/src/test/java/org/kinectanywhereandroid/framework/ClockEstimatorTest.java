@@ -0,0 +1,44 @@
+package org.kinectanywhereandroid.framework;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class ClockEstimatorTest {
+
+    @Test
+    public void estimatesOffsetAndDrift() {
+
+        ClockEstimator clock = new ClockEstimator();
+        Random random = new Random(1);
+
+        // Remote clock is 5000 ms behind and runs 0.1% slow, samples are delayed by 2 to 40 ms
+        for (int i = 0; i < 600; i++) {
+
+            long remoteTime = i * 33;
+            long arrivalTime = 5000 + Math.round(remoteTime * 1.001) + 2 + random.nextInt(38);
+            clock.addSample(remoteTime, arrivalTime);
+        }
+
+        assertEquals(0.001, clock.getDrift(), 0.0002);
+
+        long remoteTime = 600 * 33;
+        assertEquals(5000 + remoteTime * 1.001 + 2, clock.toLocalTime(remoteTime), 5);
+    }
+
+    @Test
+    public void resetsWhenRemoteClockJumps() {
+
+        ClockEstimator clock = new ClockEstimator();
+
+        for (int i = 0; i < 100; i++)
+            clock.addSample(100000 + i * 33, 1000 + i * 33);
+
+        // Client restarted, its clock starts over
+        clock.addSample(0, 5000);
+
+        assertEquals(5000, clock.toLocalTime(0));
+    }
+}
@@ -0,0 +1,70 @@
+package org.kinectanywhereandroid.framework;
+
+import org.junit.Test;
+import org.kinectanywhereandroid.model.Joint;
+import org.kinectanywhereandroid.model.TestSkeletons;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+public class FrameHistoryTest {
+
+    SingleFrameData getFrame(long time, float x, boolean isQuiet) {
+
+        SingleFrameData.SingleFrameDataBuilder builder = new SingleFrameData.SingleFrameDataBuilder();
+        if (isQuiet)
+            builder.addQuietHost("camera");
+        else
+            builder.addSkeletons("camera", Collections.singletonList(TestSkeletons.line(3, x, 2.0f)));
+        builder.addTimestamp(time);
+
+        return builder.build();
+    }
+
+    @Test
+    public void keepsRecentFramesByTime() {
+
+        FrameHistory history = new FrameHistory();
+
+        // Frames each 10 ms, more than the history holds
+        int framesCount = FrameHistory.CAPACITY + 10;
+        for (int i = 0; i < framesCount; i++)
+            history.handle(getFrame(i * 10, i, false));
+
+        assertEquals(FrameHistory.CAPACITY, history.size());
+        assertEquals(100, history.getTime(0));
+
+        int frame = history.floor(205);
+        assertEquals(200, history.getTime(frame));
+        assertEquals(20.0f, history.getX(frame, 0, 0), 0);
+        assertEquals(0.5f, history.getY(frame, 0, 5), 1e-6);
+        assertEquals(3, history.getTrackingId(frame, 0));
+        assertEquals(Joint.JointTrackingState.Tracked, history.getTrackingState(frame, 0, 0));
+        assertEquals(210, history.getTime(history.ceiling(205)));
+        assertEquals(-1, history.floor(50));
+
+        final int[] visited = new int[1];
+        history.forEach(200, 300, new FrameHistory.FrameVisitor() {
+            @Override
+            public boolean visit(FrameHistory history, int frame) {
+                visited[0]++;
+                return true;
+            }
+        });
+        assertEquals(11, visited[0]);
+    }
+
+    @Test
+    public void findsLatestViewOfCamera() {
+
+        FrameHistory history = new FrameHistory();
+        history.handle(getFrame(1000, 1.0f, false));
+        history.handle(getFrame(1030, 2.0f, true));
+
+        int frame = history.findLatest("camera", 500);
+        assertEquals(1000, history.getTime(frame));
+        assertEquals(1.0f, history.getSkeleton(frame, 0).joints[0].x, 0);
+        assertEquals(-1, history.findLatest("camera", 1010));
+    }
+}
@@ -0,0 +1,50 @@
+package org.kinectanywhereandroid.framework;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+
+public class JitterBufferTest {
+
+    /**
+     * @return Playout delay after a link with the given jitter settled, and the fraction of samples within it
+     */
+    private double[] settle(int maxJitter) {
+
+        JitterBuffer buffer = new JitterBuffer();
+        Random random = new Random(1);
+        int onTime = 0;
+        int total = 0;
+
+        for (int i = 0; i < 5000; i++) {
+
+            long delay = 5 + random.nextInt(maxJitter + 1);
+
+            if (i >= 1000) {
+                total++;
+                if (delay <= buffer.getPlayoutDelay())
+                    onTime++;
+            }
+
+            buffer.addSample(delay);
+        }
+
+        return new double[] { buffer.getPlayoutDelay(), (double)onTime / total };
+    }
+
+    @Test
+    public void adaptsDelayToJitter() {
+
+        double[] steady = settle(2);
+        double[] jittery = settle(80);
+
+        assertTrue(steady[0] < 15);
+        assertTrue(jittery[0] > steady[0] + 40);
+
+        // Both hold about the target completion rate
+        assertTrue(steady[1] > 0.9);
+        assertTrue(jittery[1] > 0.9);
+    }
+}
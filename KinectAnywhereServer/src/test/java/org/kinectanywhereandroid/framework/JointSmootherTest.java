@@ -0,0 +1,85 @@
+package org.kinectanywhereandroid.framework;
+
+import org.junit.Test;
+import org.kinectanywhereandroid.model.Joint;
+import org.kinectanywhereandroid.model.Skeleton;
+import org.kinectanywhereandroid.util.DataHolder;
+import org.kinectanywhereandroid.util.DataHolderEntry;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class JointSmootherTest {
+
+    Skeleton getSkeleton(float x, long timestamp) {
+
+        Skeleton skeleton = new Skeleton();
+        skeleton.trackingId = 1;
+        skeleton.setTimestamp(timestamp);
+
+        for (int i = 0; i < Skeleton.JOINTS_COUNT; i++) {
+            skeleton.joints[i] = new Joint(x, 1.0f, 2.0f);
+            skeleton.joints[i].trackingState = Joint.JointTrackingState.Tracked;
+        }
+
+        return skeleton;
+    }
+
+    SingleFrameData getFrame(Skeleton skeleton, long timestamp) {
+
+        SingleFrameData.SingleFrameDataBuilder builder = new SingleFrameData.SingleFrameDataBuilder();
+        builder.addSkeleton("camera", skeleton);
+        builder.addTimestamp(timestamp);
+        return builder.build();
+    }
+
+    @Test
+    public void reducesJitter() {
+
+        DataHolder.INSTANCE.save(DataHolderEntry.JOINT_SMOOTHING, Boolean.TRUE);
+        JointSmoother smoother = new JointSmoother();
+        Random rand = new Random(3);
+
+        double rawError = 0;
+        double smoothedError = 0;
+
+        for (int i = 0; i < 200; i++) {
+
+            long timestamp = i * 33;
+            float raw = (float)(rand.nextGaussian() * 0.01);
+            SingleFrameData frame = getFrame(getSkeleton(raw, timestamp), timestamp);
+            smoother.handle(frame);
+
+            if (i >= 20) {
+                float smoothed = frame.getSkeleton(0).joints[0].x;
+                rawError += raw * raw;
+                smoothedError += smoothed * smoothed;
+            }
+        }
+
+        assertTrue(smoothedError < rawError * 0.25);
+    }
+
+    @Test
+    public void skipsRepeatedSamples() {
+
+        DataHolder.INSTANCE.save(DataHolderEntry.JOINT_SMOOTHING, Boolean.TRUE);
+        JointSmoother smoother = new JointSmoother();
+
+        smoother.handle(getFrame(getSkeleton(0, 0), 0));
+
+        // Same sample delivered in two frames (sample mode) is smoothed only once, and stays smoothed
+        Skeleton skeleton = getSkeleton(1, 33);
+        SingleFrameData frame = getFrame(skeleton, 33);
+        smoother.handle(frame);
+        float smoothed = frame.getSkeleton(0).joints[0].x;
+
+        SingleFrameData repeated = getFrame(skeleton, 66);
+        smoother.handle(repeated);
+
+        assertTrue(smoothed < 1);
+        assertEquals(smoothed, repeated.getSkeleton(0).joints[0].x, 0);
+    }
+}
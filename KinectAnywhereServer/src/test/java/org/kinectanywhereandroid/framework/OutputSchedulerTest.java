@@ -0,0 +1,104 @@
+package org.kinectanywhereandroid.framework;
+
+import org.junit.After;
+import org.junit.Test;
+import org.kinectanywhereandroid.algorithm.PersonTracker;
+import org.kinectanywhereandroid.algorithm.SkelCalibrator;
+import org.kinectanywhereandroid.model.Joint;
+import org.kinectanywhereandroid.model.Skeleton;
+import org.kinectanywhereandroid.model.TestSkeletons;
+import org.kinectanywhereandroid.util.DataHolder;
+import org.kinectanywhereandroid.util.DataHolderEntry;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OutputSchedulerTest {
+
+    @After
+    public void clearSharedEntries() {
+
+        // Entries are process wide, don't leak the master camera into other tests
+        DataHolder.INSTANCE.save(DataHolderEntry.MASTER_CAMERA, null);
+        DataHolder.INSTANCE.save(DataHolderEntry.CAMERA_TRANSFORMER, null);
+    }
+
+    @Test
+    public void interpolatesBetweenFramesAndExtrapolatesPastThem() {
+
+        String master = "master";
+        SkelCalibrator calibrator = new SkelCalibrator();
+        DataHolder.INSTANCE.save(DataHolderEntry.MASTER_CAMERA, master);
+        DataHolder.INSTANCE.save(DataHolderEntry.CAMERA_TRANSFORMER, calibrator);
+
+        PersonTracker tracker = new PersonTracker();
+        OutputScheduler scheduler = new OutputScheduler(tracker, 120, 0);
+
+        // Walking sideways at 1 m/s, a frame each 100 ms
+        for (int i = 0; i < 3; i++)
+            handle(tracker, scheduler, getFrame(master, i * 0.1f, 1000 + i * 100, 1000 + i * 100, true));
+
+        List<Skeleton> skeletons = scheduler.sample(1150);
+        assertEquals(1, skeletons.size());
+        assertEquals(0.15f, skeletons.get(0).joints[0].x, 1e-5);
+        assertEquals(Joint.JointTrackingState.Tracked, skeletons.get(0).joints[0].trackingState);
+
+        skeletons = scheduler.sample(1250);
+        assertTrue(skeletons.get(0).joints[0].x > 0.2f);
+
+        // Before the oldest frame kept
+        skeletons = scheduler.sample(500);
+        assertEquals(0.0f, skeletons.get(0).joints[0].x, 1e-5);
+    }
+
+    @Test
+    public void ignoresRepeatedSamples() {
+
+        String master = "master";
+        SkelCalibrator calibrator = new SkelCalibrator();
+        DataHolder.INSTANCE.save(DataHolderEntry.MASTER_CAMERA, master);
+        DataHolder.INSTANCE.save(DataHolderEntry.CAMERA_TRANSFORMER, calibrator);
+
+        PersonTracker tracker = new PersonTracker();
+        OutputScheduler scheduler = new OutputScheduler(tracker, 120, 0);
+
+        for (int i = 0; i < 3; i++)
+            handle(tracker, scheduler, getFrame(master, i * 0.1f, 1000 + i * 100, 1000 + i * 100, true));
+
+        PersonTracker.Person person = tracker.getPersons().get(0);
+        float x = scheduler.sample(1250).get(0).joints[0].x;
+
+        // The next frame samples the camera before its next sample arrived
+        handle(tracker, scheduler, getFrame(master, 0.2f, 1200, 1232, false));
+
+        PersonTracker.Person repeated = tracker.getPersons().get(0);
+        assertEquals(person.vx, repeated.vx, 0);
+        assertEquals(person.velocities[0], repeated.velocities[0], 0);
+        assertEquals(person.timestamp, repeated.timestamp);
+        assertEquals(x, scheduler.sample(1250).get(0).joints[0].x, 0);
+    }
+
+    SingleFrameData getFrame(String camera, float x, long sampleTime, long time, boolean isChanged) {
+
+        Skeleton skeleton = TestSkeletons.line(1, x, 2.0f);
+        skeleton.setTimestamp(sampleTime);
+
+        SingleFrameData.SingleFrameDataBuilder builder = new SingleFrameData.SingleFrameDataBuilder();
+        builder.addSkeletons(camera, Collections.singletonList(skeleton));
+        if (!isChanged)
+            builder.markUnchanged(camera);
+        builder.addTimestamp(time);
+
+        return builder.build();
+    }
+
+    void handle(PersonTracker tracker, OutputScheduler scheduler, SingleFrameData frame) {
+
+        tracker.handle(frame);
+        scheduler.handle(frame);
+        frame.release();
+    }
+}
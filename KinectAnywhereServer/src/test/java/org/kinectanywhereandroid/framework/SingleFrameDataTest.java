@@ -0,0 +1,102 @@
+package org.kinectanywhereandroid.framework;
+
+import org.junit.Test;
+import org.kinectanywhereandroid.algorithm.SkeletonBatch;
+import org.kinectanywhereandroid.model.Skeleton;
+import org.kinectanywhereandroid.model.TestSkeletons;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SingleFrameDataTest {
+
+    @Test
+    public void recyclesFrameOnceReleasedByAllHolders() {
+
+        SingleFrameData.SingleFrameDataBuilder builder = new SingleFrameData.SingleFrameDataBuilder();
+        builder.addSkeletons("camera", Collections.singletonList(TestSkeletons.line(0.0f, 2.0f)));
+        builder.addTimestamp(1000);
+        SingleFrameData frame = builder.build();
+
+        SkeletonBatch columns = frame.getColumns();
+        int generation = columns.getGeneration();
+        assertEquals(1, columns.size());
+
+        // Kept by another thread
+        frame.retain();
+        frame.release();
+        assertEquals(1, frame.getColumns().size());
+        assertEquals(1, frame.getSkeletons("camera").size());
+
+        frame.release();
+        assertEquals(0, columns.size());
+        assertEquals(generation + 1, columns.getGeneration());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void failsFastOnceRecycled() {
+
+        SingleFrameData.SingleFrameDataBuilder builder = new SingleFrameData.SingleFrameDataBuilder();
+        builder.addSkeletons("camera", Collections.singletonList(TestSkeletons.line(0.0f, 2.0f)));
+        builder.addTimestamp(1000);
+        SingleFrameData frame = builder.build();
+
+        frame.release();
+        frame.getSkeleton(0);
+    }
+
+    @Test
+    public void indexesSkeletonsByCamera() {
+
+        Skeleton skeleton = new Skeleton();
+        SingleFrameData.SingleFrameDataBuilder builder = new SingleFrameData.SingleFrameDataBuilder();
+        builder.addSkeletons("tracking", Arrays.asList(skeleton, skeleton));
+        builder.addQuietHost("quiet");
+        builder.addTimestamp(1000);
+        SingleFrameData frame = builder.build();
+
+        assertEquals(2, frame.cameraCount());
+        assertEquals(2, frame.skeletonCount());
+
+        for (int cameraIndex = 0; cameraIndex < frame.cameraCount(); cameraIndex++) {
+            int count = frame.getFirstSkeleton(cameraIndex + 1) - frame.getFirstSkeleton(cameraIndex);
+            assertEquals(frame.getCamera(cameraIndex).equals("tracking") ? 2 : 0, count);
+        }
+
+        final int[] visited = new int[1];
+        frame.forEachSkeleton(new SingleFrameData.SkeletonConsumer() {
+            @Override
+            public void accept(String camera, Skeleton skeleton) {
+                assertEquals("tracking", camera);
+                visited[0]++;
+            }
+        });
+        assertEquals(2, visited[0]);
+    }
+
+    @Test
+    public void tracksCamerasWithNewSamples() {
+
+        SingleFrameData.SingleFrameDataBuilder builder = new SingleFrameData.SingleFrameDataBuilder();
+        builder.addSkeletons("stale", Collections.singletonList(new Skeleton()));
+        builder.addSkeletons("fresh", Collections.singletonList(new Skeleton()));
+        builder.markUnchanged("stale");
+        builder.addTimestamp(1000);
+        SingleFrameData frame = builder.build();
+
+        assertTrue(frame.hasChanges());
+        for (int cameraIndex = 0; cameraIndex < frame.cameraCount(); cameraIndex++)
+            assertEquals(frame.getCamera(cameraIndex).equals("fresh"), frame.isChanged(cameraIndex));
+
+        builder = new SingleFrameData.SingleFrameDataBuilder();
+        builder.addSkeletons("stale", Collections.singletonList(new Skeleton()));
+        builder.markUnchanged("stale");
+        builder.addTimestamp(1033);
+
+        assertFalse(builder.build().hasChanges());
+    }
+}
@@ -0,0 +1,71 @@
+package org.kinectanywhereandroid.framework;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TimingWheelTest {
+
+    @Test
+    public void runsAtFixedRate() throws InterruptedException {
+
+        TimingWheel wheel = new TimingWheel(2);
+        final AtomicInteger runs = new AtomicInteger();
+
+        TimingWheel.ScheduledTask task = wheel.schedule("task", new Runnable() {
+
+            @Override
+            public void run() {
+                runs.incrementAndGet();
+            }
+        }, 0, 20);
+
+        wheel.activate();
+        Thread.sleep(400);
+        task.cancel();
+        Thread.sleep(50);
+        int runsWhenCancelled = runs.get();
+        Thread.sleep(100);
+        wheel.deactivate();
+
+        // About 400 / 20 runs, the rate doesn't drift with the time each tick takes
+        assertTrue("Runs: " + runsWhenCancelled, (runsWhenCancelled >= 15) && (runsWhenCancelled <= 23));
+        assertEquals(runsWhenCancelled, runs.get());
+        // A run may be skipped while the pool threads start or on a scheduling hiccup of the test machine
+        assertTrue("Overruns: " + task.getOverruns(), task.getOverruns() <= 1);
+    }
+
+    @Test
+    public void skipsOverrunningRuns() throws InterruptedException {
+
+        TimingWheel wheel = new TimingWheel(2);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+
+        // Each run takes longer than the period
+        TimingWheel.ScheduledTask task = wheel.schedule("slow task", new Runnable() {
+
+            @Override
+            public void run() {
+                maxRunning.set(Math.max(maxRunning.get(), running.incrementAndGet()));
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+            }
+        }, 0, 10);
+
+        wheel.activate();
+        Thread.sleep(300);
+        wheel.deactivate();
+
+        assertEquals(1, maxRunning.get());
+        assertTrue("Runs: " + task.getRuns(), task.getRuns() <= 7);
+        assertTrue("Overruns: " + task.getOverruns(), task.getOverruns() >= 15);
+    }
+}
@@ -0,0 +1,72 @@
+package org.kinectanywhereandroid.math;
+
+import org.junit.Test;
+
+import Jama.Matrix;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class Mat4Test {
+
+    private static final double DELTA = 0.00001;
+
+    Mat4 getTransform() {
+
+        Mat3 rotation = new Mat3().setAxisAngle(new Vec3(0.3, -0.5, 0.8));
+        return new Mat4().set(rotation, new Vec3(0.1, 2.0, -1.5));
+    }
+
+    @Test
+    public void axisAngleRoundTrip() {
+
+        Vec3 axisAngle = new Vec3(0.3, -0.5, 0.8);
+        Vec3 result = new Mat3().setAxisAngle(axisAngle).toAxisAngle(new Vec3());
+
+        assertEquals(axisAngle.x, result.x, DELTA);
+        assertEquals(axisAngle.y, result.y, DELTA);
+        assertEquals(axisAngle.z, result.z, DELTA);
+    }
+
+    @Test
+    public void mulMatchesJama() {
+
+        Mat4 a = getTransform();
+        Mat4 b = new Mat4(a).invertRigid().mul(a);
+        Matrix expected = a.toMatrix().times(a.toMatrix());
+
+        assertArrayEquals(Matrix.identity(4, 4).getRowPackedCopy(), b.toMatrix().getRowPackedCopy(), DELTA);
+        assertArrayEquals(expected.getRowPackedCopy(), new Mat4(a).mul(a).toMatrix().getRowPackedCopy(), DELTA);
+    }
+
+    @Test
+    public void transformPoints() {
+
+        Mat4 transform = getTransform();
+        float[] points = { 0.5f, 1.0f, 2.0f, -1.0f, 0.0f, 3.0f };
+        float[] result = new float[points.length];
+        transform.transformPoints(points, 0, result, 0, 2);
+
+        for (int i = 0; i < 2; i++) {
+            Vec3 expected = transform.transformPoint(new Vec3(points[i * 3], points[i * 3 + 1], points[i * 3 + 2]),
+                                                     new Vec3());
+            assertEquals(expected.x, result[i * 3], DELTA);
+            assertEquals(expected.y, result[i * 3 + 1], DELTA);
+            assertEquals(expected.z, result[i * 3 + 2], DELTA);
+        }
+    }
+
+    @Test
+    public void transformPointsFloatMatrix() {
+
+        Mat4 transform = getTransform();
+        float[] points = { 0.5f, 1.0f, 2.0f, -1.0f, 0.0f, 3.0f };
+        float[] expected = new float[points.length];
+        transform.transformPoints(points, 0, expected, 0, 2);
+
+        // In place, with the single precision copy of the matrix
+        Mat4.transformPoints(transform.toFloatArray(new float[16]), points, 0, points, 0, 2);
+
+        assertArrayEquals(expected, points, 0.0001f);
+    }
+}
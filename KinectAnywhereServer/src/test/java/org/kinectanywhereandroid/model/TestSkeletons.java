@@ -0,0 +1,30 @@
+package org.kinectanywhereandroid.model;
+
+/**
+ * Skeletons for the tests: all joints on a vertical line, one every 10 cm
+ */
+public class TestSkeletons {
+
+    public static Skeleton line(float x, float z) {
+
+        return line(0, x, z, Joint.JointTrackingState.Tracked);
+    }
+
+    public static Skeleton line(int trackingId, float x, float z) {
+
+        return line(trackingId, x, z, Joint.JointTrackingState.Tracked);
+    }
+
+    public static Skeleton line(int trackingId, float x, float z, Joint.JointTrackingState state) {
+
+        Skeleton skeleton = new Skeleton();
+        skeleton.trackingId = trackingId;
+
+        for (int i = 0; i < Skeleton.JOINTS_COUNT; i++) {
+            skeleton.joints[i] = new Joint(x, i * 0.1f, z);
+            skeleton.joints[i].trackingState = state;
+        }
+
+        return skeleton;
+    }
+}